@@ -0,0 +1,588 @@
+package core;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import database.ColumnStore;
+import database.DBAccessor;
+import database.DBSession;
+import database.ExportPlan;
+import database.RowBitmap;
+import database.TableStream;
+
+/**
+ * ArffExporter
+ * @author Daniel J Bray
+ *
+ * The ArffExporter converts the results of a query straight to an .arff file. Rows are
+ * read from a forward-only stream and written as they arrive, so no copy of the table is
+ * ever kept in memory no matter how many rows there are. This is the path to use for large
+ * tables. Rows already held in a ColumnStore, such as a table shown in the GUI, are written
+ * from the store with its excluded rows skipped as they are read. This class has no GUI
+ * dependencies.
+ */
+public class ArffExporter {
+
+	/**
+	 * The file exports are written to unless another is given.
+	 */
+	public static final String FILE_NAME = "MysqlToArff.arff";
+
+	//How many rows are written between progress updates
+	static final int PROGRESS_INTERVAL = 1024;
+
+	private DBSession session;
+	private ExportProgress progress;
+	private boolean sync;
+	private OutputFormat format;
+	private boolean collectStatistics;
+	private boolean prune;
+	private int nominalLimit;
+	private AttributeStatistics[] statistics;
+
+	/**
+	 * ArffExporter
+	 *
+	 * Constructs a new ArffExporter for the table(s) of the session. The session
+	 * is used for the export only and is not closed by the exporter.
+	 *
+	 * @param session - the session on the table(s) used for the queries
+	 */
+	public ArffExporter(DBSession session){
+		this.session = session;
+		progress = null;
+		sync = false;
+		format = new OutputFormat();
+		collectStatistics = false;
+		prune = false;
+		nominalLimit = 0;
+		statistics = null;
+	}
+
+	/**
+	 * setStatistics
+	 *
+	 * Sets whether statistics of each attribute are gathered as the rows are written
+	 * (see getStatistics).
+	 *
+	 * @param collectStatistics - true to gather statistics
+	 */
+	public void setStatistics(boolean collectStatistics){
+		this.collectStatistics = collectStatistics;
+	}
+
+	/**
+	 * setPruning
+	 *
+	 * Sets whether attributes that are all missing or constant are left out of plan
+	 * exports. Their statistics are aggregated by the database before the export, and
+	 * are then the statistics of the export.
+	 *
+	 * @param prune - true to prune useless attributes
+	 */
+	public void setPruning(boolean prune){
+		this.prune = prune;
+	}
+
+	/**
+	 * setNominalLimit
+	 *
+	 * Sets the most distinct values a text column can have to be written as a nominal
+	 * attribute, {a,b,c}, instead of a string attribute (see ArffFormat.isNominal). For
+	 * plan and query exports the distinct values are found by the database before the
+	 * export and the server stops looking once there are more than the limit, so columns
+	 * with many values cost little; rows held in a store are counted in memory. The values
+	 * are found and the rows read in one snapshot of the data (see DBSession.beginSnapshot),
+	 * so a row added in between can not bring a value that is missing from the labels. The
+	 * results of a query that can not be read as a derived table (such as SHOW, or a SELECT
+	 * with two columns of the same name) are written with text as strings.
+	 *
+	 * @param nominalLimit - the most labels of a nominal attribute, or 0 to write text as strings
+	 */
+	public void setNominalLimit(int nominalLimit){
+		this.nominalLimit = nominalLimit;
+	}
+
+	/**
+	 * getStatistics
+	 *
+	 * Gets the statistics of each attribute of the last export, pruned ones included.
+	 *
+	 * @return the statistics, or null if none were gathered
+	 */
+	public AttributeStatistics[] getStatistics(){
+		return statistics;
+	}
+
+	/**
+	 * setOutputFormat
+	 *
+	 * Sets how the exports are written: compressed and/or split into shards. By default
+	 * a single uncompressed file is written.
+	 *
+	 * @param format - the output format
+	 */
+	public void setOutputFormat(OutputFormat format){
+		this.format = format;
+	}
+
+	/**
+	 * setSync
+	 *
+	 * Sets whether the file is forced to disk (fsync) before an export returns.
+	 *
+	 * @param sync - true to force the file to disk
+	 */
+	public void setSync(boolean sync){
+		this.sync = sync;
+	}
+
+	/**
+	 * setProgress
+	 *
+	 * Sets where the progress of the exports is reported. If the progress is cancelled
+	 * the export stops, the partly written file is deleted and an InterruptedIOException
+	 * is thrown.
+	 *
+	 * @param progress - the progress to report to, or null for none
+	 */
+	public void setProgress(ExportProgress progress){
+		this.progress = progress;
+	}
+
+	/**
+	 * export
+	 *
+	 * Runs the query and writes its results to the file in ARFF format. The column names
+	 * are the names of every column returned by the query (marked as multiples where needed,
+	 * see DBAccessor.markMultiples). Only the columns listed in 'columns' are written. The
+	 * relation is named after the table(s) of the session.
+	 *
+	 * @param query - the SQL query (in sql syntax) to export the results of
+	 * @param columnNames - the names of the columns to write
+	 * @param columns - the (0 based) index in the query results of each column to write
+	 * @param fileName - the file to write to
+	 * @return the number of data rows written
+	 * @throws SQLException if the database encounters an error
+	 * @throws IOException if the file can not be written
+	 */
+	public long export(String query, String[] columnNames, int[] columns, String fileName) throws SQLException, IOException{
+		statistics = null;
+		if(nominalLimit > 0)
+			session.beginSnapshot();
+		try{
+			String[] nominalTypes = (nominalLimit > 0) ? getNominalTypes(query, columns) : null;
+			TableStream stream = session.streamQuery(query);
+			try{
+				return export(ArffFormat.getRelationName(session.getTable()), stream, columnNames, columns, nominalTypes, fileName, collectStatistics);
+			}
+			finally{
+				stream.close();
+			}
+		}
+		finally{
+			if(nominalLimit > 0)
+				session.endSnapshot();
+		}
+	}
+
+	/**
+	 * export
+	 *
+	 * Runs the query and writes its results to the file in ARFF format. Only the columns
+	 * named in the projection are written, in that order. Names are matched against the
+	 * columns of the query with multiples marked (see DBAccessor.markMultiples).
+	 *
+	 * @param relationName - the name of the relation
+	 * @param query - the SQL query (in sql syntax) to export the results of
+	 * @param projection - the names of the columns to write, or null for every column
+	 * @param fileName - the file to write to
+	 * @return the number of data rows written
+	 * @throws SQLException if the database encounters an error or a column is not found
+	 * @throws IOException if the file can not be written
+	 */
+	public long export(String relationName, String query, String[] projection, String fileName) throws SQLException, IOException{
+		statistics = null;
+		if(nominalLimit > 0)
+			session.beginSnapshot();
+		try{
+			//Every column is looked at before the stream is open, then the projected ones are picked
+			String[] allNominalTypes = (nominalLimit > 0) ? getNominalTypes(query, null) : null;
+			TableStream stream = session.streamQuery(query);
+			try{
+				String[] colNames = DBAccessor.markMultiples(DBAccessor.getColNamesFromRS(stream.getResultSet()));
+				if(projection == null)
+					projection = colNames;
+
+				int[] columns = new int[projection.length];
+				for(int i=0; i<projection.length; i++){
+					columns[i] = -1;
+					for(int j=0; j<colNames.length; j++){
+						if(colNames[j].equalsIgnoreCase(projection[i].trim())){
+							columns[i] = j;
+							break;
+						}
+					}
+					if(columns[i] == -1)
+						throw new SQLException("Unknown column " + projection[i] + ".");
+				}
+
+				String[] columnNames = new String[columns.length];
+				String[] nominalTypes = (allNominalTypes == null) ? null : new String[columns.length];
+				for(int i=0; i<columns.length; i++){
+					columnNames[i] = colNames[columns[i]];
+					if(nominalTypes != null)
+						nominalTypes[i] = allNominalTypes[columns[i]];
+				}
+				return export(relationName, stream, columnNames, columns, nominalTypes, fileName, collectStatistics);
+			}
+			finally{
+				stream.close();
+			}
+		}
+		finally{
+			if(nominalLimit > 0)
+				session.endSnapshot();
+		}
+	}
+
+	/**
+	 * export
+	 *
+	 * Writes the planned columns and rows to the file in ARFF format. The plan is compiled
+	 * into the query so excluded columns and rows are never fetched. The plan should be on
+	 * the table(s) of the session.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param plan - the export plan
+	 * @param fileName - the file to write to
+	 * @return the number of data rows written
+	 * @throws SQLException if the database encounters an error or a column is not found
+	 * @throws IOException if the file can not be written
+	 */
+	public long export(String relationName, ExportPlan plan, String fileName) throws SQLException, IOException{
+		statistics = null;
+		//The pruning statistics and the labels are read in the same snapshot as the rows
+		boolean snapshot = prune || nominalLimit > 0;
+		if(snapshot)
+			session.beginSnapshot();
+		try{
+			if(prune)
+				plan = prune(plan);
+			String[] columnNames = plan.getColumnNames(session);
+			int[] columns = new int[columnNames.length];
+			for(int i=0; i<columns.length; i++){
+				columns[i] = i;
+			}
+			String[] nominalTypes = (nominalLimit > 0) ? getNominalTypes(plan) : null;
+
+			TableStream stream = session.streamPlan(plan);
+			try{
+				return export(relationName, stream, columnNames, columns, nominalTypes, fileName, collectStatistics && !prune);
+			}
+			finally{
+				stream.close();
+			}
+		}
+		finally{
+			if(snapshot)
+				session.endSnapshot();
+		}
+	}
+
+	/**
+	 * export
+	 *
+	 * Writes rows already held in a store (such as a table read from its snapshot, see
+	 * DBSession.getTableData) to the file in ARFF format, so they are not fetched again.
+	 * Statistics are not gathered from stores.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param store - the rows
+	 * @param excluded - the ids (store rows) of the rows to leave out
+	 * @param columnNames - the names of the columns to write
+	 * @param columns - the (0 based) column of the store of each column to write
+	 * @param fileName - the file to write to
+	 * @return the number of data rows written
+	 * @throws IOException if the file can not be written
+	 */
+	public long export(String relationName, ColumnStore store, RowBitmap excluded, String[] columnNames, int[] columns,
+			String fileName) throws IOException{
+		statistics = null;
+		String[] allTypes = store.getDataTypes();
+		String[] dataTypes = new String[columns.length];
+		String[] types = new String[columns.length];
+		for(int i=0; i<columns.length; i++){
+			dataTypes[i] = allTypes[columns[i]];
+			types[i] = ArffFormat.mapDataTypeToARFF(dataTypes[i]);
+			if(nominalLimit > 0 && ArffFormat.isNominalCandidate(dataTypes[i])){
+				List<String> values = getDistinctValues(store, excluded, columns[i]);
+				if(values != null && ArffFormat.isNominal(dataTypes[i], values.size(), nominalLimit))
+					types[i] = ArffFormat.getNominalType(values);
+			}
+		}
+
+		int rows = store.getRowCount();
+		String[] values = new String[columns.length];
+		ArffWriter writer = new ArffWriter(format, fileName, sync);
+		writer.setDataTypes(dataTypes);
+		try{
+			writer.writeHeader(relationName, columnNames, types);
+			if(progress != null)
+				progress.start();
+			int count = 0;
+			for(int row=0; row<rows; row++){
+				if(excluded.contains(row))
+					continue;
+				if(progress != null && progress.isCancelled())
+					break;
+				for(int i=0; i<columns.length; i++){
+					values[i] = store.getString(row, columns[i]);
+				}
+				writer.writeRow(values);
+				if(++count == PROGRESS_INTERVAL && progress != null){
+					progress.addRows(count);
+					count = 0;
+				}
+			}
+			if(progress != null)
+				progress.addRows(count);
+		}
+		finally{
+			writer.close();
+		}
+		if(progress != null){
+			File[] outputs = new File[writer.getShardCount()];
+			for(int i=0; i<outputs.length; i++){
+				outputs[i] = new File(format.getShardName(fileName, i));
+			}
+			progress.checkCancelled(outputs);
+		}
+		return writer.getRowCount();
+	}
+
+	/**
+	 * getDistinctValues
+	 *
+	 * Counts the distinct values of a text column of the store.
+	 *
+	 * @return the sorted distinct values, or null if there are more than nominalLimit
+	 */
+	private List<String> getDistinctValues(ColumnStore store, RowBitmap excluded, int column){
+		DistinctCounter distinct = new DistinctCounter(nominalLimit);
+		for(int row=0; row<store.getRowCount(); row++){
+			if(!excluded.contains(row))
+				distinct.add(store.getString(row, column));
+		}
+		return distinct.getValues();
+	}
+
+	/**
+	 * prune
+	 *
+	 * Aggregates the planned rows and copies the plan without the attributes that are
+	 * all missing or constant.
+	 */
+	private ExportPlan prune(ExportPlan plan) throws SQLException{
+		String[] columnNames = plan.getColumnNames(session);
+		String[] dataTypes = getDataTypes(plan);
+		boolean[] numeric = new boolean[dataTypes.length];
+		for(int i=0; i<dataTypes.length; i++){
+			numeric[i] = ValueEncoder.forType(dataTypes[i]).isNumeric();
+		}
+
+		statistics = AttributeStatistics.fromAggregates(columnNames, dataTypes, session.getPlanStatistics(plan, numeric));
+		ExportPlan pruned = new ExportPlan(plan);
+		for(AttributeStatistics s : statistics){
+			if(s.isUseless())
+				pruned.excludeColumn(s.getName());
+		}
+		return pruned;
+	}
+
+	/**
+	 * getNominalTypes
+	 *
+	 * Asks the database for the distinct values of each planned text column and makes the
+	 * nominal type of each that is nominal (see ArffFormat.isNominal).
+	 *
+	 * @return the nominal type of each column, or null for columns that are not nominal
+	 */
+	private String[] getNominalTypes(ExportPlan plan) throws SQLException{
+		String[] dataTypes = getDataTypes(plan);
+		String[] nominalTypes = new String[dataTypes.length];
+		for(int i=0; i<dataTypes.length; i++){
+			if(!ArffFormat.isNominalCandidate(dataTypes[i]))
+				continue;
+			List<String> values = session.getDistinctValues(plan, i, nominalLimit + 1);
+			if(ArffFormat.isNominal(dataTypes[i], values.size(), nominalLimit)){
+				Collections.sort(values);
+				nominalTypes[i] = ArffFormat.getNominalType(values);
+			}
+		}
+		return nominalTypes;
+	}
+
+	/**
+	 * getNominalTypes
+	 *
+	 * Asks the database for the distinct values of each text column of the results of a
+	 * query and makes the nominal type of each that is nominal (see ArffFormat.isNominal).
+	 *
+	 * @param columns - the (0 based) index in the query results of each column, or null for every column
+	 * @return the nominal type of each column, or null for columns that are not nominal, or
+	 * 		null if the query can not be read as a derived table
+	 */
+	private String[] getNominalTypes(String query, int[] columns) throws SQLException{
+		String[] colNames;
+		String[] dataTypes;
+		try{
+			ResultSetMetaData meta = session.getQueryMetaData(query);
+			//A derived table has no two columns of the same name, so no multiples are marked
+			colNames = new String[meta.getColumnCount()];
+			for(int i=0; i<colNames.length; i++){
+				colNames[i] = meta.getColumnLabel(i+1);
+			}
+			if(columns == null){
+				columns = new int[colNames.length];
+				for(int i=0; i<columns.length; i++){
+					columns[i] = i;
+				}
+			}
+			int[] rsColumns = new int[columns.length];
+			for(int i=0; i<columns.length; i++){
+				rsColumns[i] = columns[i] + 1;
+			}
+			dataTypes = DBAccessor.getDataTypes(meta, rsColumns);
+		}
+		catch(SQLException e){
+			//Not a query the server can select from; its text is written as strings and any
+			//real error is reported by the export itself
+			return null;
+		}
+
+		String[] nominalTypes = new String[columns.length];
+		for(int i=0; i<columns.length; i++){
+			if(!ArffFormat.isNominalCandidate(dataTypes[i]))
+				continue;
+			List<String> values = session.getDistinctValues(query, colNames[columns[i]], nominalLimit + 1);
+			if(ArffFormat.isNominal(dataTypes[i], values.size(), nominalLimit)){
+				Collections.sort(values);
+				nominalTypes[i] = ArffFormat.getNominalType(values);
+			}
+		}
+		return nominalTypes;
+	}
+
+	/**
+	 * getDataTypes
+	 *
+	 * Gets the sql data type of each planned column.
+	 */
+	private String[] getDataTypes(ExportPlan plan) throws SQLException{
+		int[] indices = plan.getColumnIndices(session);
+		String[] allTypes = session.getColumnDataTypes();
+		String[] dataTypes = new String[indices.length];
+		for(int i=0; i<indices.length; i++){
+			dataTypes[i] = allTypes[indices[i]];
+		}
+		return dataTypes;
+	}
+
+	/**
+	 * export
+	 *
+	 * Writes the rows of an open stream to the file in ARFF format. Columns with a nominal
+	 * type are written as that type instead of the one mapped from their sql type.
+	 */
+	private long export(String relationName, TableStream stream, String[] columnNames, int[] columns, String[] nominalTypes,
+			String fileName, boolean collect) throws SQLException, IOException{
+		int[] rsColumns = new int[columns.length];
+		for(int i=0; i<columns.length; i++){
+			rsColumns[i] = columns[i] + 1;
+		}
+
+		//The types come from the stream itself so no metadata queries are needed
+		String[] dataTypes = DBAccessor.getDataTypes(stream.getMetaData(), rsColumns);
+		String[] types = new String[dataTypes.length];
+		for(int i=0; i<types.length; i++){
+			if(nominalTypes != null && nominalTypes[i] != null)
+				types[i] = nominalTypes[i];
+			else
+				types[i] = ArffFormat.mapDataTypeToARFF(dataTypes[i]);
+		}
+
+		AttributeStatistics[] stats = null;
+		if(collect){
+			stats = new AttributeStatistics[columnNames.length];
+			for(int i=0; i<stats.length; i++){
+				stats[i] = new AttributeStatistics(columnNames[i], dataTypes[i]);
+			}
+			statistics = stats;
+		}
+
+		ArffWriter writer = new ArffWriter(format, fileName, sync);
+		writer.setDataTypes(dataTypes);
+		try{
+			try{
+				writer.writeHeader(relationName, columnNames, types);
+				if(progress == null){
+					while(stream.next()){
+						writer.writeRow(stream.getResultSet(), rsColumns);
+						if(stats != null)
+							addStatistics(stats, stream.getResultSet(), rsColumns);
+					}
+				}
+				else{
+					progress.register(stream);
+					progress.start();
+					int count = 0;
+					while(!progress.isCancelled() && stream.next()){
+						writer.writeRow(stream.getResultSet(), rsColumns);
+						if(stats != null)
+							addStatistics(stats, stream.getResultSet(), rsColumns);
+						if(++count == PROGRESS_INTERVAL){
+							progress.addRows(count);
+							count = 0;
+						}
+					}
+					progress.addRows(count);
+				}
+			}
+			finally{
+				if(progress != null)
+					progress.unregister(stream);
+				writer.close();
+			}
+		}
+		catch(SQLException e){
+			//A cancelled query fails on the server; that is not an error
+			if(progress == null || !progress.isCancelled())
+				throw e;
+		}
+		if(progress != null){
+			File[] outputs = new File[writer.getShardCount()];
+			for(int i=0; i<outputs.length; i++){
+				outputs[i] = new File(format.getShardName(fileName, i));
+			}
+			progress.checkCancelled(outputs);
+		}
+		return writer.getRowCount();
+	}
+
+	/**
+	 * addStatistics
+	 *
+	 * Adds the values of the current row to the statistics of each attribute.
+	 */
+	private static void addStatistics(AttributeStatistics[] stats, ResultSet row, int[] columns) throws SQLException{
+		for(int i=0; i<stats.length; i++){
+			stats[i].add(row, columns[i]);
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package core;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import database.DBSession;
+
+/**
+ * ArffFormat
+ * @author Daniel J Bray
+ *
+ * Static helpers shared by everything that produces ARFF data: naming of relations and
+ * attributes and mapping of SQL data types to ARFF data types. This class has no GUI
+ * dependencies so that it can be used by the command line exporter.
+ */
+public class ArffFormat {
+
+	/**
+	 * The most distinct values a text column can have to be written as a nominal attribute,
+	 * unless the export is given a limit of its own.
+	 */
+	public static final int NOMINAL_LIMIT = 32;
+
+	/**
+	 * getAttributeTypes
+	 * 
+	 * Gets the ARFF data type of each column in the table(s) of the session.
+	 * Columns that are multiples are marked <columnName>(<number>) (see DBAccessor.markMultiples). All
+	 * types are found with a single query.
+	 * 
+	 * @param session - the session on the table(s) used for the queries
+	 * @param columnNames - the names of the columns to get the types of
+	 * @return the ARFF data type of each column
+	 * @throws SQLException if the database encounters an error
+	 */
+	public static String[] getAttributeTypes(DBSession session, String[] columnNames) throws SQLException{
+		String[] types = getDataTypes(session, columnNames);
+		for(int i=0; i<types.length; i++){
+			types[i] = ArffFormat.mapDataTypeToARFF(types[i]);
+		}
+		return types;
+	}
+
+	/**
+	 * getDataTypes
+	 * 
+	 * Gets the sql data type of each column in the table(s) of the session.
+	 * Columns that are multiples are marked <columnName>(<number>) (see DBAccessor.markMultiples). All
+	 * types are found with a single query.
+	 * 
+	 * @param session - the session on the table(s) used for the queries
+	 * @param columnNames - the names of the columns to get the types of
+	 * @return the sql data type of each column
+	 * @throws SQLException if the database encounters an error or a type is not found
+	 */
+	public static String[] getDataTypes(DBSession session, String[] columnNames) throws SQLException{
+		String[] realCols = new String[columnNames.length];
+		int[] skips = new int[columnNames.length];
+		for(int i=0; i<columnNames.length; i++){
+			String col = columnNames[i];
+
+			//if it is a multiple then the number denotes the number of "skips" (see DBAccessor.getDataType() )
+			if(col.contains("(") && col.contains(")")){				
+				int begin = col.indexOf("(")+1;
+				int end = col.indexOf(")");
+
+				skips[i] = Integer.parseInt(col.substring(begin, end));
+			}
+
+			//Convert the column into it's actual column name in the database
+			realCols[i] = ArffFormat.convertToRealColumn(col);
+		}
+
+		String[] types = session.getDataTypes(realCols, skips);
+		for(int i=0; i<types.length; i++){
+			if(types[i] == null)
+				throw new SQLException("Could not find the data type of column " + columnNames[i] + ".");
+		}
+		return types;
+	}
+
+	/**
+	 * getRelationName
+	 * 
+	 * Builds the name of the relation from the table(s) being converted. DBAccessor allows
+	 * for multi-table support so the tables come in a comma separated list. They are joined
+	 * into one name with dashes.
+	 * 
+	 * Example: "users, orders" becomes users-orders
+	 * 
+	 * Results that come from no table (such as SELECT NOW()) are named query.
+	 * 
+	 * @param tables - the comma separated list of tables
+	 * @return the relation name
+	 */
+	public static String getRelationName(String tables){
+		if(tables.trim().length() == 0)
+			return "query";
+		StringTokenizer tk = new StringTokenizer(tables, ",");
+		String relationName = "";
+		//Break the table names down into one name
+		while(tk.hasMoreTokens()){
+			relationName += tk.nextToken().trim();
+			if(tk.hasMoreTokens())
+				relationName += "-";
+		}
+		return relationName;
+	}
+
+	/**
+	 * convertToRealColumn
+	 * 
+	 * Helper method to convert fake columns to real columns. In
+	 * essence it just takes off the "(<number>)" portion of the column
+	 * name that indicates it is a multiple.
+	 * 
+	 * @param fakeCol - the name of the column stored in the table
+	 * @return - the name of the column stored in the database
+	 */
+	public static String convertToRealColumn(String fakeCol){
+		if(fakeCol.contains("(") && fakeCol.contains(")")){
+			int index = fakeCol.indexOf("(");
+			return fakeCol.substring(0, index);
+		}
+		else{
+			return fakeCol;
+		}
+	}
+
+	/**
+	 * mapDataTypeToARFF
+	 * 
+	 * Maps each SQL dataType to the ARFF dataTypes, in step with how ValueEncoder writes the
+	 * values. Numbers are numeric, dates and times with a date are date (in the default
+	 * ARFF format yyyy-MM-dd'T'HH:mm:ss) and everything else, including unknown types, is
+	 * string. Nominal attributes are never inferred from the type alone (see getNominalType).
+	 * 
+	 * @param dataType - The sql data type, or null if not known
+	 * @return the ARFF data type
+	 */
+	public static String mapDataTypeToARFF(String dataType){
+		if(dataType == null)
+			return "string";
+		if(ValueEncoder.forType(dataType).isNumeric())
+			return "numeric";
+		dataType = dataType.toLowerCase();
+		if(dataType.equals("date") || dataType.equals("datetime") || dataType.equals("timestamp"))
+			return "date";
+		return "string";
+	}
+
+	/**
+	 * isNominalCandidate
+	 * 
+	 * Checks whether a column of the SQL type could be a nominal attribute: short text
+	 * that is written as a string attribute.
+	 * 
+	 * @param dataType - the sql data type, or null if not known
+	 * @return true if the column's distinct values are worth counting
+	 */
+	public static boolean isNominalCandidate(String dataType){
+		if(dataType == null)
+			return false;
+		dataType = dataType.toLowerCase();
+		return dataType.equals("char") || dataType.equals("varchar") || dataType.equals("enum")
+				|| dataType.equals("set") || dataType.equals("tinytext") || dataType.equals("text");
+	}
+
+	/**
+	 * isNominal
+	 * 
+	 * Checks whether a column is written as a nominal attribute. Every export follows this
+	 * one rule: a nominal candidate (see isNominalCandidate) whose values that are not
+	 * missing have from 1 to limit distinct values.
+	 * 
+	 * @param dataType - the sql data type, or null if not known
+	 * @param distinct - the number of distinct values of the column, NULL left out
+	 * @param limit - the most labels of a nominal attribute
+	 * @return true if the column is written as a nominal attribute
+	 */
+	public static boolean isNominal(String dataType, int distinct, int limit){
+		return isNominalCandidate(dataType) && distinct > 0 && distinct <= limit;
+	}
+
+	/**
+	 * getNominalType
+	 * 
+	 * Builds the ARFF type of a nominal attribute with the values as its labels. Each
+	 * label is quoted the same way string values are, so the data matches them.
+	 * 
+	 * Example: [red, dark blue] becomes {'red','dark blue'}
+	 * 
+	 * @param values - the labels
+	 * @return the nominal type
+	 */
+	public static String getNominalType(List<String> values){
+		ValueEncoder encoder = ValueEncoder.forType("varchar");
+		StringBuilder type = new StringBuilder("{");
+		for(int i=0; i<values.size(); i++){
+			if(i > 0)
+				type.append(',');
+			encoder.encode(values.get(i), type);
+		}
+		return type.append('}').toString();
+	}
+}
@@ -0,0 +1,285 @@
+package core;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * ArffOutput
+ * @author Daniel J Bray
+ *
+ * A byte level output for ARFF data. Text is encoded as UTF-8 straight into one large direct
+ * buffer, which is handed to a channel only when it is full, so no lines or other Strings are
+ * built along the way and the file is written in large blocks. Subclasses can send the full
+ * buffers somewhere other than a channel by overriding drain. This class has no GUI
+ * dependencies and is not thread safe.
+ */
+public class ArffOutput {
+
+	/**
+	 * The default size of the buffer, in bytes.
+	 */
+	public static final int BUFFER_SIZE = 1 << 20;
+	//The most bytes one char (or surrogate pair) is encoded as
+	private static final int MAX_CHAR_BYTES = 4;
+	//The most bytes a long is written as, with its sign
+	private static final int MAX_LONG_DIGITS = 20;
+
+	private WritableByteChannel channel;
+	private ByteBuffer buffer;
+	private boolean sync;
+	private long bytesWritten;
+
+	/**
+	 * ArffOutput
+	 *
+	 * Constructs a new ArffOutput that writes to the channel.
+	 *
+	 * @param channel - the channel the bytes are written to, or null if drain is overridden
+	 * @param bufferSize - the size of the buffer in bytes
+	 */
+	public ArffOutput(WritableByteChannel channel, int bufferSize){
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MAX_LONG_DIGITS));
+		sync = false;
+		bytesWritten = 0;
+	}
+
+	/**
+	 * open
+	 *
+	 * Opens an output over a file.
+	 *
+	 * @param fileName - the file to write to
+	 * @param append - true to write to the end of the file, false to replace it
+	 * @return the output
+	 * @throws IOException if the file can not be opened
+	 */
+	public static ArffOutput open(String fileName, boolean append) throws IOException{
+		return new ArffOutput(new FileOutputStream(fileName, append).getChannel(), BUFFER_SIZE);
+	}
+
+	/**
+	 * setSync
+	 *
+	 * Sets whether the file is forced to disk (fsync) when the output is closed. This only
+	 * has an effect when the channel is a file.
+	 *
+	 * @param sync - true to force the file to disk on close
+	 */
+	public void setSync(boolean sync){
+		this.sync = sync;
+	}
+
+	/**
+	 * write
+	 *
+	 * Writes the text as UTF-8.
+	 *
+	 * @param text - the text to write
+	 * @throws IOException if the output can not be written
+	 */
+	public void write(String text) throws IOException{
+		write(text, 0, text.length());
+	}
+
+	/**
+	 * write
+	 *
+	 * Writes part of the text as UTF-8.
+	 *
+	 * @param text - the text to write
+	 * @param start - the index of the first char to write
+	 * @param end - the index after the last char to write
+	 * @throws IOException if the output can not be written
+	 */
+	public void write(String text, int start, int end) throws IOException{
+		for(int i=start; i<end; i++){
+			char c = text.charAt(i);
+			if(c < 0x80){
+				//Most ARFF data is ASCII, so this is kept as short as possible
+				if(!buffer.hasRemaining())
+					drainBuffer();
+				buffer.put((byte)c);
+			}
+			else if(Character.isHighSurrogate(c) && i+1 < end && Character.isLowSurrogate(text.charAt(i+1))){
+				writeCodePoint(Character.toCodePoint(c, text.charAt(++i)));
+			}
+			else{
+				writeCodePoint(c);
+			}
+		}
+	}
+
+	/**
+	 * write
+	 *
+	 * Writes one char as UTF-8. A lone surrogate is written as '?'.
+	 *
+	 * @param c - the char to write
+	 * @throws IOException if the output can not be written
+	 */
+	public void write(char c) throws IOException{
+		if(c < 0x80){
+			if(!buffer.hasRemaining())
+				drainBuffer();
+			buffer.put((byte)c);
+		}
+		else{
+			writeCodePoint(c);
+		}
+	}
+
+	/**
+	 * write
+	 *
+	 * Writes a whole number in decimal without making a String of it.
+	 *
+	 * @param value - the number to write
+	 * @throws IOException if the output can not be written
+	 */
+	public void write(long value) throws IOException{
+		if(value == Long.MIN_VALUE){
+			write(Long.toString(value));
+			return;
+		}
+		if(buffer.remaining() < MAX_LONG_DIGITS)
+			drainBuffer();
+		if(value < 0){
+			buffer.put((byte)'-');
+			value = -value;
+		}
+
+		int digits = 1;
+		for(long v = value / 10; v > 0; v /= 10){
+			digits++;
+		}
+		int end = buffer.position() + digits;
+		for(int i=end-1; i>=buffer.position(); i--){
+			buffer.put(i, (byte)('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(end);
+	}
+
+	/**
+	 * writeCodePoint
+	 *
+	 * Encodes a code point that is not ASCII.
+	 */
+	private void writeCodePoint(int cp) throws IOException{
+		if(buffer.remaining() < MAX_CHAR_BYTES)
+			drainBuffer();
+		if(cp < 0x800){
+			buffer.put((byte)(0xC0 | (cp >> 6)));
+			buffer.put((byte)(0x80 | (cp & 0x3F)));
+		}
+		else if(cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE){
+			//A surrogate without its pair can not be encoded
+			buffer.put((byte)'?');
+		}
+		else if(cp < 0x10000){
+			buffer.put((byte)(0xE0 | (cp >> 12)));
+			buffer.put((byte)(0x80 | ((cp >> 6) & 0x3F)));
+			buffer.put((byte)(0x80 | (cp & 0x3F)));
+		}
+		else{
+			buffer.put((byte)(0xF0 | (cp >> 18)));
+			buffer.put((byte)(0x80 | ((cp >> 12) & 0x3F)));
+			buffer.put((byte)(0x80 | ((cp >> 6) & 0x3F)));
+			buffer.put((byte)(0x80 | (cp & 0x3F)));
+		}
+	}
+
+	/**
+	 * getBytesWritten
+	 *
+	 * @return the number of bytes written so far, including those still in the buffer
+	 */
+	public long getBytesWritten(){
+		return bytesWritten + buffer.position();
+	}
+
+	/**
+	 * flush
+	 *
+	 * Hands what is in the buffer on to the channel.
+	 *
+	 * @throws IOException if the output can not be written
+	 */
+	public void flush() throws IOException{
+		if(buffer.position() > 0)
+			drainBuffer();
+	}
+
+	/**
+	 * sync
+	 *
+	 * Flushes the output and forces what has been written to disk, leaving the output open.
+	 * This only forces anything when the channel is an uncompressed file.
+	 *
+	 * @throws IOException if the output can not be written
+	 */
+	public void sync() throws IOException{
+		flush();
+		if(channel instanceof FileChannel)
+			((FileChannel)channel).force(false);
+	}
+
+	/**
+	 * close
+	 *
+	 * Flushes the output, forces it to disk if sync is set, and closes the channel.
+	 *
+	 * @throws IOException if the output can not be written
+	 */
+	public void close() throws IOException{
+		try{
+			flush();
+			FileChannel file = null;
+			if(channel instanceof FileChannel){
+				file = (FileChannel)channel;
+			}
+			else if(channel instanceof GzipChannel){
+				((GzipChannel)channel).finish();
+				file = ((GzipChannel)channel).getFile();
+			}
+			if(sync && file != null)
+				file.force(true);
+		}
+		finally{
+			if(channel != null)
+				channel.close();
+		}
+	}
+
+	/**
+	 * drainBuffer
+	 *
+	 * Drains the full part of the buffer and makes it ready to be filled again.
+	 */
+	private void drainBuffer() throws IOException{
+		buffer.flip();
+		bytesWritten += buffer.remaining();
+		drain(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * drain
+	 *
+	 * Sends the bytes remaining in the buffer on. By default they are written to the
+	 * channel. The buffer is reused afterwards, so its contents must be copied if they
+	 * are kept.
+	 *
+	 * @param bytes - the bytes to send on
+	 * @throws IOException if the bytes can not be written
+	 */
+	protected void drain(ByteBuffer bytes) throws IOException{
+		while(bytes.hasRemaining()){
+			channel.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package core;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import database.DBAccessor;
+
+/**
+ * ArffWriter
+ * @author Daniel J Bray
+ *
+ * The ArffWriter writes ARFF data to an output one line at a time. Rows are written as they
+ * are read from a result set, so the memory used does not depend on the size of the table.
+ * Values are encoded straight into the output's buffer (see ArffOutput) without building a
+ * String per line. This class has no GUI dependencies; errors are thrown to the caller.
+ */
+public class ArffWriter {
+
+	private ArffOutput out;
+	private ValueEncoder[] encoders;
+	private OutputFormat.Layout layout;
+	//Which values of the current row are zero, reused for every row
+	private boolean[] zeros;
+	private long rowCount;
+	//Only set when the writer opens its own (possibly sharded) files
+	private OutputFormat format;
+	private String fileName;
+	private boolean sync;
+	private int shard;
+	private long shardRows;
+	private String relationName;
+	private String[] columnNames;
+	private String[] types;
+
+	/**
+	 * ArffWriter
+	 *
+	 * Constructs a new ArffWriter over the output.
+	 *
+	 * @param out - the output the arff data is written to
+	 */
+	public ArffWriter(ArffOutput out){
+		this.out = out;
+		encoders = null;
+		layout = OutputFormat.Layout.DENSE;
+		rowCount = 0;
+		format = null;
+	}
+
+	/**
+	 * ArffWriter
+	 *
+	 * Constructs a new ArffWriter that writes to the file in the output format. If the
+	 * format is sharded, a new shard is started with a copy of the header whenever the
+	 * current one is full.
+	 *
+	 * @param format - how the output is written
+	 * @param fileName - the file to write to (the shards are named after it)
+	 * @param sync - true to force each file to disk when it is closed
+	 * @throws IOException if the file can not be opened
+	 */
+	public ArffWriter(OutputFormat format, String fileName, boolean sync) throws IOException{
+		this(format.open(format.getShardName(fileName, 0), false));
+		this.format = format;
+		this.fileName = fileName;
+		this.sync = sync;
+		out.setSync(sync);
+		layout = format.getLayout();
+		shard = 0;
+		shardRows = 0;
+	}
+
+	/**
+	 * setLayout
+	 *
+	 * Sets how the data rows are laid out: dense, sparse, or whichever is shorter for
+	 * each row (see OutputFormat.Layout). Rows are dense by default.
+	 *
+	 * @param layout - the layout of the rows
+	 */
+	public void setLayout(OutputFormat.Layout layout){
+		this.layout = layout;
+	}
+
+	/**
+	 * setDataTypes
+	 *
+	 * Sets the sql data type of each column written by writeRow, which chooses how its values
+	 * are encoded (see ValueEncoder). If this is not called the types are read from the
+	 * meta data of the first row written.
+	 *
+	 * @param dataTypes - the sql data type of each written column, in the order they are written
+	 */
+	public void setDataTypes(String[] dataTypes){
+		encoders = ValueEncoder.forTypes(dataTypes);
+	}
+
+	/**
+	 * writeHeader
+	 *
+	 * Writes the @relation line, one @attribute line per column and the @data line.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param columnNames - the attribute names
+	 * @param types - the ARFF data type of each attribute
+	 * @throws IOException if the output can not be written
+	 */
+	public void writeHeader(String relationName, String[] columnNames, String[] types) throws IOException{
+		this.relationName = relationName;
+		this.columnNames = columnNames;
+		this.types = types;
+		out.write("@relation ");
+		out.write(relationName);
+		out.write("\n\n");
+		for(int i=0; i<columnNames.length; i++){
+			out.write("@attribute ");
+			out.write(columnNames[i]);
+			out.write(' ');
+			out.write(types[i]);
+			out.write('\n');
+		}
+		out.write("\n@data\n");
+	}
+
+	/**
+	 * writeRow
+	 *
+	 * Writes the current row of the result set as one comma separated line of
+	 * arff data. Only the columns listed are written, in that order.
+	 *
+	 * @param row - the result set positioned on the row to write
+	 * @param columns - the (1 based) result set columns to write
+	 * @throws SQLException if the database encounters an error
+	 * @throws IOException if the output can not be written
+	 */
+	public void writeRow(ResultSet row, int[] columns) throws SQLException, IOException{
+		if(encoders == null)
+			setDataTypes(DBAccessor.getDataTypes(row.getMetaData(), columns));
+		if(format != null && format.isShardFull(shardRows, out.getBytesWritten()))
+			nextShard();
+
+		if(layout == OutputFormat.Layout.DENSE)
+			writeDense(row, columns);
+		else
+			writeSparse(row, columns);
+		out.write('\n');
+		rowCount++;
+		shardRows++;
+	}
+
+	/**
+	 * writeRow
+	 *
+	 * Writes a row whose values were already read as text (as from TableStream.getRow) as
+	 * one comma separated line of arff data. These rows are always written dense.
+	 * setDataTypes must be called first.
+	 *
+	 * @param values - the values to write, in order; null values are missing
+	 * @throws IOException if the output can not be written
+	 */
+	public void writeRow(String[] values) throws IOException{
+		if(encoders == null)
+			throw new IllegalStateException("The data types must be set before writing text rows.");
+		if(format != null && format.isShardFull(shardRows, out.getBytesWritten()))
+			nextShard();
+
+		for(int j=0; j<values.length; j++){
+			if(j > 0)
+				out.write(',');
+			encoders[j].encode(values[j], out);
+		}
+		out.write('\n');
+		rowCount++;
+		shardRows++;
+	}
+
+	/**
+	 * writeDense
+	 *
+	 * Writes every value of the row.
+	 */
+	private void writeDense(ResultSet row, int[] columns) throws SQLException, IOException{
+		for(int j=0; j<columns.length; j++){
+			if(j > 0)
+				out.write(',');
+			encoders[j].encode(row, columns[j], out);
+		}
+	}
+
+	/**
+	 * writeSparse
+	 *
+	 * Writes the values of the row that are not zero as {index value, ...}. Missing values
+	 * are written as ? since a left out value means zero. In AUTO layout the row is written
+	 * dense instead when at most half of its values are zero.
+	 */
+	private void writeSparse(ResultSet row, int[] columns) throws SQLException, IOException{
+		if(zeros == null || zeros.length != columns.length)
+			zeros = new boolean[columns.length];
+		int count = 0;
+		for(int j=0; j<columns.length; j++){
+			zeros[j] = encoders[j].isZero(row, columns[j]);
+			if(zeros[j])
+				count++;
+		}
+		//A left out zero saves its "0," while each written value costs its index
+		if(layout == OutputFormat.Layout.AUTO && count * 2 <= columns.length){
+			writeDense(row, columns);
+			return;
+		}
+
+		out.write('{');
+		boolean first = true;
+		for(int j=0; j<columns.length; j++){
+			if(zeros[j])
+				continue;
+			if(!first)
+				out.write(',');
+			out.write((long)j);
+			out.write(' ');
+			encoders[j].encode(row, columns[j], out);
+			first = false;
+		}
+		out.write('}');
+	}
+
+	/**
+	 * nextShard
+	 *
+	 * Closes the current shard and starts the next one with the same header.
+	 */
+	private void nextShard() throws IOException{
+		out.close();
+		shard++;
+		shardRows = 0;
+		out = format.open(format.getShardName(fileName, shard), false);
+		out.setSync(sync);
+		if(relationName != null)
+			writeHeader(relationName, columnNames, types);
+	}
+
+	/**
+	 * getShardCount
+	 *
+	 * @return the number of files written so far
+	 */
+	public int getShardCount(){
+		return shard + 1;
+	}
+
+	/**
+	 * getRowCount
+	 *
+	 * @return the number of data rows written so far
+	 */
+	public long getRowCount(){
+		return rowCount;
+	}
+
+	/**
+	 * close
+	 *
+	 * Flushes and closes the output.
+	 * @throws IOException if the output can not be written
+	 */
+	public void close() throws IOException{
+		out.close();
+	}
+}
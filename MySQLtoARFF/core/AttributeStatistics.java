@@ -0,0 +1,342 @@
+package core;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * AttributeStatistics
+ * @author Daniel J Bray
+ *
+ * Summary statistics of one attribute of an export: how many values it has and how many are
+ * missing, its smallest and largest value and, for numeric attributes, its mean and standard
+ * deviation. They are either gathered row by row as the rows are written (add), so they cost no
+ * extra pass, or read from the aggregates the database computed over the rows (fromAggregates),
+ * which is needed when they must be known before the header is written. The mean and variance
+ * are kept with Welford's method so they stay accurate over any number of rows. The smallest and
+ * largest value are kept as the text the server sent, so whole numbers and decimals with more
+ * digits than a double holds are still told apart. Gathered row by row, the distinct values of
+ * text attributes are also counted (see DistinctCounter).
+ *
+ * An attribute with no values, or with one value and none missing, tells a learner nothing and
+ * can be pruned from the export (see isUseless). This class has no GUI dependencies.
+ */
+public class AttributeStatistics {
+
+	//The most distinct values of a text attribute that are counted exactly
+	private static final int DISTINCT_LIMIT = 1024;
+
+	private String name;
+	private String dataType;
+	private boolean numeric;
+	private long count;
+	private long missing;
+	//The smallest and largest value as text, exact even for numbers
+	private String min;
+	private String max;
+	//The same as doubles, so most numbers are compared without parsing the text
+	private double minValue;
+	private double maxValue;
+	private double mean;
+	//The sum of squared differences from the mean, or the variance if read from aggregates
+	private double m2;
+	private boolean aggregated;
+	private DistinctCounter distinct;
+
+	/**
+	 * AttributeStatistics
+	 *
+	 * Constructs new, empty statistics for an attribute.
+	 *
+	 * @param name - the name of the attribute
+	 * @param dataType - the sql data type of the attribute
+	 */
+	public AttributeStatistics(String name, String dataType){
+		this.name = name;
+		this.dataType = dataType;
+		numeric = ValueEncoder.forType(dataType).isNumeric();
+		count = 0;
+		missing = 0;
+		min = null;
+		max = null;
+		mean = 0;
+		m2 = 0;
+		aggregated = false;
+		distinct = numeric ? null : new DistinctCounter(DISTINCT_LIMIT);
+	}
+
+	/**
+	 * add
+	 *
+	 * Adds the value of the column in the current row.
+	 *
+	 * @param row - the result set positioned on the row
+	 * @param column - the (1 based) result set column
+	 * @throws SQLException if the database encounters an error
+	 */
+	public void add(ResultSet row, int column) throws SQLException{
+		if(numeric){
+			double value = row.getDouble(column);
+			if(row.wasNull()){
+				missing++;
+				return;
+			}
+			count++;
+			if(count == 1 || value <= minValue || value >= maxValue){
+				//Numbers with the same double may still differ, so ties are compared exactly
+				String text = row.getString(column);
+				if(count == 1 || value < minValue || (value == minValue && compare(text, min) < 0)){
+					minValue = value;
+					min = text;
+				}
+				if(count == 1 || value > maxValue || (value == maxValue && compare(text, max) > 0)){
+					maxValue = value;
+					max = text;
+				}
+			}
+			double delta = value - mean;
+			mean += delta / count;
+			m2 += delta * (value - mean);
+		}
+		else{
+			String value = row.getString(column);
+			if(value == null){
+				missing++;
+				return;
+			}
+			count++;
+			distinct.add(value);
+			if(min == null || value.compareTo(min) < 0)
+				min = value;
+			if(max == null || value.compareTo(max) > 0)
+				max = value;
+		}
+	}
+
+	/**
+	 * fromAggregates
+	 *
+	 * Makes the statistics of each attribute from the aggregates of the rows (as from
+	 * DBSession.getPlanStatistics).
+	 *
+	 * @param columnNames - the name of each attribute
+	 * @param dataTypes - the sql data type of each attribute
+	 * @param aggregates - the number of rows, then the count, min, max, mean and standard deviation of each attribute
+	 * @return the statistics of each attribute
+	 */
+	public static AttributeStatistics[] fromAggregates(String[] columnNames, String[] dataTypes, String[] aggregates){
+		long rows = Long.parseLong(aggregates[0]);
+		AttributeStatistics[] stats = new AttributeStatistics[columnNames.length];
+		for(int i=0; i<stats.length; i++){
+			AttributeStatistics s = new AttributeStatistics(columnNames[i], dataTypes[i]);
+			int base = 1 + i*5;
+			s.count = Long.parseLong(aggregates[base]);
+			s.missing = rows - s.count;
+			if(s.count > 0){
+				s.min = aggregates[base+1];
+				s.max = aggregates[base+2];
+				if(s.numeric){
+					s.minValue = Double.parseDouble(s.min);
+					s.maxValue = Double.parseDouble(s.max);
+					s.mean = Double.parseDouble(aggregates[base+3]);
+					if(aggregates[base+4] != null){
+						double deviation = Double.parseDouble(aggregates[base+4]);
+						s.m2 = deviation * deviation;
+					}
+				}
+			}
+			s.aggregated = true;
+			s.distinct = null;
+			stats[i] = s;
+		}
+		return stats;
+	}
+
+	/**
+	 * getName
+	 *
+	 * @return the name of the attribute
+	 */
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * getCount
+	 *
+	 * @return the number of values that are not missing
+	 */
+	public long getCount(){
+		return count;
+	}
+
+	/**
+	 * getMissing
+	 *
+	 * @return the number of missing (NULL) values
+	 */
+	public long getMissing(){
+		return missing;
+	}
+
+	/**
+	 * getMin
+	 *
+	 * @return the smallest value, or null if there are none
+	 */
+	public String getMin(){
+		if(count == 0)
+			return null;
+		return min;
+	}
+
+	/**
+	 * getMax
+	 *
+	 * @return the largest value, or null if there are none
+	 */
+	public String getMax(){
+		if(count == 0)
+			return null;
+		return max;
+	}
+
+	/**
+	 * getMean
+	 *
+	 * @return the mean, or NaN if the attribute is not numeric or has no values
+	 */
+	public double getMean(){
+		return (numeric && count > 0) ? mean : Double.NaN;
+	}
+
+	/**
+	 * getStandardDeviation
+	 *
+	 * @return the sample standard deviation, or NaN if the attribute is not numeric or has fewer than 2 values
+	 */
+	public double getStandardDeviation(){
+		if(!numeric || count < 2)
+			return Double.NaN;
+		return Math.sqrt(aggregated ? m2 : m2 / (count - 1));
+	}
+
+	/**
+	 * getDistinctCount
+	 *
+	 * @return the number of distinct values of a text attribute (estimated if there are
+	 * 		more than 1024), or -1 if they were not counted
+	 */
+	public long getDistinctCount(){
+		return (distinct == null) ? -1 : distinct.getCount();
+	}
+
+	/**
+	 * isAllMissing
+	 *
+	 * @return true if every value is missing
+	 */
+	public boolean isAllMissing(){
+		return count == 0;
+	}
+
+	/**
+	 * isConstant
+	 *
+	 * @return true if every value is the same and none are missing
+	 */
+	public boolean isConstant(){
+		if(count == 0 || missing > 0)
+			return false;
+		return numeric ? compare(min, max) == 0 : min.equals(max);
+	}
+
+	/**
+	 * compare
+	 *
+	 * Compares two numbers exactly, as written by the server. Text that is not a number
+	 * (such as the bytes of a BIT value) is compared as text.
+	 */
+	private static int compare(String a, String b){
+		if(a.equals(b))
+			return 0;
+		try{
+			return new BigDecimal(a).compareTo(new BigDecimal(b));
+		}
+		catch(NumberFormatException e){
+			return a.compareTo(b);
+		}
+	}
+
+	/**
+	 * isUseless
+	 *
+	 * @return true if the attribute is all missing or constant
+	 */
+	public boolean isUseless(){
+		return isAllMissing() || isConstant();
+	}
+
+	/**
+	 * writeReport
+	 *
+	 * Writes the statistics as a tab separated table with a line per attribute.
+	 *
+	 * @param fileName - the file to write to
+	 * @param stats - the statistics of each attribute
+	 * @param pruned - whether useless attributes were left out of the export
+	 * @throws IOException if the file can not be written
+	 */
+	public static void writeReport(String fileName, AttributeStatistics[] stats, boolean pruned) throws IOException{
+		ArffOutput out = ArffOutput.open(fileName, false);
+		try{
+			out.write("attribute\ttype\tcount\tmissing\tdistinct\tmin\tmax\tmean\tstddev\tnote\n");
+			for(AttributeStatistics s : stats){
+				String note = s.isAllMissing() ? "all missing" : s.isConstant() ? "constant" : "";
+				if(pruned && s.isUseless())
+					note += ", pruned";
+				out.write(s.name);
+				out.write('\t');
+				out.write(s.dataType == null ? "?" : s.dataType);
+				out.write('\t');
+				out.write(s.count);
+				out.write('\t');
+				out.write(s.missing);
+				out.write('\t');
+				if(s.distinct != null){
+					//Estimated counts are marked as approximate
+					if(!s.distinct.isExact())
+						out.write('~');
+					out.write(s.distinct.getCount());
+				}
+				out.write('\t');
+				writeField(out, s.getMin());
+				out.write('\t');
+				writeField(out, s.getMax());
+				out.write('\t');
+				writeField(out, Double.isNaN(s.getMean()) ? null : Double.toString(s.getMean()));
+				out.write('\t');
+				double deviation = s.getStandardDeviation();
+				writeField(out, Double.isNaN(deviation) ? null : Double.toString(deviation));
+				out.write('\t');
+				out.write(note);
+				out.write('\n');
+			}
+		}
+		finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * writeField
+	 *
+	 * Writes a value of the report with its tabs and line breaks made into spaces, or
+	 * nothing if there is no value.
+	 */
+	private static void writeField(ArffOutput out, String value) throws IOException{
+		if(value != null)
+			out.write(value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+	}
+}
@@ -0,0 +1,436 @@
+package core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import database.DBAccessor;
+import database.DBConnector;
+import database.DBSession;
+import database.ExportPlan;
+
+/**
+ * BatchExporter
+ * @author Daniel J Bray
+ *
+ * Command line entry point that exports a table or query to an .arff file without any GUI.
+ * No Swing or AWT classes are used so it can be run on headless machines. Settings are read
+ * from an optional properties file and then from the command line, which takes precedence:
+ *
+ * 	java core.BatchExporter [--config export.properties] [--host localhost] [--port 3306]
+ * 		[--database braydj] [--user root] [--password secret]
+ * 		(--tables t1,t2 [--where condition] | --sql "SELECT ...") [--columns c1,c2] [--relation name]
+ * 		[--output MysqlToArff.arff] [--sync false] [--compress none|gzip [--compressThreads n]]
+ * 		[--shardRows n] [--shardBytes n] [--layout dense|sparse|auto]
+ * 		[--poolSize 4] [--threads 1 [--key id] [--ordered true]] [--incremental column]
+ * 		[--resumable true [--key id]] [--testFraction 0.2 | --folds k [--key id] [--stratify class]]
+ * 		[--sample n [--stratify class] | --sampleFraction 0.01 [--sampleMode random|hash [--key id]]] [--seed 0]
+ * 		[--stats report.tsv] [--prune true] [--nominalLimit 32]
+ *
+ * The keys of the properties file are the same as the options without the dashes. If no
+ * password is given the MYSQLTOARFF_PASSWORD environment variable is used. Invalid options exit
+ * with status 2 and failed exports with status 1. Options that do not work together are listed
+ * in CONFLICTS.
+ *
+ * Plain exports write a table or the results of a query. For tables the column projection and
+ * where condition are sent to the database (see ExportPlan). With sync the output is forced to
+ * disk before the export is reported as done. Gzip output is compressed on every core by default
+ * and gets a .gz suffix if it does not have one. With shardRows or shardBytes the output is split
+ * into files of at most that many rows or bytes, each with the header (see OutputFormat). A sparse
+ * layout leaves numeric zeros out of the rows, and auto picks dense or sparse for each row. With
+ * stats the count, missing values, min, max, mean and standard deviation of each attribute are
+ * written to a tab separated report, gathered as the rows are written; with prune the attributes
+ * of a table that are all missing or constant are left out, found by aggregating on the database
+ * first (see AttributeStatistics). With nominalLimit the text columns with at most that many
+ * distinct values are written as nominal attributes (see ArffFormat.isNominal); the values are
+ * found by the database before the export.
+ *
+ * Parallel exports (threads above 1) export a single table in ranges of its key, each on its own
+ * connection (see ParallelExporter). They can not be sharded.
+ *
+ * Incremental exports append only the rows of a table added since the last export to the output
+ * (see IncrementalExporter). They write plain, unsharded files on one thread, in the layout
+ * asked for, and always force the output to disk whatever sync says.
+ *
+ * Resumable exports save checkpoints as they go and, if run again after failing, carry on from
+ * the last one (see ResumableExporter). They have the same limits as incremental exports.
+ *
+ * Split exports (testFraction or folds) write a table into -train and -test or -fold0..k-1
+ * outputs in one pass, by a hash of its key and optionally in proportion to a class column (see
+ * SplitExporter). They run on one thread.
+ *
+ * Sampled exports write only a uniform sample of n rows of a table (sample), optionally in
+ * proportion to a class column, or let the database keep about a fraction of its rows
+ * (sampleFraction), at random or by a hash of the key (see SampleExporter).
+ */
+public class BatchExporter {
+
+	private static final String PASSWORD_ENV = "MYSQLTOARFF_PASSWORD";
+	//Each feature followed by the features it can not be combined with
+	private static final String[][] CONFLICTS = {
+		{"sharding", "threads"},
+		{"incremental", "threads", "compress", "sharding"},
+		{"resumable", "threads", "compress", "sharding", "incremental"},
+		{"splits", "threads", "incremental", "resumable"},
+		{"samples", "threads", "incremental", "resumable", "splits"},
+		{"stats", "threads", "incremental", "resumable", "splits", "samples"},
+		{"prune", "threads", "incremental", "resumable", "splits", "samples"},
+		{"nominalLimit", "threads", "incremental", "resumable", "splits", "samples"},
+	};
+	//The features that only work on tables
+	private static final String[] NEED_TABLES = {"incremental", "resumable", "splits", "samples", "prune"};
+
+	public static void main(String[] args){
+		Properties settings;
+		try{
+			settings = parseArguments(args);
+		}
+		catch(IllegalArgumentException e){
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(2);
+			return;
+		}
+		catch(IOException e){
+			System.err.println("Could not read the config file.\n" + e.getMessage());
+			System.exit(2);
+			return;
+		}
+
+		try{
+			long rows = export(settings);
+			System.out.println(rows + " rows written to " + settings.getProperty("output"));
+		}
+		catch(IllegalArgumentException e){
+			//Includes NumberFormatException for options the exporters read themselves
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(2);
+		}
+		catch(SQLException e){
+			System.err.println("Arff conversion failed:\n" + e.getMessage());
+			System.exit(1);
+		}
+		catch(IOException e){
+			System.err.println("Arff conversion failed:\n" + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * parseArguments
+	 *
+	 * Reads the settings from the config file (if one is given) and the command line options.
+	 *
+	 * @param args - the command line arguments
+	 * @return the settings
+	 * @throws IllegalArgumentException if the arguments are not valid
+	 * @throws IOException if the config file can not be read
+	 */
+	public static Properties parseArguments(String[] args) throws IOException{
+		Properties settings = new Properties();
+		Properties options = new Properties();
+		for(int i=0; i<args.length; i++){
+			if(!args[i].startsWith("--") || i+1 >= args.length)
+				throw new IllegalArgumentException("Invalid argument: " + args[i]);
+			options.setProperty(args[i].substring(2), args[++i]);
+		}
+
+		String config = options.getProperty("config");
+		if(config != null){
+			FileInputStream in = new FileInputStream(config);
+			try{
+				settings.load(in);
+			}
+			finally{
+				in.close();
+			}
+		}
+		settings.putAll(options);
+
+		boolean tables = settings.getProperty("tables") != null;
+		if(!tables && settings.getProperty("sql") == null)
+			throw new IllegalArgumentException("Either tables or sql must be given.");
+		if(tables && settings.getProperty("sql") != null)
+			throw new IllegalArgumentException("Only one of tables or sql can be given.");
+		if(settings.getProperty("testFraction") != null && settings.getProperty("folds") != null)
+			throw new IllegalArgumentException("Only one of testFraction or folds can be given.");
+		if(settings.getProperty("sample") != null && settings.getProperty("sampleFraction") != null)
+			throw new IllegalArgumentException("Only one of sample or sampleFraction can be given.");
+		//The rows kept by sampleFraction are picked by the database, so they can not be stratified
+		if(settings.getProperty("stratify") != null && settings.getProperty("sample") == null
+				&& settings.getProperty("testFraction") == null && settings.getProperty("folds") == null)
+			throw new IllegalArgumentException("stratify only works with sample, testFraction or folds.");
+		if(settings.getProperty("output") == null)
+			settings.setProperty("output", ArffExporter.FILE_NAME);
+		String compress = settings.getProperty("compress", "none");
+		if(!compress.equalsIgnoreCase("none") && !compress.equalsIgnoreCase("gzip"))
+			throw new IllegalArgumentException("Unknown compression: " + compress);
+		String layout = settings.getProperty("layout", "dense");
+		if(!layout.equalsIgnoreCase("dense") && !layout.equalsIgnoreCase("sparse") && !layout.equalsIgnoreCase("auto"))
+			throw new IllegalArgumentException("Unknown layout: " + layout);
+		String sampleMode = settings.getProperty("sampleMode", "random");
+		if(!sampleMode.equalsIgnoreCase("random") && !sampleMode.equalsIgnoreCase("hash"))
+			throw new IllegalArgumentException("Unknown sample mode: " + sampleMode);
+		for(String option : new String[]{"port", "poolSize", "threads", "compressThreads", "folds", "sample", "nominalLimit"}){
+			getInt(settings, option, 0);
+		}
+		for(String option : new String[]{"shardRows", "shardBytes", "seed"}){
+			getLong(settings, option, 0);
+		}
+		for(String option : new String[]{"testFraction", "sampleFraction"}){
+			getDouble(settings, option, 0);
+		}
+
+		//The features that are used, checked against each other in one place
+		Set<String> features = new HashSet<String>();
+		//Threads only split tables; a query is exported on one thread whatever is asked
+		if(getInt(settings, "threads", 1) > 1 && tables)
+			features.add("threads");
+		if(settings.getProperty("shardRows") != null || settings.getProperty("shardBytes") != null)
+			features.add("sharding");
+		if(!compress.equalsIgnoreCase("none"))
+			features.add("compress");
+		if(settings.getProperty("incremental") != null)
+			features.add("incremental");
+		if(Boolean.parseBoolean(settings.getProperty("resumable", "false")))
+			features.add("resumable");
+		if(settings.getProperty("testFraction") != null || settings.getProperty("folds") != null)
+			features.add("splits");
+		if(settings.getProperty("sample") != null || settings.getProperty("sampleFraction") != null)
+			features.add("samples");
+		if(settings.getProperty("stats") != null)
+			features.add("stats");
+		if(Boolean.parseBoolean(settings.getProperty("prune", "false")))
+			features.add("prune");
+		if(settings.getProperty("nominalLimit") != null)
+			features.add("nominalLimit");
+
+		if(!tables){
+			for(String feature : NEED_TABLES){
+				if(features.contains(feature))
+					throw new IllegalArgumentException(feature + " needs tables.");
+			}
+		}
+		for(String[] conflict : CONFLICTS){
+			if(!features.contains(conflict[0]))
+				continue;
+			for(int i=1; i<conflict.length; i++){
+				if(features.contains(conflict[i]))
+					throw new IllegalArgumentException(conflict[0] + " can not be combined with " + conflict[i] + ".");
+			}
+		}
+
+		if(compress.equalsIgnoreCase("gzip") && !settings.getProperty("output").endsWith(".gz"))
+			settings.setProperty("output", settings.getProperty("output") + ".gz");
+		if(settings.getProperty("password") == null && System.getenv(PASSWORD_ENV) != null)
+			settings.setProperty("password", System.getenv(PASSWORD_ENV));
+		return settings;
+	}
+
+	/**
+	 * getInt
+	 *
+	 * Reads a whole number setting.
+	 *
+	 * @throws IllegalArgumentException if the setting is not a number
+	 */
+	private static int getInt(Properties settings, String key, int defaultValue){
+		String value = settings.getProperty(key);
+		if(value == null)
+			return defaultValue;
+		try{
+			return Integer.parseInt(value.trim());
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+		}
+	}
+
+	/**
+	 * getLong
+	 *
+	 * Reads a long whole number setting.
+	 *
+	 * @throws IllegalArgumentException if the setting is not a number
+	 */
+	private static long getLong(Properties settings, String key, long defaultValue){
+		String value = settings.getProperty(key);
+		if(value == null)
+			return defaultValue;
+		try{
+			return Long.parseLong(value.trim());
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+		}
+	}
+
+	/**
+	 * getDouble
+	 *
+	 * Reads a decimal number setting.
+	 *
+	 * @throws IllegalArgumentException if the setting is not a number
+	 */
+	private static double getDouble(Properties settings, String key, double defaultValue){
+		String value = settings.getProperty(key);
+		if(value == null)
+			return defaultValue;
+		try{
+			return Double.parseDouble(value.trim());
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+		}
+	}
+
+	/**
+	 * export
+	 *
+	 * Connects to the database and runs the export described by the settings.
+	 *
+	 * @param settings - the settings (see parseArguments)
+	 * @return the number of data rows written
+	 * @throws SQLException if the database encounters an error
+	 * @throws IOException if the output can not be written
+	 */
+	public static long export(Properties settings) throws SQLException, IOException{
+		DBConnector connector = new DBConnector(settings.getProperty("host", "localhost"),
+				getInt(settings, "port", 3306),
+				settings.getProperty("database", "braydj"),
+				settings.getProperty("user", "root"));
+		int threads = getInt(settings, "threads", 1);
+		connector.setPoolSize(Math.max(threads, getInt(settings, "poolSize", 4)));
+		connector.connect(settings.getProperty("password", ""));
+
+		DBAccessor database = new DBAccessor(connector);
+		try{
+			String relationName;
+			String tables = settings.getProperty("tables");
+			if(tables != null)
+				relationName = ArffFormat.getRelationName(tables);
+			else
+				relationName = "query";
+			relationName = settings.getProperty("relation", relationName);
+
+			String[] projection = null;
+			if(settings.getProperty("columns") != null)
+				projection = settings.getProperty("columns").split(",");
+
+			boolean sync = Boolean.parseBoolean(settings.getProperty("sync", "false"));
+			OutputFormat format = new OutputFormat();
+			if(settings.getProperty("compress", "none").equalsIgnoreCase("gzip"))
+				format.setCompression(OutputFormat.Compression.GZIP, getInt(settings, "compressThreads",
+						Runtime.getRuntime().availableProcessors()));
+			format.setLayout(OutputFormat.Layout.valueOf(settings.getProperty("layout", "dense").toUpperCase()));
+			format.setShardSize(getLong(settings, "shardRows", 0), getLong(settings, "shardBytes", 0));
+			ExportPlan plan = null;
+			if(tables != null){
+				plan = new ExportPlan(tables);
+				plan.setProjection(projection);
+				if(settings.getProperty("where") != null)
+					plan.addCondition(settings.getProperty("where"));
+			}
+
+			if(settings.getProperty("incremental") != null){
+				IncrementalExporter exporter = new IncrementalExporter(database, plan, settings.getProperty("incremental"));
+				exporter.setLayout(format.getLayout());
+				return exporter.export(relationName, settings.getProperty("output"));
+			}
+
+			if(Boolean.parseBoolean(settings.getProperty("resumable", "false"))){
+				ResumableExporter exporter = new ResumableExporter(database, plan);
+				exporter.setKeyColumn(settings.getProperty("key"));
+				exporter.setLayout(format.getLayout());
+				return exporter.export(relationName, settings.getProperty("output"));
+			}
+
+			if(settings.getProperty("testFraction") != null || settings.getProperty("folds") != null){
+				SplitExporter exporter = new SplitExporter(database, plan);
+				exporter.setKeyColumn(settings.getProperty("key"));
+				exporter.setStratifyColumn(settings.getProperty("stratify"));
+				exporter.setSync(sync);
+				exporter.setOutputFormat(format);
+				long[] rows;
+				if(settings.getProperty("folds") != null)
+					rows = exporter.exportFolds(relationName, settings.getProperty("output"), getInt(settings, "folds", 0));
+				else
+					rows = exporter.exportTrainTest(relationName, settings.getProperty("output"), getDouble(settings, "testFraction", 0));
+				long total = 0;
+				for(int i=0; i<rows.length; i++){
+					total += rows[i];
+				}
+				return total;
+			}
+
+			if(settings.getProperty("sample") != null || settings.getProperty("sampleFraction") != null){
+				SampleExporter exporter = new SampleExporter(database, plan);
+				exporter.setStratifyColumn(settings.getProperty("stratify"));
+				exporter.setSeed(getLong(settings, "seed", 0));
+				exporter.setSync(sync);
+				exporter.setOutputFormat(format);
+				if(settings.getProperty("sample") != null)
+					return exporter.exportReservoir(relationName, settings.getProperty("output"), getInt(settings, "sample", 0));
+				double fraction = getDouble(settings, "sampleFraction", 0);
+				if(settings.getProperty("sampleMode", "random").equalsIgnoreCase("hash"))
+					return exporter.exportHash(relationName, settings.getProperty("output"), fraction, settings.getProperty("key"));
+				return exporter.exportRandom(relationName, settings.getProperty("output"), fraction);
+			}
+
+			if(threads > 1 && plan != null){
+				ParallelExporter exporter = new ParallelExporter(database, plan, threads);
+				exporter.setKeyColumn(settings.getProperty("key"));
+				exporter.setOrdered(Boolean.parseBoolean(settings.getProperty("ordered", "true")));
+				exporter.setSync(sync);
+				exporter.setOutputFormat(format);
+				return exporter.export(relationName, settings.getProperty("output"));
+			}
+
+			DBSession session = database.openSession(tables);
+			try{
+				ArffExporter exporter = new ArffExporter(session);
+				exporter.setSync(sync);
+				exporter.setOutputFormat(format);
+				boolean prune = Boolean.parseBoolean(settings.getProperty("prune", "false"));
+				exporter.setPruning(prune);
+				exporter.setStatistics(settings.getProperty("stats") != null);
+				exporter.setNominalLimit(getInt(settings, "nominalLimit", 0));
+				long rows;
+				if(plan != null)
+					rows = exporter.export(relationName, plan, settings.getProperty("output"));
+				else
+					rows = exporter.export(relationName, settings.getProperty("sql"), projection, settings.getProperty("output"));
+				if(settings.getProperty("stats") != null)
+					AttributeStatistics.writeReport(settings.getProperty("stats"), exporter.getStatistics(), prune);
+				return rows;
+			}
+			finally{
+				session.close();
+			}
+		}
+		finally{
+			database.close();
+		}
+	}
+
+	/**
+	 * printUsage
+	 *
+	 * Prints how to use the command line to standard error.
+	 */
+	private static void printUsage(){
+		System.err.println("Usage: java core.BatchExporter [--config file] [--host host] [--port port]\n"
+				+ "\t[--database db] [--user user] [--password password]\n"
+				+ "\t(--tables t1,t2 [--where condition] | --sql query) [--columns c1,c2] [--relation name] [--output file]\n"
+				+ "\t[--sync true|false] [--compress none|gzip [--compressThreads n]] [--shardRows n] [--shardBytes n]\n"
+				+ "\t[--layout dense|sparse|auto] [--incremental column] [--resumable true|false [--key column]]\n"
+				+ "\t[--poolSize n] [--threads n [--key column] [--ordered true|false]]\n"
+				+ "\t[--testFraction f | --folds k [--key column] [--stratify column]]\n"
+				+ "\t[--sample n [--stratify column] | --sampleFraction f [--sampleMode random|hash [--key column]]] [--seed n]\n"
+				+ "\t[--stats file] [--prune true|false] [--nominalLimit n]");
+	}
+}
@@ -0,0 +1,164 @@
+package core;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import database.TableStream;
+
+/**
+ * ExportProgress
+ * @author Daniel J Bray
+ *
+ * Follows the progress of an export and lets it be cancelled from another thread. The exporters
+ * add to the row count as they write and check for cancellation as they go. Cancelling also stops
+ * the queries the export is streaming from, so an export waiting on the server stops at once.
+ * This class has no GUI dependencies and is safe to use from any thread.
+ */
+public class ExportProgress {
+
+	private AtomicLong rows;
+	private volatile long estimatedRows;
+	private volatile long startTime;
+	private volatile boolean cancelled;
+	private List<TableStream> streams;
+
+	/**
+	 * Constructs a new ExportProgress with no rows written and no estimate.
+	 */
+	public ExportProgress(){
+		rows = new AtomicLong();
+		estimatedRows = -1;
+		startTime = System.currentTimeMillis();
+		cancelled = false;
+		streams = new ArrayList<TableStream>();
+	}
+
+	/**
+	 * setEstimatedRows
+	 *
+	 * Sets how many rows the export is expected to write.
+	 *
+	 * @param estimatedRows - the estimated number of rows, or -1 if it is not known
+	 */
+	public void setEstimatedRows(long estimatedRows){
+		this.estimatedRows = estimatedRows;
+	}
+
+	/**
+	 * getEstimatedRows
+	 *
+	 * @return the estimated number of rows, or -1 if it is not known
+	 */
+	public long getEstimatedRows(){
+		return estimatedRows;
+	}
+
+	/**
+	 * getRows
+	 *
+	 * @return the number of rows written so far
+	 */
+	public long getRows(){
+		return rows.get();
+	}
+
+	/**
+	 * getRowsPerSecond
+	 *
+	 * @return the average number of rows written per second since the export started
+	 */
+	public double getRowsPerSecond(){
+		long elapsed = System.currentTimeMillis() - startTime;
+		return (elapsed <= 0) ? 0 : rows.get() * 1000.0 / elapsed;
+	}
+
+	/**
+	 * cancel
+	 *
+	 * Cancels the export and the queries it is streaming from.
+	 */
+	public void cancel(){
+		cancelled = true;
+		synchronized(streams){
+			for(TableStream stream : streams){
+				try{
+					stream.cancel();
+				}
+				catch(Exception e){
+					System.err.println("Error cancelling query.\n"+e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * isCancelled
+	 *
+	 * @return true if the export was cancelled
+	 */
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	/**
+	 * start
+	 *
+	 * Restarts the clock used for the rows per second.
+	 */
+	void start(){
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * addRows
+	 *
+	 * Adds to the number of rows written.
+	 */
+	void addRows(long count){
+		rows.addAndGet(count);
+	}
+
+	/**
+	 * register
+	 *
+	 * Adds a stream to be cancelled along with the export. If the export is already
+	 * cancelled the stream is cancelled straight away.
+	 */
+	void register(TableStream stream){
+		synchronized(streams){
+			streams.add(stream);
+		}
+		if(cancelled)
+			cancel();
+	}
+
+	/**
+	 * unregister
+	 *
+	 * Removes a stream that is about to be closed.
+	 */
+	void unregister(TableStream stream){
+		synchronized(streams){
+			streams.remove(stream);
+		}
+	}
+
+	/**
+	 * checkCancelled
+	 *
+	 * If the export was cancelled, deletes what was written of the output files and says so.
+	 *
+	 * @throws InterruptedIOException if the export was cancelled
+	 */
+	void checkCancelled(File... outputs) throws InterruptedIOException{
+		if(!cancelled)
+			return;
+		for(File output : outputs){
+			output.delete();
+		}
+		throw new InterruptedIOException("Export cancelled.");
+	}
+}
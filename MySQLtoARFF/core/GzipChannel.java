@@ -0,0 +1,220 @@
+package core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GzipChannel
+ * @author Daniel J Bray
+ *
+ * A channel that gzip compresses what is written to it into a file. The data is cut into blocks
+ * and each block is compressed into its own gzip member; members written one after another form
+ * a valid gzip file (RFC 1952) that gunzip, Weka and java.util.zip.GZIPInputStream read as one
+ * stream. Because the blocks do not depend on each other they can be compressed on several
+ * threads at once, and are still written to the file in order. This class has no GUI dependencies.
+ */
+public class GzipChannel implements WritableByteChannel {
+
+	/**
+	 * The size of the blocks that are compressed separately, in bytes.
+	 */
+	public static final int BLOCK_SIZE = 1 << 20;
+
+	private FileChannel file;
+	private ExecutorService executor;
+	private int threads;
+	private Deque<Future<byte[]>> pending;
+	private byte[] block;
+	private int used;
+	private long members;
+	private boolean finished;
+	private boolean open;
+
+	/**
+	 * GzipChannel
+	 *
+	 * Constructs a new GzipChannel that writes to the file.
+	 *
+	 * @param file - the file the compressed data is written to
+	 * @param threads - the number of blocks compressed at once; 1 compresses on the writing thread
+	 */
+	public GzipChannel(FileChannel file, int threads){
+		this.file = file;
+		this.threads = Math.max(1, threads);
+		if(this.threads > 1){
+			executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "GzipChannel compressor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		pending = new ArrayDeque<Future<byte[]>>();
+		block = new byte[BLOCK_SIZE];
+		used = 0;
+		members = 0;
+		finished = false;
+		open = true;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException{
+		if(!open || finished)
+			throw new ClosedChannelException();
+
+		int written = src.remaining();
+		while(src.hasRemaining()){
+			int n = Math.min(src.remaining(), block.length - used);
+			src.get(block, used, n);
+			used += n;
+			if(used == block.length)
+				submitBlock();
+		}
+		return written;
+	}
+
+	/**
+	 * submitBlock
+	 *
+	 * Hands the current block to be compressed and starts a new one. At most two blocks
+	 * per thread are waiting at once so memory stays bounded.
+	 */
+	private void submitBlock() throws IOException{
+		final byte[] data = block;
+		final int length = used;
+		block = new byte[BLOCK_SIZE];
+		used = 0;
+		members++;
+
+		if(executor == null){
+			writeFully(compress(data, 0, length));
+			return;
+		}
+		pending.add(executor.submit(new Callable<byte[]>(){
+			@Override
+			public byte[] call() throws IOException{
+				return compress(data, 0, length);
+			}
+		}));
+		while(pending.size() > threads * 2){
+			writeFully(get(pending.poll()));
+		}
+	}
+
+	/**
+	 * finish
+	 *
+	 * Compresses what is left and writes every block to the file. The file itself is
+	 * left open so that it can still be forced to disk.
+	 *
+	 * @throws IOException if the file can not be written
+	 */
+	public void finish() throws IOException{
+		if(finished)
+			return;
+		//An empty file is not valid gzip, so there is always at least one member
+		if(used > 0 || members == 0)
+			submitBlock();
+		while(!pending.isEmpty()){
+			writeFully(get(pending.poll()));
+		}
+		finished = true;
+	}
+
+	/**
+	 * getFile
+	 *
+	 * @return the file the compressed data is written to
+	 */
+	public FileChannel getFile(){
+		return file;
+	}
+
+	@Override
+	public boolean isOpen(){
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException{
+		if(!open)
+			return;
+		try{
+			finish();
+		}
+		finally{
+			open = false;
+			if(executor != null)
+				executor.shutdownNow();
+			file.close();
+		}
+	}
+
+	/**
+	 * compress
+	 *
+	 * Compresses bytes into one complete gzip member.
+	 *
+	 * @param data - the bytes to compress
+	 * @param offset - the index of the first byte
+	 * @param length - the number of bytes
+	 * @return the gzip member
+	 * @throws IOException if the bytes can not be compressed
+	 */
+	static byte[] compress(byte[] data, int offset, int length) throws IOException{
+		//Text usually compresses to well under a quarter of its size
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, length / 4));
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes, 1 << 16);
+		gzip.write(data, offset, length);
+		gzip.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * writeFully
+	 *
+	 * Writes every byte to the file.
+	 */
+	private void writeFully(byte[] bytes) throws IOException{
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while(buffer.hasRemaining()){
+			file.write(buffer);
+		}
+	}
+
+	/**
+	 * get
+	 *
+	 * Waits for a block to be compressed and rethrows its error, if any.
+	 */
+	private byte[] get(Future<byte[]> f) throws IOException{
+		try{
+			return f.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Compression interrupted.");
+		}
+		catch(ExecutionException e){
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+}
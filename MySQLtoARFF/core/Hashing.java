@@ -0,0 +1,40 @@
+package core;
+
+/**
+ * Hashing
+ * @author Daniel J Bray
+ *
+ * The hash used wherever values must hash the same way in every run and on every machine, as
+ * when rows are split by their key or distinct values are counted. String.hashCode is stable
+ * too but spreads similar values poorly.
+ */
+final class Hashing {
+
+	private Hashing(){
+	}
+
+	/**
+	 * hash
+	 *
+	 * Hashes a value with 64 bit FNV-1a over its characters, then mixes the result so that
+	 * values that differ only in their last character are spread evenly.
+	 *
+	 * @param value - the value, or null
+	 * @return the hash
+	 */
+	static long hash(String value){
+		long h = 0xcbf29ce484222325L;
+		if(value != null){
+			for(int i=0; i<value.length(); i++){
+				h ^= value.charAt(i);
+				h *= 0x100000001b3L;
+			}
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,194 @@
+package core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Properties;
+
+import database.DBAccessor;
+import database.DBSession;
+import database.ExportPlan;
+import database.TableStream;
+
+/**
+ * IncrementalExporter
+ * @author Daniel J Bray
+ *
+ * Keeps an .arff file up to date with a table that only grows. The highest value of a watermark
+ * column (an auto increment id or an insert timestamp) that has been exported is remembered in a
+ * state file next to the output, <output>.watermark. Each later export fetches only the rows
+ * above it and appends them to the @data section, so the time taken depends on the new rows
+ * and not on the size of the table.
+ *
+ * Before appending, the header the table would have now is compared with the header of the file;
+ * if the columns or their types have changed the export fails and the table must be exported
+ * again from scratch (delete the output or its state file). The state also records the length of
+ * the file, so rows appended by an export that failed before saving its state are cut off and
+ * fetched again. Rows added later with a watermark at or below one already exported are not
+ * picked up. The output is a plain, unsharded file and is always forced to disk, since its state
+ * depends on it; only the layout of its rows can be chosen. This class has no GUI dependencies.
+ */
+public class IncrementalExporter {
+
+	/**
+	 * The suffix of the state file of an output.
+	 */
+	public static final String STATE_SUFFIX = ".watermark";
+
+	private DBAccessor database;
+	private ExportPlan plan;
+	private String column;
+	private OutputFormat.Layout layout;
+
+	/**
+	 * IncrementalExporter
+	 *
+	 * Constructs a new IncrementalExporter for the export plan of a single table.
+	 *
+	 * @param database - the database the table is in
+	 * @param plan - the export plan
+	 * @param column - the watermark column; its values must only grow as rows are added
+	 */
+	public IncrementalExporter(DBAccessor database, ExportPlan plan, String column){
+		this.database = database;
+		this.plan = plan;
+		this.column = column;
+		layout = OutputFormat.Layout.DENSE;
+	}
+
+	/**
+	 * setLayout
+	 *
+	 * Sets how the data rows are laid out (see OutputFormat.Layout). Rows are dense by default.
+	 * The rows already in the file are kept as they are.
+	 *
+	 * @param layout - the layout of the rows
+	 */
+	public void setLayout(OutputFormat.Layout layout){
+		this.layout = layout;
+	}
+
+	/**
+	 * export
+	 *
+	 * Appends the planned rows added since the last export to the file, or writes the whole
+	 * file if it has not been exported before.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param fileName - the file to write to
+	 * @return the number of data rows written
+	 * @throws SQLException if the database encounters an error
+	 * @throws IOException if the file can not be written or its header no longer matches
+	 */
+	public long export(String relationName, String fileName) throws SQLException, IOException{
+		File output = new File(fileName);
+		File stateFile = new File(fileName + STATE_SUFFIX);
+		Properties state = StateFile.load(stateFile, "column", "length");
+		boolean append = state != null && output.exists();
+
+		DBSession session = database.openSession(plan.getTable());
+		try{
+			String[] columnNames = plan.getColumnNames(session);
+			int[] indices = plan.getColumnIndices(session);
+			String[] dataTypes = session.getColumnDataTypes();
+			String[] types = new String[indices.length];
+			for(int i=0; i<indices.length; i++){
+				types[i] = ArffFormat.mapDataTypeToARFF(dataTypes[indices[i]]);
+			}
+			byte[] header = getHeader(relationName, columnNames, types);
+
+			String previous = null;
+			if(append){
+				if(!column.equalsIgnoreCase(state.getProperty("column")))
+					throw new IOException(fileName + " was exported by " + state.getProperty("column") + ", not " + column + ".");
+				previous = state.getProperty("mark");
+				StateFile.truncate(output, StateFile.getLength(stateFile, state, "length"));
+				checkHeader(output, header);
+			}
+
+			//Rows are only taken up to the mark found now, so rows added during the export wait for the next one
+			String mark = session.getMaxValue(column, plan.getRowCondition());
+
+			ArffOutput out = ArffOutput.open(fileName, append);
+			out.setSync(true);
+			ArffWriter writer = new ArffWriter(out);
+			writer.setLayout(layout);
+			try{
+				if(!append)
+					writer.writeHeader(relationName, columnNames, types);
+				if(mark != null && !mark.equals(previous)){
+					int[] rsColumns = new int[columnNames.length];
+					for(int i=0; i<rsColumns.length; i++){
+						rsColumns[i] = i+1;
+					}
+					TableStream stream = session.streamPlanAfter(plan, column, previous, mark);
+					try{
+						while(stream.next()){
+							writer.writeRow(stream.getResultSet(), rsColumns);
+						}
+					}
+					finally{
+						stream.close();
+					}
+				}
+			}
+			finally{
+				writer.close();
+			}
+
+			state = new Properties();
+			state.setProperty("column", column);
+			if(mark != null)
+				state.setProperty("mark", mark);
+			else if(previous != null)
+				state.setProperty("mark", previous);
+			state.setProperty("length", output.length()+"");
+			StateFile.save(stateFile, state, "Incremental export state");
+			return writer.getRowCount();
+		}
+		finally{
+			session.close();
+		}
+	}
+
+	/**
+	 * getHeader
+	 *
+	 * Gets the bytes of the header as ArffWriter writes it.
+	 */
+	private static byte[] getHeader(String relationName, String[] columnNames, String[] types) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ArffWriter writer = new ArffWriter(new ArffOutput(Channels.newChannel(bytes), 1 << 12));
+		writer.writeHeader(relationName, columnNames, types);
+		writer.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * checkHeader
+	 *
+	 * Checks that the file starts with the header.
+	 */
+	private static void checkHeader(File output, byte[] header) throws IOException{
+		byte[] existing = new byte[header.length];
+		int read = 0;
+		FileInputStream in = new FileInputStream(output);
+		try{
+			while(read < existing.length){
+				int n = in.read(existing, read, existing.length - read);
+				if(n == -1)
+					break;
+				read += n;
+			}
+		}
+		finally{
+			in.close();
+		}
+		if(read < existing.length || !Arrays.equals(existing, header))
+			throw new IOException("The header of " + output + " no longer matches the table. Export it again from scratch.");
+	}
+}
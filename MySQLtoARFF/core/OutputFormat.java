@@ -0,0 +1,179 @@
+package core;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * OutputFormat
+ * @author Daniel J Bray
+ *
+ * How an export is written to disk: whether the rows are dense or sparse, whether it is gzip
+ * compressed (on how many threads) and whether it is split into shards. A sharded export is
+ * written to several files, each capped at a number of rows and/or bytes and each with the full
+ * header, so they can be loaded on their own. Shards are named after the output with a number before the .arff, as in
+ * MysqlToArff-00000.arff, MysqlToArff-00001.arff and so on. This class has no GUI dependencies.
+ */
+public class OutputFormat {
+
+	/**
+	 * Compression
+	 *
+	 * The compression of the output files.
+	 */
+	public enum Compression { NONE, GZIP }
+
+	/**
+	 * Layout
+	 *
+	 * How the data rows are laid out. DENSE writes every value, SPARSE writes only the
+	 * values that are not numeric zeros as {index value, ...}, and AUTO chooses for each
+	 * row whichever is shorter. Weka reads files that mix both kinds of rows.
+	 */
+	public enum Layout { DENSE, SPARSE, AUTO }
+
+	private Compression compression;
+	private int compressionThreads;
+	private long maxRows;
+	private long maxBytes;
+	private Layout layout;
+
+	/**
+	 * Constructs a new OutputFormat for a single uncompressed file.
+	 */
+	public OutputFormat(){
+		compression = Compression.NONE;
+		compressionThreads = 1;
+		maxRows = 0;
+		maxBytes = 0;
+		layout = Layout.DENSE;
+	}
+
+	/**
+	 * setLayout
+	 *
+	 * Sets how the data rows are laid out.
+	 *
+	 * @param layout - the layout of the rows
+	 */
+	public void setLayout(Layout layout){
+		this.layout = layout;
+	}
+
+	/**
+	 * getLayout
+	 *
+	 * @return the layout of the rows
+	 */
+	public Layout getLayout(){
+		return layout;
+	}
+
+	/**
+	 * setCompression
+	 *
+	 * Sets the compression of the output files.
+	 *
+	 * @param compression - the compression
+	 * @param threads - the number of threads compressing each file (see GzipChannel)
+	 */
+	public void setCompression(Compression compression, int threads){
+		this.compression = compression;
+		compressionThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * getCompression
+	 *
+	 * @return the compression of the output files
+	 */
+	public Compression getCompression(){
+		return compression;
+	}
+
+	/**
+	 * setShardSize
+	 *
+	 * Sets the most rows and bytes of ARFF text (before any compression) written to
+	 * each shard. A shard is closed after the row that reaches either cap.
+	 *
+	 * @param maxRows - the most rows per shard, or 0 for no cap
+	 * @param maxBytes - the most bytes per shard, or 0 for no cap
+	 */
+	public void setShardSize(long maxRows, long maxBytes){
+		this.maxRows = maxRows;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * isSharded
+	 *
+	 * @return true if the export is split into shards
+	 */
+	public boolean isSharded(){
+		return maxRows > 0 || maxBytes > 0;
+	}
+
+	/**
+	 * isShardFull
+	 *
+	 * Checks whether a shard has reached its cap.
+	 *
+	 * @param rows - the rows written to the shard
+	 * @param bytes - the bytes written to the shard, header included
+	 * @return true if the next row should go to a new shard
+	 */
+	public boolean isShardFull(long rows, long bytes){
+		return (maxRows > 0 && rows >= maxRows) || (maxBytes > 0 && bytes >= maxBytes);
+	}
+
+	/**
+	 * getShardName
+	 *
+	 * Gets the name of a shard of the output.
+	 *
+	 * @param fileName - the name of the output
+	 * @param shard - the (0 based) number of the shard
+	 * @return the name of the shard, or the output itself if the export is not sharded
+	 */
+	public String getShardName(String fileName, int shard){
+		if(!isSharded())
+			return fileName;
+
+		return addSuffix(fileName, String.format("-%05d", shard));
+	}
+
+	/**
+	 * addSuffix
+	 *
+	 * Adds a suffix to the name of an output before its .arff extension (or at the end if
+	 * it has none).
+	 *
+	 * @param fileName - the name of the output
+	 * @param suffix - the suffix
+	 * @return the name with the suffix
+	 */
+	public static String addSuffix(String fileName, String suffix){
+		int index = fileName.lastIndexOf(".arff");
+		if(index == -1 || fileName.lastIndexOf('/') > index || fileName.lastIndexOf('\\') > index)
+			return fileName + suffix;
+		return fileName.substring(0, index) + suffix + fileName.substring(index);
+	}
+
+	/**
+	 * open
+	 *
+	 * Opens an output over a file, compressed if set.
+	 *
+	 * @param fileName - the file to write to
+	 * @param append - true to write to the end of the file, false to replace it
+	 * @return the output
+	 * @throws IOException if the file can not be opened
+	 */
+	public ArffOutput open(String fileName, boolean append) throws IOException{
+		FileChannel file = new FileOutputStream(fileName, append).getChannel();
+		if(compression == Compression.GZIP)
+			return new ArffOutput(new GzipChannel(file, compressionThreads), ArffOutput.BUFFER_SIZE);
+		return new ArffOutput(file, ArffOutput.BUFFER_SIZE);
+	}
+}
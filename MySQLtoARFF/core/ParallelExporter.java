@@ -0,0 +1,642 @@
+package core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import database.DBAccessor;
+import database.DBSession;
+import database.ExportPlan;
+import database.TableStream;
+
+/**
+ * ParallelExporter
+ * @author Daniel J Bray
+ *
+ * Exports a table to an .arff file using several connections at once. What is exported is given
+ * by an export plan, which is pushed down into every query. The table is split into
+ * ranges of an integer key column (the primary key unless another indexed column is given) and
+ * each range is fetched and encoded by its own thread on its own pooled connection. The connection
+ * pool should have at least as many connections as there are threads.
+ *
+ * Every thread hands its rows over as encoded byte chunks. In ordered mode the chunks of the range
+ * that comes next in key order are written to the output as they arrive; only the chunks of ranges
+ * that run ahead of it are held back, in memory up to a limit and past it in temporary files next
+ * to the output, and they are written as soon as the ranges before them are done. In unordered mode
+ * every chunk is written as soon as it arrives, so nothing is held back but rows from different
+ * ranges are mixed.
+ * This class has no GUI dependencies.
+ */
+public class ParallelExporter {
+
+	private static final int CHUNK_SIZE = 1 << 18;
+	//More ranges than threads evens out the work when the keys are not spread evenly
+	private static final int RANGES_PER_THREAD = 4;
+	//The most bytes of ranges that ran ahead held in memory in ordered mode
+	private static final long BUFFER_LIMIT = 64L << 20;
+	//Marks the end of the chunks of one range
+	private static final ByteBuffer END_OF_RANGE = ByteBuffer.allocate(0);
+
+	private DBAccessor database;
+	private ExportPlan plan;
+	private int threads;
+	private String keyColumn;
+	private boolean ordered;
+	private ExportProgress progress;
+	private boolean sync;
+	private OutputFormat format;
+
+	/**
+	 * ParallelExporter
+	 *
+	 * Constructs a new ParallelExporter for the export plan of a single table.
+	 *
+	 * @param database - the database the table is in
+	 * @param plan - the export plan
+	 * @param threads - the number of ranges fetched at the same time
+	 */
+	public ParallelExporter(DBAccessor database, ExportPlan plan, int threads){
+		if(threads < 1)
+			throw new IllegalArgumentException("At least one thread is needed.");
+
+		this.database = database;
+		this.plan = plan;
+		this.threads = threads;
+		keyColumn = null;
+		ordered = true;
+		progress = null;
+		sync = false;
+		format = new OutputFormat();
+	}
+
+	/**
+	 * setKeyColumn
+	 *
+	 * Sets the integer column the table is split on. It should be indexed. By default the
+	 * primary key of the table is used.
+	 *
+	 * @param keyColumn - the column to split on, or null for the primary key
+	 */
+	public void setKeyColumn(String keyColumn){
+		this.keyColumn = keyColumn;
+	}
+
+	/**
+	 * setOrdered
+	 *
+	 * Sets whether the rows are written in key order (the default) or in the order the
+	 * ranges deliver them.
+	 *
+	 * @param ordered - true to write the rows in key order
+	 */
+	public void setOrdered(boolean ordered){
+		this.ordered = ordered;
+	}
+
+	/**
+	 * setSync
+	 *
+	 * Sets whether the file is forced to disk (fsync) before the export returns.
+	 *
+	 * @param sync - true to force the file to disk
+	 */
+	public void setSync(boolean sync){
+		this.sync = sync;
+	}
+
+	/**
+	 * setOutputFormat
+	 *
+	 * Sets how the export is written. Each range is compressed on its own thread, so the
+	 * compression threads of the format are not used. Sharded formats are not supported
+	 * since the ranges are written at the same time.
+	 *
+	 * @param format - the output format
+	 * @throws IllegalArgumentException if the format is sharded
+	 */
+	public void setOutputFormat(OutputFormat format){
+		if(format.isSharded())
+			throw new IllegalArgumentException("A parallel export can not be sharded.");
+		this.format = new OutputFormat();
+		this.format.setCompression(format.getCompression(), 1);
+		this.format.setLayout(format.getLayout());
+	}
+
+	/**
+	 * setProgress
+	 *
+	 * Sets where the progress of the export is reported. If the progress is cancelled every
+	 * range stops, the partly written file is deleted and an InterruptedIOException is thrown.
+	 * The estimated rows are set from the table if they are not already known.
+	 *
+	 * @param progress - the progress to report to, or null for none
+	 */
+	public void setProgress(ExportProgress progress){
+		this.progress = progress;
+	}
+
+	/**
+	 * export
+	 *
+	 * Writes the planned columns and rows of the table to the file in ARFF format.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param fileName - the file to write to
+	 * @return the number of data rows written
+	 * @throws SQLException if the database encounters an error or there is no integer key to split on
+	 * @throws IOException if the file can not be written
+	 */
+	public long export(String relationName, String fileName) throws SQLException, IOException{
+		String[] columnNames;
+		String[] types;
+		long[] range;
+		DBSession session = database.openSession(plan.getTable());
+		try{
+			columnNames = plan.getColumnNames(session);
+			int[] indices = plan.getColumnIndices(session);
+			String[] dataTypes = session.getColumnDataTypes();
+			types = new String[indices.length];
+			for(int i=0; i<indices.length; i++){
+				types[i] = ArffFormat.mapDataTypeToARFF(dataTypes[indices[i]]);
+			}
+
+			if(keyColumn == null)
+				keyColumn = session.getPrimaryKey();
+			if(keyColumn == null)
+				throw new SQLException("Table " + plan.getTable() + " has no single column primary key to split on.");
+			range = session.getKeyRange(keyColumn);
+			if(progress != null && progress.getEstimatedRows() < 0)
+				progress.setEstimatedRows(session.getEstimatedRowCount());
+		}
+		finally{
+			session.close();
+		}
+
+		//The plan selects only the exported columns, in order
+		int[] columns = new int[columnNames.length];
+		for(int i=0; i<columns.length; i++){
+			columns[i] = i+1;
+		}
+
+		ArffWriter header = new ArffWriter(format.open(fileName, false));
+		try{
+			header.writeHeader(relationName, columnNames, types);
+		}
+		finally{
+			header.close();
+		}
+		if(range == null)
+			return 0;
+
+		List<long[]> ranges = split(range[0], range[1]);
+		if(progress != null)
+			progress.start();
+		try{
+			if(ordered)
+				return exportOrdered(ranges, columns, new File(fileName));
+			else
+				return exportUnordered(ranges, columns, new File(fileName));
+		}
+		finally{
+			//A cancelled range fails on the server; that is reported as the cancellation instead
+			if(progress != null)
+				progress.checkCancelled(new File(fileName));
+		}
+	}
+
+	/**
+	 * split
+	 *
+	 * Splits the key range into a few ranges per thread of (about) equal width. The distances
+	 * between keys are unsigned, since a range from a very negative to a very positive key is
+	 * wider than the largest long.
+	 */
+	private List<long[]> split(long min, long max){
+		List<long[]> ranges = new ArrayList<long[]>();
+		int count = threads * RANGES_PER_THREAD;
+		long width = Long.divideUnsigned(max - min, count) + 1;
+		for(long from = min; from <= max; from += width){
+			long to = (Long.compareUnsigned(max - from, width) < 0) ? max : from + width - 1;
+			ranges.add(new long[]{from, to});
+			if(to == max)
+				break;
+		}
+		return ranges;
+	}
+
+	/**
+	 * exportOrdered
+	 *
+	 * Writes the chunks of each range to the output in key order, holding back the chunks of
+	 * ranges that run ahead until the ranges before them are done.
+	 */
+	private long exportOrdered(List<long[]> ranges, int[] columns, File output) throws SQLException, IOException{
+		File dir = output.getAbsoluteFile().getParentFile();
+		BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<Chunk>(threads * 2);
+		HeldRange[] held = new HeldRange[ranges.size()];
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		FileChannel out = new FileOutputStream(output, true).getChannel();
+		try{
+			List<Future<Long>> results = submit(ranges, columns, chunks, executor);
+
+			//The range being written; ranges are started in order, so it is always running or done
+			int current = 0;
+			long buffered = 0;
+			while(current < held.length){
+				Chunk chunk = chunks.take();
+				if(chunk.range == current){
+					if(chunk.bytes != END_OF_RANGE){
+						write(out, chunk.bytes);
+						continue;
+					}
+					//Catch up on the ranges after it, as far as they are done
+					current++;
+					while(current < held.length && held[current] != null){
+						HeldRange range = held[current];
+						held[current] = null;
+						buffered -= range.writeTo(out);
+						range.delete();
+						if(!range.done)
+							break;
+						current++;
+					}
+				}
+				else{
+					HeldRange range = held[chunk.range];
+					if(range == null)
+						range = held[chunk.range] = new HeldRange();
+					if(chunk.bytes == END_OF_RANGE){
+						range.done = true;
+					}
+					else{
+						if(buffered + chunk.bytes.remaining() > BUFFER_LIMIT && !range.isSpilled())
+							buffered -= range.spill(File.createTempFile(output.getName(), ".part", dir));
+						buffered += range.add(chunk.bytes);
+					}
+				}
+			}
+			long rows = collect(results);
+			if(sync)
+				out.force(true);
+			return rows;
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Export interrupted.");
+		}
+		finally{
+			executor.shutdownNow();
+			out.close();
+			for(HeldRange range : held){
+				if(range != null)
+					range.delete();
+			}
+		}
+	}
+
+	/**
+	 * exportUnordered
+	 *
+	 * Writes encoded chunks to the output as the ranges hand them over.
+	 */
+	private long exportUnordered(List<long[]> ranges, int[] columns, File output) throws SQLException, IOException{
+		BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<Chunk>(threads * 2);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		FileChannel out = new FileOutputStream(output, true).getChannel();
+		try{
+			List<Future<Long>> results = submit(ranges, columns, chunks, executor);
+
+			int running = ranges.size();
+			while(running > 0){
+				Chunk chunk = chunks.take();
+				if(chunk.bytes == END_OF_RANGE)
+					running--;
+				else
+					write(out, chunk.bytes);
+			}
+			long rows = collect(results);
+			if(sync)
+				out.force(true);
+			return rows;
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Export interrupted.");
+		}
+		finally{
+			executor.shutdownNow();
+			out.close();
+		}
+	}
+
+	/**
+	 * submit
+	 *
+	 * Starts a task for each range, in key order.
+	 */
+	private List<Future<Long>> submit(List<long[]> ranges, int[] columns, BlockingQueue<Chunk> chunks,
+			ExecutorService executor){
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		for(int i=0; i<ranges.size(); i++){
+			long[] r = ranges.get(i);
+			results.add(executor.submit(new RangeTask(i, r[0], r[1], columns, chunks)));
+		}
+		return results;
+	}
+
+	/**
+	 * write
+	 *
+	 * Writes all of a chunk to a channel.
+	 */
+	private static void write(FileChannel out, ByteBuffer bytes) throws IOException{
+		while(bytes.hasRemaining()){
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * collect
+	 *
+	 * Waits for every range and adds up the rows written.
+	 */
+	private long collect(List<Future<Long>> results) throws SQLException, IOException{
+		long rows = 0;
+		for(Future<Long> f : results){
+			rows += get(f);
+		}
+		return rows;
+	}
+
+	/**
+	 * get
+	 *
+	 * Waits for one range and rethrows its error, if any.
+	 */
+	private long get(Future<Long> f) throws SQLException, IOException{
+		try{
+			return f.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Export interrupted.");
+		}
+		catch(ExecutionException e){
+			if(e.getCause() instanceof SQLException)
+				throw (SQLException)e.getCause();
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * RangeTask
+	 * @author Daniel J Bray
+	 *
+	 * Fetches one key range on its own session and writes its rows, in chunks, to a queue.
+	 * The end of range marker is always queued, even on failure.
+	 */
+	private class RangeTask implements Callable<Long>{
+		private int range;
+		private long from;
+		private long to;
+		private int[] columns;
+		private BlockingQueue<Chunk> chunks;
+
+		private RangeTask(int range, long from, long to, int[] columns, BlockingQueue<Chunk> chunks){
+			this.range = range;
+			this.from = from;
+			this.to = to;
+			this.columns = columns;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public Long call() throws SQLException, IOException{
+			ArffOutput out = new ChunkOutput(range, chunks, format.getCompression() == OutputFormat.Compression.GZIP);
+			ArffWriter writer = new ArffWriter(out);
+			writer.setLayout(format.getLayout());
+			try{
+				DBSession session = database.openSession(plan.getTable());
+				try{
+					TableStream stream = session.streamPlanRange(plan, keyColumn, from, to);
+					try{
+						if(progress == null){
+							while(stream.next()){
+								writer.writeRow(stream.getResultSet(), columns);
+							}
+						}
+						else{
+							progress.register(stream);
+							int count = 0;
+							while(!progress.isCancelled() && stream.next()){
+								writer.writeRow(stream.getResultSet(), columns);
+								if(++count == ArffExporter.PROGRESS_INTERVAL){
+									progress.addRows(count);
+									count = 0;
+								}
+							}
+							progress.addRows(count);
+						}
+					}
+					finally{
+						if(progress != null)
+							progress.unregister(stream);
+						stream.close();
+					}
+				}
+				finally{
+					session.close();
+				}
+			}
+			finally{
+				writer.close();
+			}
+			return writer.getRowCount();
+		}
+	}
+
+	/**
+	 * ChunkOutput
+	 * @author Daniel J Bray
+	 *
+	 * Collects the written bytes of a range into chunks, compressed if asked, and hands each full chunk to a queue.
+	 * Closing the output hands over what is left followed by the END_OF_RANGE marker.
+	 */
+	private static class ChunkOutput extends ArffOutput{
+		private int range;
+		private BlockingQueue<Chunk> chunks;
+		private boolean compress;
+
+		private ChunkOutput(int range, BlockingQueue<Chunk> chunks, boolean compress){
+			super(null, CHUNK_SIZE);
+			this.range = range;
+			this.chunks = chunks;
+			this.compress = compress;
+		}
+
+		@Override
+		protected void drain(ByteBuffer bytes) throws IOException{
+			byte[] chunk = new byte[bytes.remaining()];
+			bytes.get(chunk);
+			//Each chunk becomes its own gzip member, which may be joined in any order
+			if(compress)
+				chunk = GzipChannel.compress(chunk, 0, chunk.length);
+			put(ByteBuffer.wrap(chunk));
+		}
+
+		@Override
+		public void close() throws IOException{
+			try{
+				flush();
+			}
+			finally{
+				put(END_OF_RANGE);
+			}
+		}
+
+		private void put(ByteBuffer bytes) throws IOException{
+			try{
+				chunks.put(new Chunk(range, bytes));
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Export interrupted.");
+			}
+		}
+	}
+
+	/**
+	 * Chunk
+	 * @author Daniel J Bray
+	 *
+	 * Encoded bytes of one range, or the END_OF_RANGE marker.
+	 */
+	private static class Chunk{
+		private final int range;
+		private final ByteBuffer bytes;
+
+		private Chunk(int range, ByteBuffer bytes){
+			this.range = range;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * HeldRange
+	 * @author Daniel J Bray
+	 *
+	 * The chunks of a range that ran ahead of the range being written in ordered mode. They are
+	 * kept in memory until the range is spilled, after which they are appended to a temporary file.
+	 */
+	private static class HeldRange{
+		private List<ByteBuffer> chunks;
+		private File spill;
+		private FileChannel channel;
+		private boolean done;
+
+		private HeldRange(){
+			chunks = new ArrayList<ByteBuffer>();
+			spill = null;
+			channel = null;
+			done = false;
+		}
+
+		private boolean isSpilled(){
+			return channel != null;
+		}
+
+		/**
+		 * add
+		 *
+		 * Holds a chunk back.
+		 *
+		 * @return the bytes the chunk takes in memory
+		 */
+		private long add(ByteBuffer bytes) throws IOException{
+			if(channel != null){
+				write(channel, bytes);
+				return 0;
+			}
+			chunks.add(bytes);
+			return bytes.remaining();
+		}
+
+		/**
+		 * spill
+		 *
+		 * Moves the chunks to the file; later chunks are appended to it.
+		 *
+		 * @return the bytes freed in memory
+		 */
+		private long spill(File file) throws IOException{
+			spill = file;
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			long freed = 0;
+			for(ByteBuffer bytes : chunks){
+				freed += bytes.remaining();
+				write(channel, bytes);
+			}
+			chunks = null;
+			return freed;
+		}
+
+		/**
+		 * writeTo
+		 *
+		 * Writes every chunk held so far to the output.
+		 *
+		 * @return the bytes freed in memory
+		 */
+		private long writeTo(FileChannel out) throws IOException{
+			if(channel == null){
+				long freed = 0;
+				for(ByteBuffer bytes : chunks){
+					freed += bytes.remaining();
+					write(out, bytes);
+				}
+				chunks.clear();
+				return freed;
+			}
+			long position = 0;
+			long size = channel.size();
+			while(position < size){
+				position += channel.transferTo(position, size - position, out);
+			}
+			return 0;
+		}
+
+		/**
+		 * delete
+		 *
+		 * Deletes the spill file, if there is one.
+		 */
+		private void delete(){
+			if(channel == null)
+				return;
+			try{
+				channel.close();
+			}
+			catch(IOException e){
+				//Only the file is left behind
+			}
+			spill.delete();
+			channel = null;
+		}
+	}
+}
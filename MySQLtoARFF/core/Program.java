@@ -1,18 +1,23 @@
 package core;
 
+import java.sql.SQLException;
 
 import gui.MainWindow;
+import gui.PasswordDialog;
 import database.DBAccessor;
+import database.DBConnector;
 
 /**
  * Program
  * @author Daniel J Bray
- * 
+ *
  * The class specifically made to solely contain the main method. Acts as the executable
- * class.
+ * class. See BatchExporter for running without a GUI.
  */
 public class Program {
-	public static void main(String[] args){
-		new MainWindow(new DBAccessor());
+	public static void main(String[] args) throws SQLException{
+		DBConnector connector = new DBConnector();
+		PasswordDialog.connect(connector);
+		new MainWindow(new DBAccessor(connector));
 	}
 }
@@ -0,0 +1,226 @@
+package core;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import database.DBAccessor;
+import database.DBSession;
+import database.ExportPlan;
+import database.TableStream;
+
+/**
+ * ResumableExporter
+ * @author Daniel J Bray
+ *
+ * Exports a table so that a failed export can carry on where it stopped instead of starting over.
+ * Rows are fetched in the order of a unique key column (the primary key unless another is given)
+ * and every so often the output is forced to disk and a checkpoint is saved next to it in
+ * <output>.checkpoint: the last key written, the length of the file and the rows written. If the
+ * export is run again while a checkpoint exists, the file is cut back to the checkpoint and the
+ * rows after its key are fetched. The checkpoint is deleted once the export completes.
+ *
+ * A checkpoint is only used by an export of the same query; if the plan has changed, or the
+ * checkpoint can not be read, the export starts from scratch. The output is a plain, unsharded file
+ * and is always forced to disk, since the checkpoints depend on it; only the layout of its rows can
+ * be chosen. This class has no GUI dependencies.
+ */
+public class ResumableExporter {
+
+	/**
+	 * The suffix of the checkpoint file of an output.
+	 */
+	public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	//How many rows are written between checkpoints
+	private static final int CHECKPOINT_ROWS = 100000;
+
+	private DBAccessor database;
+	private ExportPlan plan;
+	private String keyColumn;
+	private OutputFormat.Layout layout;
+
+	/**
+	 * ResumableExporter
+	 *
+	 * Constructs a new ResumableExporter for the export plan of a single table.
+	 *
+	 * @param database - the database the table is in
+	 * @param plan - the export plan
+	 */
+	public ResumableExporter(DBAccessor database, ExportPlan plan){
+		this.database = database;
+		this.plan = plan;
+		keyColumn = null;
+		layout = OutputFormat.Layout.DENSE;
+	}
+
+	/**
+	 * setLayout
+	 *
+	 * Sets how the data rows are laid out (see OutputFormat.Layout). Rows are dense by default.
+	 *
+	 * @param layout - the layout of the rows
+	 */
+	public void setLayout(OutputFormat.Layout layout){
+		this.layout = layout;
+	}
+
+	/**
+	 * setKeyColumn
+	 *
+	 * Sets the unique column the rows are ordered and resumed by. It should be indexed.
+	 * By default the primary key of the table is used.
+	 *
+	 * @param keyColumn - the key column, or null for the primary key
+	 */
+	public void setKeyColumn(String keyColumn){
+		this.keyColumn = keyColumn;
+	}
+
+	/**
+	 * export
+	 *
+	 * Writes the planned columns and rows of the table to the file in ARFF format, resuming
+	 * from the checkpoint of an earlier export that did not finish.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param fileName - the file to write to
+	 * @return the number of data rows in the file
+	 * @throws SQLException if the database encounters an error or there is no key
+	 * @throws IOException if the file can not be written
+	 */
+	public long export(String relationName, String fileName) throws SQLException, IOException{
+		File output = new File(fileName);
+		File checkpointFile = new File(fileName + CHECKPOINT_SUFFIX);
+
+		DBSession session = database.openSession(plan.getTable());
+		try{
+			String key = (keyColumn != null) ? keyColumn : session.getPrimaryKey();
+			if(key == null)
+				throw new SQLException("Table " + plan.getTable() + " has no single column primary key to resume by.");
+			String query = plan.toSQL(session);
+			String[] columnNames = plan.getColumnNames(session);
+
+			//Carry on from the checkpoint only if it is of this export
+			Properties checkpoint = loadCheckpoint(checkpointFile);
+			String last = null;
+			long rows = 0;
+			boolean append = false;
+			if(checkpoint != null && output.exists() && checkpoint.getProperty("query").equals(query)
+					&& checkpoint.getProperty("key").equals(key)){
+				String keyType = session.getDataTypes(new String[]{key}, new int[]{0})[0];
+				if(isReadable(checkpoint, output, keyType)){
+					StateFile.truncate(output, Long.parseLong(checkpoint.getProperty("length")));
+					last = checkpoint.getProperty("last");
+					rows = Long.parseLong(checkpoint.getProperty("rows"));
+					append = true;
+				}
+				else{
+					System.err.println(checkpointFile + " can not be used. Exporting from scratch.");
+				}
+			}
+			long start = append ? output.length() : 0;
+
+			int[] rsColumns = new int[columnNames.length];
+			for(int i=0; i<rsColumns.length; i++){
+				rsColumns[i] = i+1;
+			}
+			//The key is selected after the exported columns
+			int keyIndex = columnNames.length + 1;
+
+			TableStream stream = session.streamPlanByKey(plan, key, last);
+			try{
+				ArffOutput out = ArffOutput.open(fileName, append);
+				out.setSync(true);
+				ArffWriter writer = new ArffWriter(out);
+				writer.setLayout(layout);
+				try{
+					if(!append){
+						String[] dataTypes = DBAccessor.getDataTypes(stream.getMetaData(), rsColumns);
+						String[] types = new String[dataTypes.length];
+						for(int i=0; i<types.length; i++){
+							types[i] = ArffFormat.mapDataTypeToARFF(dataTypes[i]);
+						}
+						writer.writeHeader(relationName, columnNames, types);
+					}
+
+					int sinceCheckpoint = 0;
+					while(stream.next()){
+						ResultSet row = stream.getResultSet();
+						writer.writeRow(row, rsColumns);
+						if(++sinceCheckpoint == CHECKPOINT_ROWS){
+							//The rows must be on disk before the checkpoint says they are
+							out.sync();
+							rows += sinceCheckpoint;
+							sinceCheckpoint = 0;
+							checkpoint = new Properties();
+							checkpoint.setProperty("query", query);
+							checkpoint.setProperty("key", key);
+							checkpoint.setProperty("last", row.getString(keyIndex));
+							checkpoint.setProperty("length", (start + out.getBytesWritten())+"");
+							checkpoint.setProperty("rows", rows+"");
+							StateFile.save(checkpointFile, checkpoint, "Export checkpoint");
+						}
+					}
+					rows += sinceCheckpoint;
+				}
+				finally{
+					writer.close();
+				}
+			}
+			finally{
+				stream.close();
+			}
+
+			checkpointFile.delete();
+			return rows;
+		}
+		finally{
+			session.close();
+		}
+	}
+
+	/**
+	 * loadCheckpoint
+	 *
+	 * Reads the checkpoint of the output.
+	 *
+	 * @return the checkpoint, or null if there is none or it can not be read
+	 */
+	private static Properties loadCheckpoint(File checkpointFile){
+		try{
+			return StateFile.load(checkpointFile, "query", "key", "last", "length", "rows");
+		}
+		catch(IOException e){
+			System.err.println(e.getMessage() + " Exporting from scratch.");
+			return null;
+		}
+	}
+
+	/**
+	 * isReadable
+	 *
+	 * Checks that the values of a checkpoint make sense: the length and row count are numbers,
+	 * the output is at least as long as the length and, for a number key, the last key is a
+	 * number.
+	 *
+	 * @param keyType - the sql data type of the key column, or null if not known
+	 */
+	private static boolean isReadable(Properties checkpoint, File output, String keyType){
+		try{
+			long length = Long.parseLong(checkpoint.getProperty("length"));
+			long rows = Long.parseLong(checkpoint.getProperty("rows"));
+			if(length < 0 || length > output.length() || rows < 0)
+				return false;
+			if(ValueEncoder.forType(keyType).isNumeric())
+				new BigDecimal(checkpoint.getProperty("last").trim());
+			return true;
+		}
+		catch(NumberFormatException e){
+			return false;
+		}
+	}
+}
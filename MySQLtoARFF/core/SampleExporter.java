@@ -0,0 +1,394 @@
+package core;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import database.DBAccessor;
+import database.DBSession;
+import database.ExportPlan;
+import database.TableStream;
+
+/**
+ * SampleExporter
+ * @author Daniel J Bray
+ *
+ * Exports a sample of a table instead of all of it. There are three ways to sample:
+ *
+ * A random sample keeps each row with a probability and a hash sample keeps the rows whose key
+ * hashes into a fraction of the range. Both are done by the database (see ExportPlan), so the
+ * skipped rows are never sent and the export streams like any other. The size of the sample is
+ * only about the fraction of the table. A hash sample is the same every time it is taken.
+ *
+ * A reservoir sample has exactly n rows (or the whole table if it is smaller), each row having
+ * the same chance to be in it. The rows are streamed once and only the n rows of the sample are
+ * held in memory. They are written in the order they were read. If a stratify column (usually
+ * the class attribute) is set, the rows of each class are counted first with a GROUP BY and each
+ * class gets its share of the n rows, so the sample keeps the proportions of the classes. The
+ * classes are counted and the rows read in one snapshot of the data (see DBSession.beginSnapshot).
+ *
+ * Each sample is written with the OutputFormat, though reservoir samples are always dense.
+ * This class has no GUI dependencies.
+ */
+public class SampleExporter {
+
+	private DBAccessor database;
+	private ExportPlan plan;
+	private String stratifyColumn;
+	private long seed;
+	private OutputFormat format;
+	private boolean sync;
+
+	/**
+	 * SampleExporter
+	 *
+	 * Constructs a new SampleExporter for the export plan of a single table.
+	 *
+	 * @param database - the database the table is in
+	 * @param plan - the export plan
+	 */
+	public SampleExporter(DBAccessor database, ExportPlan plan){
+		this.database = database;
+		this.plan = plan;
+		stratifyColumn = null;
+		seed = 0;
+		format = new OutputFormat();
+		sync = false;
+	}
+
+	/**
+	 * setStratifyColumn
+	 *
+	 * Sets the exported column whose values are kept in proportion in reservoir samples.
+	 *
+	 * @param stratifyColumn - the column, usually the class attribute, or null to not stratify
+	 */
+	public void setStratifyColumn(String stratifyColumn){
+		this.stratifyColumn = stratifyColumn;
+	}
+
+	/**
+	 * setSeed
+	 *
+	 * Sets the seed of the random and reservoir samples. The same seed gives the same
+	 * sample while the table does not change.
+	 *
+	 * @param seed - the seed
+	 */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+
+	/**
+	 * setOutputFormat
+	 *
+	 * Sets how the sample is laid out, compressed and sharded.
+	 *
+	 * @param format - the output format
+	 */
+	public void setOutputFormat(OutputFormat format){
+		this.format = format;
+	}
+
+	/**
+	 * setSync
+	 *
+	 * Sets whether the output is forced to disk before the export returns.
+	 *
+	 * @param sync - true to force the output to disk
+	 */
+	public void setSync(boolean sync){
+		this.sync = sync;
+	}
+
+	/**
+	 * exportRandom
+	 *
+	 * Writes a random fraction of the planned rows, chosen by the database.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param fileName - the file to write to
+	 * @param fraction - the fraction of the rows to keep, between 0 and 1
+	 * @return the number of data rows written
+	 * @throws SQLException if the database encounters an error
+	 * @throws IOException if the file can not be written
+	 */
+	public long exportRandom(String relationName, String fileName, double fraction) throws SQLException, IOException{
+		checkFraction(fraction);
+		ExportPlan sample = new ExportPlan(plan);
+		sample.addRandomSample(fraction, seed);
+		return export(relationName, sample, fileName);
+	}
+
+	/**
+	 * exportHash
+	 *
+	 * Writes the planned rows whose key hashes into a fraction of the range, chosen by the database.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param fileName - the file to write to
+	 * @param fraction - the fraction of the rows to keep, between 0 and 1
+	 * @param keyColumn - the column that is hashed, or null for the primary key
+	 * @return the number of data rows written
+	 * @throws SQLException if the database encounters an error or there is no key
+	 * @throws IOException if the file can not be written
+	 */
+	public long exportHash(String relationName, String fileName, double fraction, String keyColumn) throws SQLException, IOException{
+		checkFraction(fraction);
+		if(keyColumn == null){
+			DBSession session = database.openSession(plan.getTable());
+			try{
+				keyColumn = session.getPrimaryKey();
+			}
+			finally{
+				session.close();
+			}
+			if(keyColumn == null)
+				throw new SQLException("Table " + plan.getTable() + " has no single column primary key to hash.");
+		}
+		ExportPlan sample = new ExportPlan(plan);
+		sample.addHashSample(keyColumn, fraction);
+		return export(relationName, sample, fileName);
+	}
+
+	/**
+	 * exportReservoir
+	 *
+	 * Writes a uniform sample of exactly n of the planned rows, or of each class's share of
+	 * them if a stratify column is set.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param fileName - the file to write to
+	 * @param n - the number of rows in the sample
+	 * @return the number of data rows written
+	 * @throws SQLException if the database encounters an error or a row has a class that was
+	 * 		not counted (possible only for tables without snapshots)
+	 * @throws IOException if the file can not be written
+	 */
+	public long exportReservoir(String relationName, String fileName, int n) throws SQLException, IOException{
+		if(n < 1)
+			throw new IllegalArgumentException("The sample must have at least 1 row.");
+
+		DBSession session = database.openSession(plan.getTable());
+		try{
+			String[] columnNames = plan.getColumnNames(session);
+			int[] rsColumns = new int[columnNames.length];
+			int stratifyIndex = -1;
+			for(int i=0; i<rsColumns.length; i++){
+				rsColumns[i] = i+1;
+				if(columnNames[i].equalsIgnoreCase(stratifyColumn))
+					stratifyIndex = i;
+			}
+			if(stratifyColumn != null && stratifyIndex == -1)
+				throw new SQLException("The column " + stratifyColumn + " to stratify on is not exported.");
+
+			Random random = new Random(seed);
+			Map<String, Reservoir> reservoirs = new HashMap<String, Reservoir>();
+			String[] dataTypes;
+			long position = 0;
+			if(stratifyIndex != -1)
+				session.beginSnapshot();
+			try{
+				if(stratifyIndex != -1){
+					Map<String, Long> counts = session.getValueCounts(stratifyColumn, plan.getRowCondition());
+					Map<String, Integer> sizes = allocate(counts, n);
+					for(Map.Entry<String, Integer> size : sizes.entrySet()){
+						reservoirs.put(size.getKey(), new Reservoir(size.getValue(), random));
+					}
+				}
+				else{
+					reservoirs.put(null, new Reservoir(n, random));
+				}
+
+				TableStream stream = session.streamPlan(plan);
+				try{
+					dataTypes = DBAccessor.getDataTypes(stream.getMetaData(), rsColumns);
+					while(stream.next()){
+						String[] row = stream.getRow();
+						String stratum = (stratifyIndex == -1) ? null : row[stratifyIndex];
+						Reservoir reservoir = reservoirs.get(stratum);
+						if(reservoir == null)
+							throw new SQLException("The class " + stratum + " of " + stratifyColumn
+									+ " was added after the classes were counted. Export the sample again.");
+						reservoir.offer(position, row);
+						position++;
+					}
+				}
+				finally{
+					stream.close();
+				}
+			}
+			finally{
+				if(stratifyIndex != -1)
+					session.endSnapshot();
+			}
+
+			List<Sample> samples = new ArrayList<Sample>();
+			for(Reservoir reservoir : reservoirs.values()){
+				samples.addAll(reservoir.samples);
+			}
+			Collections.sort(samples, new Comparator<Sample>(){
+				@Override
+				public int compare(Sample a, Sample b){
+					return Long.compare(a.position, b.position);
+				}
+			});
+
+			String[] types = new String[dataTypes.length];
+			for(int i=0; i<types.length; i++){
+				types[i] = ArffFormat.mapDataTypeToARFF(dataTypes[i]);
+			}
+			ArffWriter writer = new ArffWriter(format, fileName, sync);
+			writer.setDataTypes(dataTypes);
+			try{
+				writer.writeHeader(relationName, columnNames, types);
+				for(Sample sample : samples){
+					writer.writeRow(sample.values);
+				}
+			}
+			finally{
+				writer.close();
+			}
+			return writer.getRowCount();
+		}
+		finally{
+			session.close();
+		}
+	}
+
+	/**
+	 * export
+	 *
+	 * Streams a plan with its sample conditions to the file.
+	 */
+	private long export(String relationName, ExportPlan sample, String fileName) throws SQLException, IOException{
+		DBSession session = database.openSession(sample.getTable());
+		try{
+			ArffExporter exporter = new ArffExporter(session);
+			exporter.setSync(sync);
+			exporter.setOutputFormat(format);
+			return exporter.export(relationName, sample, fileName);
+		}
+		finally{
+			session.close();
+		}
+	}
+
+	/**
+	 * allocate
+	 *
+	 * Shares n rows out among the classes in proportion to their counts, giving the rows
+	 * left over by rounding down to the classes with the largest remainders.
+	 *
+	 * @param counts - the number of rows of each class
+	 * @param n - the number of rows to share out
+	 * @return the number of rows of each class in the sample
+	 */
+	static Map<String, Integer> allocate(Map<String, Long> counts, int n){
+		long total = 0;
+		for(Long count : counts.values()){
+			total += count;
+		}
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		if(total <= n){
+			for(Map.Entry<String, Long> count : counts.entrySet()){
+				sizes.put(count.getKey(), count.getValue().intValue());
+			}
+			return sizes;
+		}
+
+		final Map<String, Double> remainders = new HashMap<String, Double>();
+		int given = 0;
+		for(Map.Entry<String, Long> count : counts.entrySet()){
+			double share = (double)n * count.getValue() / total;
+			int size = (int)share;
+			sizes.put(count.getKey(), size);
+			remainders.put(count.getKey(), share - size);
+			given += size;
+		}
+		List<String> classes = new ArrayList<String>(counts.keySet());
+		Collections.sort(classes, new Comparator<String>(){
+			@Override
+			public int compare(String a, String b){
+				return Double.compare(remainders.get(b), remainders.get(a));
+			}
+		});
+		for(int i=0; given < n && i < classes.size(); i++, given++){
+			sizes.put(classes.get(i), sizes.get(classes.get(i)) + 1);
+		}
+		return sizes;
+	}
+
+	/**
+	 * checkFraction
+	 *
+	 * Checks that a sampling fraction is between 0 and 1.
+	 */
+	private static void checkFraction(double fraction){
+		if(!(fraction > 0 && fraction <= 1))
+			throw new IllegalArgumentException("The sample fraction must be between 0 and 1.");
+	}
+
+	/**
+	 * Sample
+	 * @author Daniel J Bray
+	 *
+	 * A row in a reservoir and where it was in the stream.
+	 */
+	private static class Sample {
+		private long position;
+		private String[] values;
+
+		private Sample(long position, String[] values){
+			this.position = position;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Reservoir
+	 * @author Daniel J Bray
+	 *
+	 * A uniform sample of a fixed size of the rows offered to it (Vitter's algorithm R):
+	 * the first rows fill it, and after that the i-th row replaces a random row in it
+	 * with a probability of size / i.
+	 */
+	private static class Reservoir {
+		private int size;
+		private long seen;
+		private Random random;
+		private List<Sample> samples;
+
+		private Reservoir(int size, Random random){
+			this.size = size;
+			this.random = random;
+			seen = 0;
+			samples = new ArrayList<Sample>(Math.min(size, 1 << 16));
+		}
+
+		/**
+		 * offer
+		 *
+		 * Offers the next row to the sample.
+		 *
+		 * @param position - where the row is in the stream
+		 * @param values - the values of the row
+		 */
+		private void offer(long position, String[] values){
+			seen++;
+			if(samples.size() < size){
+				samples.add(new Sample(position, values));
+				return;
+			}
+			long index = (long)(random.nextDouble() * seen);
+			if(index < size)
+				samples.set((int)index, new Sample(position, values));
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package core;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import database.DBAccessor;
+import database.DBSession;
+import database.ExportPlan;
+import database.TableStream;
+
+/**
+ * SplitExporter
+ * @author Daniel J Bray
+ *
+ * Exports a table straight into a train/test split or k folds in one pass over its rows, instead
+ * of exporting it whole and splitting the file afterwards. Every output gets the same header and
+ * each row is written to exactly one of them. Train/test outputs are named after the output with
+ * -train and -test before the .arff; folds are named -fold0, -fold1 and so on.
+ *
+ * The output a row goes to is chosen from a hash of its key column (the primary key unless another
+ * is given), so exporting the same rows again gives the same split. Without stratifying, rows added
+ * later do not move rows that were already exported. If a stratify column (usually the class
+ * attribute) is set, the rows of each class are also kept within one row of the split's
+ * proportions: a row goes to the output its hash picks unless that output is already ahead for its
+ * class, in which case it goes to the output furthest behind. The rows are fetched in key order so
+ * this is deterministic too, but a row depends on the rows of its class before it, so rows added
+ * or removed with smaller keys can move rows that were already exported.
+ *
+ * Each output is written with the OutputFormat, so splits can be compressed and sharded.
+ * This class has no GUI dependencies.
+ */
+public class SplitExporter {
+
+	private DBAccessor database;
+	private ExportPlan plan;
+	private String keyColumn;
+	private String stratifyColumn;
+	private OutputFormat format;
+	private boolean sync;
+
+	/**
+	 * SplitExporter
+	 *
+	 * Constructs a new SplitExporter for the export plan of a single table.
+	 *
+	 * @param database - the database the table is in
+	 * @param plan - the export plan
+	 */
+	public SplitExporter(DBAccessor database, ExportPlan plan){
+		this.database = database;
+		this.plan = plan;
+		keyColumn = null;
+		stratifyColumn = null;
+		format = new OutputFormat();
+		sync = false;
+	}
+
+	/**
+	 * setKeyColumn
+	 *
+	 * Sets the column the rows are hashed on. Its values should be unique and it should be
+	 * indexed. By default the primary key of the table is used.
+	 *
+	 * @param keyColumn - the key column, or null for the primary key
+	 */
+	public void setKeyColumn(String keyColumn){
+		this.keyColumn = keyColumn;
+	}
+
+	/**
+	 * setStratifyColumn
+	 *
+	 * Sets the exported column whose values are kept in proportion across the outputs.
+	 *
+	 * @param stratifyColumn - the column, usually the class attribute, or null to not stratify
+	 */
+	public void setStratifyColumn(String stratifyColumn){
+		this.stratifyColumn = stratifyColumn;
+	}
+
+	/**
+	 * setOutputFormat
+	 *
+	 * Sets how each output is laid out, compressed and sharded.
+	 *
+	 * @param format - the output format
+	 */
+	public void setOutputFormat(OutputFormat format){
+		this.format = format;
+	}
+
+	/**
+	 * setSync
+	 *
+	 * Sets whether each output is forced to disk before the export returns.
+	 *
+	 * @param sync - true to force the outputs to disk
+	 */
+	public void setSync(boolean sync){
+		this.sync = sync;
+	}
+
+	/**
+	 * exportTrainTest
+	 *
+	 * Writes the planned rows to a training and a test output.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param fileName - the name the outputs are named after
+	 * @param testFraction - the fraction of the rows that go to the test output, between 0 and 1
+	 * @return the number of rows written to the training and the test output
+	 * @throws SQLException if the database encounters an error or there is no key
+	 * @throws IOException if a file can not be written
+	 */
+	public long[] exportTrainTest(String relationName, String fileName, double testFraction) throws SQLException, IOException{
+		if(!(testFraction > 0 && testFraction < 1))
+			throw new IllegalArgumentException("The test fraction must be between 0 and 1.");
+
+		String[] fileNames = new String[]{
+			OutputFormat.addSuffix(fileName, "-train"),
+			OutputFormat.addSuffix(fileName, "-test")
+		};
+		return export(relationName, fileNames, new double[]{1 - testFraction, testFraction});
+	}
+
+	/**
+	 * exportFolds
+	 *
+	 * Writes the planned rows to k outputs of about the same size, for k-fold cross validation.
+	 *
+	 * @param relationName - the name of the relation
+	 * @param fileName - the name the outputs are named after
+	 * @param folds - the number of folds, at least 2
+	 * @return the number of rows written to each fold
+	 * @throws SQLException if the database encounters an error or there is no key
+	 * @throws IOException if a file can not be written
+	 */
+	public long[] exportFolds(String relationName, String fileName, int folds) throws SQLException, IOException{
+		if(folds < 2)
+			throw new IllegalArgumentException("There must be at least 2 folds.");
+
+		String[] fileNames = new String[folds];
+		double[] weights = new double[folds];
+		for(int i=0; i<folds; i++){
+			fileNames[i] = OutputFormat.addSuffix(fileName, "-fold" + i);
+			weights[i] = 1.0 / folds;
+		}
+		return export(relationName, fileNames, weights);
+	}
+
+	/**
+	 * export
+	 *
+	 * Streams the planned rows once and writes each to the output it is routed to.
+	 */
+	private long[] export(String relationName, String[] fileNames, double[] weights) throws SQLException, IOException{
+		DBSession session = database.openSession(plan.getTable());
+		try{
+			String key = (keyColumn != null) ? keyColumn : session.getPrimaryKey();
+			if(key == null)
+				throw new SQLException("Table " + plan.getTable() + " has no single column primary key to split by.");
+			String[] columnNames = plan.getColumnNames(session);
+
+			int[] rsColumns = new int[columnNames.length];
+			int stratifyIndex = -1;
+			for(int i=0; i<rsColumns.length; i++){
+				rsColumns[i] = i+1;
+				if(columnNames[i].equalsIgnoreCase(stratifyColumn))
+					stratifyIndex = i+1;
+			}
+			if(stratifyColumn != null && stratifyIndex == -1)
+				throw new SQLException("The column " + stratifyColumn + " to stratify on is not exported.");
+			//The key is selected after the exported columns
+			int keyIndex = columnNames.length + 1;
+
+			TableStream stream = session.streamPlanByKey(plan, key, null);
+			try{
+				String[] dataTypes = DBAccessor.getDataTypes(stream.getMetaData(), rsColumns);
+				String[] types = new String[dataTypes.length];
+				for(int i=0; i<types.length; i++){
+					types[i] = ArffFormat.mapDataTypeToARFF(dataTypes[i]);
+				}
+
+				ArffWriter[] writers = new ArffWriter[fileNames.length];
+				try{
+					for(int i=0; i<writers.length; i++){
+						writers[i] = new ArffWriter(format, fileNames[i], sync);
+						writers[i].setDataTypes(dataTypes);
+						writers[i].writeHeader(relationName, columnNames, types);
+					}
+
+					Router router = new Router(weights, stratifyIndex != -1);
+					while(stream.next()){
+						ResultSet row = stream.getResultSet();
+						String stratum = (stratifyIndex == -1) ? null : row.getString(stratifyIndex);
+						writers[router.route(row.getString(keyIndex), stratum)].writeRow(row, rsColumns);
+					}
+				}
+				finally{
+					for(int i=0; i<writers.length; i++){
+						if(writers[i] != null)
+							writers[i].close();
+					}
+				}
+
+				long[] rows = new long[writers.length];
+				for(int i=0; i<rows.length; i++){
+					rows[i] = writers[i].getRowCount();
+				}
+				return rows;
+			}
+			finally{
+				stream.close();
+			}
+		}
+		finally{
+			session.close();
+		}
+	}
+
+	/**
+	 * Router
+	 * @author Daniel J Bray
+	 *
+	 * Chooses the output of each row from the hash of its key, keeping the rows of each
+	 * stratum within one row of the weights of the outputs.
+	 */
+	static class Router {
+
+		private double[] bounds;
+		private double[] weights;
+		private boolean stratified;
+		private Map<String, long[]> strata;
+
+		/**
+		 * Router
+		 *
+		 * @param weights - the fraction of the rows each output gets; they add up to 1
+		 * @param stratified - true to keep the rows of each stratum in proportion
+		 */
+		Router(double[] weights, boolean stratified){
+			this.weights = weights;
+			this.stratified = stratified;
+			bounds = new double[weights.length];
+			double total = 0;
+			for(int i=0; i<weights.length; i++){
+				total += weights[i];
+				bounds[i] = total;
+			}
+			strata = new HashMap<String, long[]>();
+		}
+
+		/**
+		 * route
+		 *
+		 * @param key - the key of the row
+		 * @param stratum - the stratum of the row (null is a stratum of its own)
+		 * @return the index of the output the row goes to
+		 */
+		int route(String key, String stratum){
+			//The top 53 bits of the hash as a fraction in [0, 1)
+			double point = (Hashing.hash(key) >>> 11) * 0x1.0p-53 * bounds[bounds.length-1];
+			int output = bounds.length - 1;
+			for(int i=0; i<bounds.length; i++){
+				if(point < bounds[i]){
+					output = i;
+					break;
+				}
+			}
+
+			if(!stratified)
+				return output;
+
+			//Counts of the stratum per output, with the total last
+			long[] counts = strata.get(stratum);
+			if(counts == null){
+				counts = new long[weights.length + 1];
+				strata.put(stratum, counts);
+			}
+			long total = counts[weights.length] + 1;
+			if(counts[output] + 1 > weights[output] * total + 1){
+				//That output is ahead for this stratum, so use the one furthest behind
+				double behind = Double.NEGATIVE_INFINITY;
+				for(int i=0; i<weights.length; i++){
+					double deficit = weights[i] * total - counts[i];
+					if(deficit > behind){
+						behind = deficit;
+						output = i;
+					}
+				}
+			}
+			counts[output]++;
+			counts[weights.length] = total;
+			return output;
+		}
+	}
+}
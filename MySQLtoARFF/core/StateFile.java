@@ -0,0 +1,123 @@
+package core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * StateFile
+ * @author Daniel J Bray
+ *
+ * Helpers for the small properties files that exports keep next to their output to carry on
+ * where they left off (see IncrementalExporter and ResumableExporter).
+ */
+class StateFile {
+
+	private StateFile(){
+	}
+
+	/**
+	 * load
+	 *
+	 * Reads a state file.
+	 *
+	 * @param stateFile - the state file
+	 * @param required - the keys the state must have
+	 * @return the state, or null if there is no state file
+	 * @throws IOException if the file can not be read or a key is missing
+	 */
+	static Properties load(File stateFile, String... required) throws IOException{
+		if(!stateFile.exists())
+			return null;
+
+		Properties state = new Properties();
+		FileInputStream in = new FileInputStream(stateFile);
+		try{
+			state.load(in);
+		}
+		finally{
+			in.close();
+		}
+		for(String key : required){
+			if(state.getProperty(key) == null)
+				throw new IOException(stateFile + " is not a valid state file.");
+		}
+		return state;
+	}
+
+	/**
+	 * getLength
+	 *
+	 * Reads a length or count from a state, which must be a whole number that is not negative.
+	 *
+	 * @param stateFile - the state file the state was read from
+	 * @param state - the state
+	 * @param key - the key of the number
+	 * @return the number
+	 * @throws IOException if the value is not a whole number or is negative
+	 */
+	static long getLength(File stateFile, Properties state, String key) throws IOException{
+		try{
+			long value = Long.parseLong(state.getProperty(key).trim());
+			if(value >= 0)
+				return value;
+		}
+		catch(NumberFormatException e){
+			//Reported below
+		}
+		throw new IOException(stateFile + " is not a valid state file: " + key + " is " + state.getProperty(key) + ".");
+	}
+
+	/**
+	 * save
+	 *
+	 * Writes a state file. It is written to a temporary file, forced to disk and moved
+	 * into place so a crash never leaves half a state file.
+	 *
+	 * @param stateFile - the state file
+	 * @param state - the state
+	 * @param comment - the comment at the top of the file
+	 * @throws IOException if the file can not be written
+	 */
+	static void save(File stateFile, Properties state, String comment) throws IOException{
+		File temp = new File(stateFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try{
+			state.store(out, comment);
+			out.getChannel().force(true);
+		}
+		finally{
+			out.close();
+		}
+		Files.move(temp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * truncate
+	 *
+	 * Cuts an output back to the length it had when its state was saved.
+	 *
+	 * @param output - the output
+	 * @param length - the length in bytes
+	 * @throws IOException if the output is shorter than the length or can not be written
+	 */
+	static void truncate(File output, long length) throws IOException{
+		if(output.length() < length)
+			throw new IOException(output + " is shorter than its saved state. Export it again from scratch.");
+		if(output.length() == length)
+			return;
+
+		RandomAccessFile file = new RandomAccessFile(output, "rw");
+		try{
+			file.getChannel().truncate(length);
+		}
+		finally{
+			file.close();
+		}
+	}
+}
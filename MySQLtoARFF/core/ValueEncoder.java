@@ -0,0 +1,423 @@
+package core;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import database.ColumnStore;
+
+/**
+ * ValueEncoder
+ * @author Daniel J Bray
+ *
+ * A ValueEncoder writes the values of one column as ARFF data. One is chosen per column from its
+ * SQL type before any rows are written (see forType), so writing a cell is a single call that
+ * reads the value the cheapest way for its type and writes it without looking at it again.
+ * Missing (NULL) values are written as ?. Strings are always quoted and escaped the way Weka
+ * reads them back, so spaces, commas, quotes and line breaks in the data are safe. This class
+ * has no GUI dependencies. Encoders hold no state and can be shared between threads.
+ */
+public abstract class ValueEncoder {
+
+	private static final ValueEncoder INTEGER = new IntegerEncoder();
+	private static final ValueEncoder FLOAT = new FloatEncoder();
+	private static final ValueEncoder DOUBLE = new DoubleEncoder();
+	private static final ValueEncoder NUMBER = new NumberEncoder();
+	private static final ValueEncoder DATE = new DateEncoder();
+	private static final ValueEncoder STRING = new StringEncoder();
+
+	/**
+	 * forType
+	 *
+	 * Chooses the encoder for a column.
+	 *
+	 * @param dataType - the sql data type of the column (as from DBAccessor.getDataTypes), or null if not known
+	 * @return the encoder for the column
+	 */
+	public static ValueEncoder forType(String dataType){
+		if(dataType == null)
+			return STRING;
+
+		dataType = dataType.toLowerCase();
+		if(dataType.equals("tinyint") || dataType.equals("smallint") || dataType.equals("mediumint")
+				|| dataType.equals("int") || dataType.equals("integer") || dataType.equals("year")
+				|| dataType.equals("bit")){
+			return INTEGER;
+		}
+		else if(dataType.equals("float")){
+			return FLOAT;
+		}
+		else if(dataType.equals("double") || dataType.equals("real")){
+			return DOUBLE;
+		}
+		//Unsigned bigints do not fit in a long and decimals must keep every digit
+		else if(dataType.equals("bigint") || dataType.equals("decimal") || dataType.equals("numeric")){
+			return NUMBER;
+		}
+		else if(dataType.equals("date") || dataType.equals("datetime") || dataType.equals("timestamp")){
+			return DATE;
+		}
+		else{
+			return STRING;
+		}
+	}
+
+	/**
+	 * forTypes
+	 *
+	 * Chooses the encoder for each column.
+	 *
+	 * @param dataTypes - the sql data type of each column
+	 * @return the encoder of each column
+	 */
+	public static ValueEncoder[] forTypes(String[] dataTypes){
+		ValueEncoder[] encoders = new ValueEncoder[dataTypes.length];
+		for(int i=0; i<dataTypes.length; i++){
+			encoders[i] = forType(dataTypes[i]);
+		}
+		return encoders;
+	}
+
+	/**
+	 * encode
+	 *
+	 * Writes the value of the column in the current row.
+	 *
+	 * @param row - the result set positioned on the row
+	 * @param column - the (1 based) result set column
+	 * @param out - the output to write to
+	 * @throws SQLException if the database encounters an error
+	 * @throws IOException if the output can not be written
+	 */
+	public abstract void encode(ResultSet row, int column, ArffOutput out) throws SQLException, IOException;
+
+	/**
+	 * isZero
+	 *
+	 * Checks whether the value of the column in the current row is a numeric zero, which
+	 * sparse rows leave out. Only numeric encoders ever return true; NULL is never zero.
+	 *
+	 * @param row - the result set positioned on the row
+	 * @param column - the (1 based) result set column
+	 * @return true if the value is zero
+	 * @throws SQLException if the database encounters an error
+	 */
+	public boolean isZero(ResultSet row, int column) throws SQLException{
+		return false;
+	}
+
+	/**
+	 * isNumeric
+	 *
+	 * @return true if the values are numbers
+	 */
+	public boolean isNumeric(){
+		return false;
+	}
+
+	/**
+	 * encode
+	 *
+	 * Appends a value that was already read as text (as shown in the GUI).
+	 *
+	 * @param value - the value, or null if it is missing
+	 * @param out - where to append it
+	 */
+	public abstract void encode(String value, StringBuilder out);
+
+	/**
+	 * encode
+	 *
+	 * Writes a value that was already read as text (as held in a ColumnStore) straight
+	 * into the output, the same way as encode(String, StringBuilder).
+	 *
+	 * @param value - the value, or null if it is missing
+	 * @param out - the output to write to
+	 * @throws IOException if the output can not be written
+	 */
+	public abstract void encode(String value, ArffOutput out) throws IOException;
+
+	/**
+	 * IntegerEncoder
+	 * @author Daniel J Bray
+	 *
+	 * Whole numbers that fit in a long, read and written without any Strings.
+	 */
+	private static class IntegerEncoder extends ValueEncoder{
+		@Override
+		public boolean isNumeric(){
+			return true;
+		}
+
+		@Override
+		public boolean isZero(ResultSet row, int column) throws SQLException{
+			return row.getLong(column) == 0 && !row.wasNull();
+		}
+
+		@Override
+		public void encode(ResultSet row, int column, ArffOutput out) throws SQLException, IOException{
+			long value = row.getLong(column);
+			if(row.wasNull())
+				out.write('?');
+			else
+				out.write(value);
+		}
+
+		@Override
+		public void encode(String value, StringBuilder out){
+			out.append(value == null ? "?" : value);
+		}
+
+		@Override
+		public void encode(String value, ArffOutput out) throws IOException{
+			out.write(value == null ? "?" : value);
+		}
+	}
+
+	/**
+	 * FloatEncoder
+	 * @author Daniel J Bray
+	 *
+	 * Single precision numbers. Reading them as doubles would add digits that were never stored.
+	 * They are written without an exponent however they were read (see ColumnStore.formatFloat).
+	 */
+	private static class FloatEncoder extends ValueEncoder{
+		@Override
+		public boolean isNumeric(){
+			return true;
+		}
+
+		@Override
+		public boolean isZero(ResultSet row, int column) throws SQLException{
+			return row.getFloat(column) == 0 && !row.wasNull();
+		}
+
+		@Override
+		public void encode(ResultSet row, int column, ArffOutput out) throws SQLException, IOException{
+			float value = row.getFloat(column);
+			if(row.wasNull())
+				out.write('?');
+			else
+				out.write(ColumnStore.formatFloat(Float.toString(value)));
+		}
+
+		@Override
+		public void encode(String value, StringBuilder out){
+			out.append(value == null ? "?" : ColumnStore.formatFloat(value));
+		}
+
+		@Override
+		public void encode(String value, ArffOutput out) throws IOException{
+			out.write(value == null ? "?" : ColumnStore.formatFloat(value));
+		}
+	}
+
+	/**
+	 * DoubleEncoder
+	 * @author Daniel J Bray
+	 *
+	 * Double precision numbers, written without an exponent however they were read (see
+	 * ColumnStore.formatFloat).
+	 */
+	private static class DoubleEncoder extends ValueEncoder{
+		@Override
+		public boolean isNumeric(){
+			return true;
+		}
+
+		@Override
+		public boolean isZero(ResultSet row, int column) throws SQLException{
+			return row.getDouble(column) == 0 && !row.wasNull();
+		}
+
+		@Override
+		public void encode(ResultSet row, int column, ArffOutput out) throws SQLException, IOException{
+			double value = row.getDouble(column);
+			if(row.wasNull())
+				out.write('?');
+			else
+				out.write(ColumnStore.formatFloat(Double.toString(value)));
+		}
+
+		@Override
+		public void encode(String value, StringBuilder out){
+			out.append(value == null ? "?" : ColumnStore.formatFloat(value));
+		}
+
+		@Override
+		public void encode(String value, ArffOutput out) throws IOException{
+			out.write(value == null ? "?" : ColumnStore.formatFloat(value));
+		}
+	}
+
+	/**
+	 * NumberEncoder
+	 * @author Daniel J Bray
+	 *
+	 * Exact numbers (DECIMAL and BIGINT) written as the server sends them, which is already
+	 * a plain number with every digit. Numbers never need quotes.
+	 */
+	private static class NumberEncoder extends ValueEncoder{
+		@Override
+		public boolean isNumeric(){
+			return true;
+		}
+
+		@Override
+		public boolean isZero(ResultSet row, int column) throws SQLException{
+			String value = row.getString(column);
+			if(value == null)
+				return false;
+			//0, -0, 0.000 and the like
+			for(int i=0; i<value.length(); i++){
+				char c = value.charAt(i);
+				if(c != '0' && c != '.' && c != '-')
+					return false;
+			}
+			return value.length() > 0;
+		}
+
+		@Override
+		public void encode(ResultSet row, int column, ArffOutput out) throws SQLException, IOException{
+			encode(row.getString(column), out);
+		}
+
+		@Override
+		public void encode(String value, StringBuilder out){
+			out.append(value == null ? "?" : value);
+		}
+
+		@Override
+		public void encode(String value, ArffOutput out) throws IOException{
+			out.write(value == null ? "?" : value);
+		}
+	}
+
+	/**
+	 * DateEncoder
+	 * @author Daniel J Bray
+	 *
+	 * Dates and times in the default ARFF date format, yyyy-MM-dd'T'HH:mm:ss. The server's text
+	 * (yyyy-MM-dd or yyyy-MM-dd HH:mm:ss[.fraction]) is reshaped rather than parsed, so no
+	 * Date objects are made and no time zone conversion can shift the values. Zero dates
+	 * (0000-00-00, or a zero month or day, which some sql modes allow) are not dates Weka
+	 * can read and are written as missing.
+	 */
+	private static class DateEncoder extends ValueEncoder{
+		@Override
+		public void encode(ResultSet row, int column, ArffOutput out) throws SQLException, IOException{
+			encode(row.getString(column), out);
+		}
+
+		@Override
+		public void encode(String value, ArffOutput out) throws IOException{
+			if(value == null || value.length() < 10 || isZeroDate(value)){
+				out.write('?');
+				return;
+			}
+			out.write(value, 0, 10);
+			out.write('T');
+			if(value.length() >= 19)
+				out.write(value, 11, 19);
+			else
+				out.write("00:00:00");
+		}
+
+		@Override
+		public void encode(String value, StringBuilder out){
+			if(value == null || value.length() < 10 || isZeroDate(value)){
+				out.append('?');
+				return;
+			}
+			out.append(value, 0, 10).append('T');
+			if(value.length() >= 19)
+				out.append(value, 11, 19);
+			else
+				out.append("00:00:00");
+		}
+
+		/**
+		 * isZeroDate
+		 *
+		 * Checks whether the year, month or day of a yyyy-MM-dd date is zero.
+		 */
+		private static boolean isZeroDate(String value){
+			return value.startsWith("0000") || (value.charAt(5) == '0' && value.charAt(6) == '0')
+					|| (value.charAt(8) == '0' && value.charAt(9) == '0');
+		}
+	}
+
+	/**
+	 * StringEncoder
+	 * @author Daniel J Bray
+	 *
+	 * Text, always in single quotes with backslash escapes for the characters Weka treats
+	 * specially. Quoting every value means each one is only looked at once, as it is written.
+	 */
+	private static class StringEncoder extends ValueEncoder{
+		@Override
+		public void encode(ResultSet row, int column, ArffOutput out) throws SQLException, IOException{
+			encode(row.getString(column), out);
+		}
+
+		@Override
+		public void encode(String value, ArffOutput out) throws IOException{
+			if(value == null){
+				out.write('?');
+				return;
+			}
+
+			out.write('\'');
+			int start = 0;
+			for(int i=0; i<value.length(); i++){
+				String escape = escape(value.charAt(i));
+				if(escape != null){
+					out.write(value, start, i);
+					out.write(escape);
+					start = i+1;
+				}
+			}
+			out.write(value, start, value.length());
+			out.write('\'');
+		}
+
+		@Override
+		public void encode(String value, StringBuilder out){
+			if(value == null){
+				out.append('?');
+				return;
+			}
+
+			out.append('\'');
+			for(int i=0; i<value.length(); i++){
+				char c = value.charAt(i);
+				String escape = escape(c);
+				if(escape != null)
+					out.append(escape);
+				else
+					out.append(c);
+			}
+			out.append('\'');
+		}
+
+		/**
+		 * escape
+		 *
+		 * Gets the escape sequence for a character in a quoted value.
+		 *
+		 * @return the escape sequence, or null if the character is written as it is
+		 */
+		private static String escape(char c){
+			switch(c){
+			case '\\': return "\\\\";
+			case '\'': return "\\'";
+			case '"': return "\\\"";
+			case '%': return "\\%";
+			case '\t': return "\\t";
+			case '\n': return "\\n";
+			case '\r': return "\\r";
+			default: return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,720 @@
+package database;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ColumnStore
+ * @author Daniel J Bray
+ *
+ * Rows of a query held in memory a column at a time instead of as a String per cell. Whole
+ * numbers are kept in a long[], floating point numbers in a double[] and everything else as text.
+ * Text is dictionary encoded, each cell being an int code into a list of the distinct values, so
+ * values that repeat (categories, dates, flags) are only held once; a column whose values mostly
+ * do not repeat drops its dictionary and keeps the Strings themselves. Missing (NULL) cells are
+ * marked in a bitmap per column. A numeric cell costs 8 bytes rather than the 40 or more of a
+ * String, and appending takes no locks.
+ *
+ * A store is meant to be filled by one thread and then read; it is not synchronized. Rows are
+ * numbered from 0 in the order they were added and never move.
+ */
+public class ColumnStore {
+
+	/**
+	 * Kind
+	 *
+	 * How the values of a column are held.
+	 */
+	public enum Kind { LONG, FLOAT, DOUBLE, TEXT }
+
+	private static final int INITIAL_CAPACITY = 64;
+	//Text columns keep their dictionary until it has this many values and more than half as many as rows
+	private static final int DICTIONARY_LIMIT = 1 << 16;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private String[] names;
+	private String[] dataTypes;
+	private Kind[] kinds;
+	private long[][] longs;
+	private double[][] doubles;
+	private int[][] codes;
+	private String[][] strings;
+	private List<List<String>> dictionaries;
+	private List<Map<String, Integer>> lookups;
+	private long[][] nulls;
+	private int rows;
+	private int capacity;
+
+	/**
+	 * ColumnStore
+	 *
+	 * Constructs a new, empty ColumnStore for the columns of a result set.
+	 *
+	 * @param meta - the meta data of the result set
+	 * @throws SQLException if the database encounters an error
+	 */
+	public ColumnStore(ResultSetMetaData meta) throws SQLException{
+		int count = meta.getColumnCount();
+		int[] columns = new int[count];
+		String[] labels = new String[count];
+		for(int i=0; i<count; i++){
+			columns[i] = i+1;
+			labels[i] = meta.getColumnLabel(i+1);
+		}
+		init(labels, DBAccessor.getDataTypes(meta, columns));
+		for(int i=0; i<count; i++){
+			//Unsigned BIGINTs do not fit in a long
+			if(meta.getColumnType(i+1) == Types.BIGINT && !meta.isSigned(i+1))
+				kinds[i] = Kind.TEXT;
+		}
+		allocate();
+	}
+
+	/**
+	 * ColumnStore
+	 *
+	 * Constructs a new, empty ColumnStore for columns of the sql data types.
+	 *
+	 * @param names - the name of each column
+	 * @param dataTypes - the sql data type of each column (as from DBAccessor.getDataTypes), null if not known
+	 */
+	public ColumnStore(String[] names, String[] dataTypes){
+		init(names, dataTypes);
+		allocate();
+	}
+
+	/**
+	 * init
+	 *
+	 * Chooses how each column is held from its sql data type.
+	 */
+	private void init(String[] names, String[] dataTypes){
+		this.names = names;
+		this.dataTypes = dataTypes;
+		kinds = new Kind[names.length];
+		for(int i=0; i<kinds.length; i++){
+			String type = (dataTypes[i] == null) ? "" : dataTypes[i].toLowerCase();
+			if(type.equals("tinyint") || type.equals("smallint") || type.equals("mediumint")
+					|| type.equals("int") || type.equals("integer") || type.equals("bigint"))
+				kinds[i] = Kind.LONG;
+			else if(type.equals("float"))
+				kinds[i] = Kind.FLOAT;
+			else if(type.equals("double") || type.equals("real"))
+				kinds[i] = Kind.DOUBLE;
+			//Decimals keep every digit as text; dates are text that repeats well
+			else
+				kinds[i] = Kind.TEXT;
+		}
+		rows = 0;
+		capacity = INITIAL_CAPACITY;
+	}
+
+	/**
+	 * allocate
+	 *
+	 * Makes the arrays of each column.
+	 */
+	private void allocate(){
+		longs = new long[kinds.length][];
+		doubles = new double[kinds.length][];
+		codes = new int[kinds.length][];
+		strings = new String[kinds.length][];
+		dictionaries = new ArrayList<List<String>>();
+		lookups = new ArrayList<Map<String, Integer>>();
+		nulls = new long[kinds.length][];
+		for(int i=0; i<kinds.length; i++){
+			dictionaries.add(null);
+			lookups.add(null);
+			allocate(i);
+		}
+	}
+
+	/**
+	 * allocate
+	 *
+	 * Makes the arrays of a column for its kind.
+	 */
+	private void allocate(int column){
+		longs[column] = null;
+		doubles[column] = null;
+		codes[column] = null;
+		strings[column] = null;
+		dictionaries.set(column, null);
+		lookups.set(column, null);
+		if(nulls[column] == null)
+			nulls[column] = new long[(capacity + 63) / 64];
+		switch(kinds[column]){
+		case LONG:
+			longs[column] = new long[capacity];
+			break;
+		case FLOAT:
+		case DOUBLE:
+			doubles[column] = new double[capacity];
+			break;
+		default:
+			codes[column] = new int[capacity];
+			dictionaries.set(column, new ArrayList<String>());
+			lookups.set(column, new HashMap<String, Integer>());
+			break;
+		}
+	}
+
+	/**
+	 * read
+	 *
+	 * Reads every row of a result set into a new store.
+	 *
+	 * @param rs - the result set
+	 * @return the store of its rows
+	 * @throws SQLException if the database encounters an error
+	 */
+	public static ColumnStore read(ResultSet rs) throws SQLException{
+		ColumnStore store = new ColumnStore(rs.getMetaData());
+		while(rs.next()){
+			store.addRow(rs);
+		}
+		return store;
+	}
+
+	/**
+	 * addRow
+	 *
+	 * Adds the current row of a result set with the same columns as the store. A whole
+	 * number too large for a long turns its column into a text column.
+	 *
+	 * @param rs - the result set positioned on the row
+	 * @throws SQLException if the database encounters an error
+	 */
+	public void addRow(ResultSet rs) throws SQLException{
+		grow();
+		for(int i=0; i<kinds.length; i++){
+			switch(kinds[i]){
+			case LONG:
+				try{
+					longs[i][rows] = rs.getLong(i+1);
+				}
+				catch(SQLException e){
+					//A value that does not fit in a long (an unsigned BIGINT the meta data
+					//did not give away) turns the column into a text column
+					String value = rs.getString(i+1);
+					toText(i);
+					setText(i, rows, value);
+				}
+				break;
+			case FLOAT:
+				doubles[i][rows] = rs.getFloat(i+1);
+				break;
+			case DOUBLE:
+				doubles[i][rows] = rs.getDouble(i+1);
+				break;
+			default:
+				setText(i, rows, rs.getString(i+1));
+				break;
+			}
+			if(rs.wasNull())
+				nulls[i][rows >> 6] |= 1L << rows;
+		}
+		rows++;
+	}
+
+	/**
+	 * addRow
+	 *
+	 * Adds a row whose values were already read as text. A value that does not parse as
+	 * the kind of its column turns the column into a text column.
+	 *
+	 * @param values - the value of each column, null if missing
+	 */
+	public void addRow(String[] values){
+		grow();
+		for(int i=0; i<kinds.length; i++){
+			String value = values[i];
+			if(value == null){
+				nulls[i][rows >> 6] |= 1L << rows;
+				if(kinds[i] == Kind.TEXT)
+					setText(i, rows, null);
+				continue;
+			}
+			try{
+				switch(kinds[i]){
+				case LONG:
+					longs[i][rows] = Long.parseLong(value);
+					break;
+				case FLOAT:
+				case DOUBLE:
+					doubles[i][rows] = Double.parseDouble(value);
+					break;
+				default:
+					setText(i, rows, value);
+					break;
+				}
+			}
+			catch(NumberFormatException e){
+				toText(i);
+				setText(i, rows, value);
+			}
+		}
+		rows++;
+	}
+
+	/**
+	 * setText
+	 *
+	 * Sets the value of a text cell, through the dictionary if the column still has one.
+	 */
+	private void setText(int column, int row, String value){
+		if(codes[column] == null){
+			strings[column][row] = value;
+			return;
+		}
+		if(value == null){
+			codes[column][row] = -1;
+			return;
+		}
+		Map<String, Integer> lookup = lookups.get(column);
+		Integer code = lookup.get(value);
+		if(code == null){
+			List<String> dictionary = dictionaries.get(column);
+			if(dictionary.size() >= DICTIONARY_LIMIT && dictionary.size() * 2 > row){
+				//The values hardly repeat, so the dictionary only costs memory
+				dropDictionary(column);
+				strings[column][row] = value;
+				return;
+			}
+			code = dictionary.size();
+			dictionary.add(value);
+			lookup.put(value, code);
+		}
+		codes[column][row] = code;
+	}
+
+	/**
+	 * dropDictionary
+	 *
+	 * Changes a dictionary encoded text column to hold its Strings directly.
+	 */
+	private void dropDictionary(int column){
+		List<String> dictionary = dictionaries.get(column);
+		String[] values = new String[capacity];
+		for(int r=0; r<rows; r++){
+			int code = codes[column][r];
+			values[r] = (code == -1) ? null : dictionary.get(code);
+		}
+		codes[column] = null;
+		dictionaries.set(column, null);
+		lookups.set(column, null);
+		strings[column] = values;
+	}
+
+	/**
+	 * toText
+	 *
+	 * Changes a numeric column to a text column, keeping the values added so far.
+	 */
+	private void toText(int column){
+		String[] values = new String[rows];
+		for(int r=0; r<rows; r++){
+			values[r] = getString(r, column);
+		}
+		kinds[column] = Kind.TEXT;
+		allocate(column);
+		for(int r=0; r<rows; r++){
+			setText(column, r, values[r]);
+		}
+	}
+
+	/**
+	 * grow
+	 *
+	 * Makes room for one more row.
+	 */
+	private void grow(){
+		if(rows < capacity)
+			return;
+		capacity *= 2;
+		for(int i=0; i<kinds.length; i++){
+			if(longs[i] != null)
+				longs[i] = Arrays.copyOf(longs[i], capacity);
+			if(doubles[i] != null)
+				doubles[i] = Arrays.copyOf(doubles[i], capacity);
+			if(codes[i] != null)
+				codes[i] = Arrays.copyOf(codes[i], capacity);
+			if(strings[i] != null)
+				strings[i] = Arrays.copyOf(strings[i], capacity);
+			nulls[i] = Arrays.copyOf(nulls[i], (capacity + 63) / 64);
+		}
+	}
+
+	/**
+	 * write
+	 *
+	 * Writes the store a column at a time: the name, sql data type and kind of each column,
+	 * then the null bitmap and values of each column in turn. Numbers are written as they
+	 * are held and text columns keep their dictionary, so reading the store back (see
+	 * read(DataInputStream)) parses no text.
+	 *
+	 * @param out - the output to write to
+	 * @throws IOException if the store can not be written
+	 */
+	void write(DataOutputStream out) throws IOException{
+		out.writeInt(rows);
+		out.writeInt(kinds.length);
+		for(int i=0; i<kinds.length; i++){
+			writeString(out, names[i]);
+			writeString(out, dataTypes[i]);
+			out.writeByte(kinds[i].ordinal());
+			out.writeBoolean(codes[i] != null);
+		}
+		int words = (rows + 63) / 64;
+		for(int i=0; i<kinds.length; i++){
+			for(int w=0; w<words; w++){
+				out.writeLong(nulls[i][w]);
+			}
+			switch(kinds[i]){
+			case LONG:
+				for(int r=0; r<rows; r++){
+					out.writeLong(longs[i][r]);
+				}
+				break;
+			case FLOAT:
+			case DOUBLE:
+				for(int r=0; r<rows; r++){
+					out.writeDouble(doubles[i][r]);
+				}
+				break;
+			default:
+				if(codes[i] != null){
+					List<String> dictionary = dictionaries.get(i);
+					out.writeInt(dictionary.size());
+					for(String value : dictionary){
+						writeString(out, value);
+					}
+					for(int r=0; r<rows; r++){
+						out.writeInt(codes[i][r]);
+					}
+				}
+				else{
+					for(int r=0; r<rows; r++){
+						writeString(out, strings[i][r]);
+					}
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * getWrittenSize
+	 *
+	 * Works out how many bytes write(DataOutputStream) would write, without writing them.
+	 *
+	 * @return the size of the written store in bytes
+	 */
+	long getWrittenSize(){
+		long size = 8;
+		for(int i=0; i<kinds.length; i++){
+			size += getWrittenSize(names[i]) + getWrittenSize(dataTypes[i]) + 2;
+		}
+		long words = (rows + 63) / 64;
+		for(int i=0; i<kinds.length; i++){
+			size += words * 8;
+			if(kinds[i] != Kind.TEXT){
+				size += rows * 8L;
+			}
+			else if(codes[i] != null){
+				size += 4 + rows * 4L;
+				for(String value : dictionaries.get(i)){
+					size += getWrittenSize(value);
+				}
+			}
+			else{
+				for(int r=0; r<rows; r++){
+					size += getWrittenSize(strings[i][r]);
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * read
+	 *
+	 * Reads a store written by write(DataOutputStream).
+	 *
+	 * @param in - the input positioned at the start of the store
+	 * @return the store
+	 * @throws IOException if the store can not be read
+	 */
+	static ColumnStore read(DataInputStream in) throws IOException{
+		int rows = in.readInt();
+		int count = in.readInt();
+		String[] names = new String[count];
+		String[] dataTypes = new String[count];
+		Kind[] kinds = new Kind[count];
+		boolean[] dictionary = new boolean[count];
+		for(int i=0; i<count; i++){
+			names[i] = readString(in);
+			dataTypes[i] = readString(in);
+			kinds[i] = Kind.values()[in.readByte()];
+			dictionary[i] = in.readBoolean();
+		}
+
+		ColumnStore store = new ColumnStore(names, dataTypes);
+		store.kinds = kinds;
+		store.capacity = Math.max(INITIAL_CAPACITY, rows);
+		store.allocate();
+		int words = (rows + 63) / 64;
+		for(int i=0; i<count; i++){
+			for(int w=0; w<words; w++){
+				store.nulls[i][w] = in.readLong();
+			}
+			switch(kinds[i]){
+			case LONG:
+				for(int r=0; r<rows; r++){
+					store.longs[i][r] = in.readLong();
+				}
+				break;
+			case FLOAT:
+			case DOUBLE:
+				for(int r=0; r<rows; r++){
+					store.doubles[i][r] = in.readDouble();
+				}
+				break;
+			default:
+				if(dictionary[i]){
+					int size = in.readInt();
+					List<String> values = store.dictionaries.get(i);
+					Map<String, Integer> lookup = store.lookups.get(i);
+					for(int d=0; d<size; d++){
+						String value = readString(in);
+						values.add(value);
+						lookup.put(value, d);
+					}
+					for(int r=0; r<rows; r++){
+						store.codes[i][r] = in.readInt();
+					}
+				}
+				else{
+					store.codes[i] = null;
+					store.dictionaries.set(i, null);
+					store.lookups.set(i, null);
+					store.strings[i] = new String[store.capacity];
+					for(int r=0; r<rows; r++){
+						store.strings[i][r] = readString(in);
+					}
+				}
+				break;
+			}
+		}
+		store.rows = rows;
+		return store;
+	}
+
+	/**
+	 * writeString
+	 *
+	 * Writes a String of any length as UTF-8, or a length of -1 for null.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException{
+		if(value == null){
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * getWrittenSize
+	 *
+	 * Works out how many bytes writeString writes for a String.
+	 */
+	private static long getWrittenSize(String value){
+		if(value == null)
+			return 4;
+		long size = 4;
+		for(int i=0; i<value.length(); i++){
+			char c = value.charAt(i);
+			if(c < 0x80){
+				size += 1;
+			}
+			else if(c < 0x800){
+				size += 2;
+			}
+			else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))){
+				size += 4;
+				i++;
+			}
+			else{
+				//Lone surrogates are written as '?'
+				size += Character.isSurrogate(c) ? 1 : 3;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * readString
+	 *
+	 * Reads a String written by writeString.
+	 */
+	private static String readString(DataInputStream in) throws IOException{
+		int length = in.readInt();
+		if(length == -1)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * getRowCount
+	 *
+	 * @return the number of rows
+	 */
+	public int getRowCount(){
+		return rows;
+	}
+
+	/**
+	 * getColumnCount
+	 *
+	 * @return the number of columns
+	 */
+	public int getColumnCount(){
+		return kinds.length;
+	}
+
+	/**
+	 * getColumnNames
+	 *
+	 * @return the name of each column
+	 */
+	public String[] getColumnNames(){
+		return names;
+	}
+
+	/**
+	 * getDataTypes
+	 *
+	 * @return the sql data type of each column
+	 */
+	public String[] getDataTypes(){
+		return dataTypes;
+	}
+
+	/**
+	 * getKind
+	 *
+	 * @param column - the (0 based) column
+	 * @return how the values of the column are held
+	 */
+	public Kind getKind(int column){
+		return kinds[column];
+	}
+
+	/**
+	 * isNull
+	 *
+	 * @param row - the row
+	 * @param column - the (0 based) column
+	 * @return true if the cell is missing
+	 */
+	public boolean isNull(int row, int column){
+		return (nulls[column][row >> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * getLong
+	 *
+	 * @param row - the row
+	 * @param column - the (0 based) column, which must be a LONG column
+	 * @return the value of the cell, 0 if it is missing
+	 */
+	public long getLong(int row, int column){
+		return longs[column][row];
+	}
+
+	/**
+	 * getDouble
+	 *
+	 * @param row - the row
+	 * @param column - the (0 based) column, which must be a FLOAT or DOUBLE column
+	 * @return the value of the cell, 0 if it is missing
+	 */
+	public double getDouble(int row, int column){
+		return doubles[column][row];
+	}
+
+	/**
+	 * getString
+	 *
+	 * Gets a cell as text, whatever its kind.
+	 *
+	 * @param row - the row
+	 * @param column - the (0 based) column
+	 * @return the value of the cell, or null if it is missing
+	 */
+	public String getString(int row, int column){
+		if(isNull(row, column))
+			return null;
+		switch(kinds[column]){
+		case LONG:
+			return Long.toString(longs[column][row]);
+		case FLOAT:
+			return formatFloat(Float.toString((float)doubles[column][row]));
+		case DOUBLE:
+			return formatFloat(Double.toString(doubles[column][row]));
+		default:
+			if(codes[column] == null)
+				return strings[column][row];
+			return dictionaries.get(column).get(codes[column][row]);
+		}
+	}
+
+	/**
+	 * formatFloat
+	 *
+	 * Writes a floating point number the way the server usually does, without an exponent
+	 * and without a fraction if it is whole (10000000 rather than 1.0E7). Every export writes
+	 * FLOAT and DOUBLE values through this (see ValueEncoder), so a value has the same text
+	 * whichever way it was read.
+	 *
+	 * @param text - the text of the number, from Float.toString, Double.toString or the server
+	 * @return the number as text
+	 */
+	public static String formatFloat(String text){
+		if(text.indexOf('E') != -1 || text.indexOf('e') != -1)
+			return new BigDecimal(text).stripTrailingZeros().toPlainString();
+		if(text.endsWith(".0"))
+			return text.substring(0, text.length() - 2);
+		return text;
+	}
+
+	/**
+	 * getRow
+	 *
+	 * @param row - the row
+	 * @return every cell of the row as text
+	 */
+	public String[] getRow(int row){
+		String[] values = new String[kinds.length];
+		for(int i=0; i<values.length; i++){
+			values[i] = getString(row, i);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,397 @@
+package database;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * ConnectionPool
+ * @author Daniel J Bray
+ *
+ * A small, thread safe pool of connections to the mySQL database. At most maxSize connections
+ * are open at once; callers wait for a free one when they are all in use. Idle connections are
+ * validated before they are handed out and closed once they have been idle for longer than the
+ * idle timeout. Connections are given out wrapped so that closing them returns them to the pool.
+ * Every connection is set up the same way when it is opened (see initialize), so no borrower
+ * needs to change, or restore, the settings of its session. A borrower that does change them
+ * marks the connection (see markChanged) and it is closed instead of going back to the pool.
+ */
+public class ConnectionPool implements DataSource {
+
+	private static final int DEFAULT_WAIT = 30;
+
+	private String url;
+	private String username;
+	private String password;
+	private int maxSize;
+	private int validationTimeout;
+	private long idleTimeout;
+
+	private LinkedList<IdleConnection> idle;
+	private int open;
+	private boolean closed;
+	private Timer evictor;
+	private PrintWriter logWriter;
+	private int loginTimeout;
+
+	/**
+	 * IdleConnection
+	 * @author Daniel J Bray
+	 *
+	 * A connection waiting in the pool along with the time it was returned.
+	 */
+	private static class IdleConnection{
+		private Connection conn;
+		private long since;
+
+		private IdleConnection(Connection conn){
+			this.conn = conn;
+			since = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Constructs a new, empty ConnectionPool. Connections are opened as they are needed.
+	 *
+	 * @param url - the JDBC url of the database
+	 * @param username - the user to connect as
+	 * @param password - the password of the user
+	 * @param maxSize - the most connections to have open at once
+	 * @param validationTimeout - the seconds to wait when checking an idle connection is still alive
+	 * @param idleTimeout - the milliseconds a connection may be idle before it is closed
+	 */
+	public ConnectionPool(String url, String username, String password, int maxSize, int validationTimeout, long idleTimeout){
+		if(maxSize < 1)
+			throw new IllegalArgumentException("The pool size must be at least 1.");
+
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.maxSize = maxSize;
+		this.validationTimeout = validationTimeout;
+		this.idleTimeout = idleTimeout;
+		idle = new LinkedList<IdleConnection>();
+		open = 0;
+		closed = false;
+		loginTimeout = DEFAULT_WAIT;
+
+		evictor = new Timer("ConnectionPool evictor", true);
+		evictor.schedule(new TimerTask(){
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, idleTimeout, Math.max(1000, idleTimeout / 2));
+	}
+
+	/**
+	 * getConnection
+	 *
+	 * Borrows a connection from the pool, opening a new one if none are idle and the pool
+	 * is not full. Close the connection to return it to the pool.
+	 *
+	 * @return a connection to the database
+	 * @throws SQLException if no connection becomes free within the login timeout or
+	 * 		the database encounters an error
+	 */
+	@Override
+	public Connection getConnection() throws SQLException{
+		return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[]{Connection.class}, new PooledConnection(borrow()));
+	}
+
+	/**
+	 * PooledConnection
+	 * @author Daniel J Bray
+	 *
+	 * Handles the calls on a borrowed connection. Closing it returns the connection to the
+	 * pool, after which it can no longer be used.
+	 */
+	private class PooledConnection implements InvocationHandler{
+		private Connection conn;
+		private boolean released;
+		private boolean changed;
+
+		private PooledConnection(Connection conn){
+			this.conn = conn;
+			released = false;
+			changed = false;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if(name.equals("close")){
+				if(!released){
+					released = true;
+					if(changed)
+						discard(conn);
+					else
+						release(conn);
+				}
+				return null;
+			}
+			if(name.equals("isClosed") && released)
+				return true;
+			if(released && method.getDeclaringClass() != Object.class)
+				throw new SQLException("The connection has been returned to the pool.");
+
+			try{
+				return method.invoke(conn, args);
+			}
+			catch(InvocationTargetException e){
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * markChanged
+	 *
+	 * Marks a borrowed connection as having had its session changed, for instance by a
+	 * statement from the SQL console that switched the database (USE), changed a setting
+	 * (SET), locked tables or made temporary tables or user variables. The pool cannot
+	 * undo such changes, so the connection is closed when it is returned rather than
+	 * handed to the next borrower. Connections that did not come from a pool are left alone.
+	 *
+	 * @param conn - a connection from getConnection
+	 */
+	static void markChanged(Connection conn){
+		if(Proxy.isProxyClass(conn.getClass())){
+			InvocationHandler handler = Proxy.getInvocationHandler(conn);
+			if(handler instanceof PooledConnection)
+				((PooledConnection)handler).changed = true;
+		}
+	}
+
+	/**
+	 * borrow
+	 *
+	 * Takes an idle connection that is still valid, or opens a new one.
+	 */
+	private Connection borrow() throws SQLException{
+		long deadline = System.currentTimeMillis() + loginTimeout * 1000L;
+		while(true){
+			Connection conn = null;
+			synchronized(this){
+				while(conn == null){
+					if(closed)
+						throw new SQLException("The connection pool is closed.");
+					if(!idle.isEmpty()){
+						conn = idle.removeFirst().conn;
+					}
+					else if(open < maxSize){
+						open++;
+						break;
+					}
+					else{
+						long wait = deadline - System.currentTimeMillis();
+						if(wait <= 0)
+							throw new SQLException("Timed out waiting for a free database connection.");
+						try{
+							wait(wait);
+						}
+						catch(InterruptedException e){
+							Thread.currentThread().interrupt();
+							throw new SQLException("Interrupted while waiting for a free database connection.");
+						}
+					}
+				}
+			}
+
+			//Network round trips are done outside of the lock
+			if(conn == null){
+				try{
+					conn = DriverManager.getConnection(url, username, password);
+				}
+				catch(SQLException e){
+					discard(null);
+					throw e;
+				}
+				initialize(conn);
+				return conn;
+			}
+			if(conn.isValid(validationTimeout))
+				return conn;
+			discard(conn);
+		}
+	}
+
+	/**
+	 * initialize
+	 *
+	 * Sets up the session of a newly opened connection. MySQL 8 caches the table times in
+	 * information_schema.tables for up to a day unless told not to; they are used to tell
+	 * whether a table changed (see DBSession.getChangeToken). Older servers do not have the
+	 * setting and do not cache the times.
+	 */
+	private static void initialize(Connection conn){
+		try{
+			Statement s = conn.createStatement();
+			try{
+				s.execute("SET SESSION information_schema_stats_expiry = 0;");
+			}
+			finally{
+				s.close();
+			}
+		}
+		catch(SQLException e){
+			//Nothing is cached, so nothing needs turning off
+		}
+	}
+
+	/**
+	 * release
+	 *
+	 * Returns a borrowed connection to the pool.
+	 */
+	private void release(Connection conn){
+		try{
+			if(conn.isClosed()){
+				discard(null);
+				return;
+			}
+			if(!conn.getAutoCommit())
+				conn.setAutoCommit(true);
+		}
+		catch(SQLException e){
+			discard(conn);
+			return;
+		}
+
+		synchronized(this){
+			if(!closed){
+				idle.addFirst(new IdleConnection(conn));
+				notifyAll();
+				return;
+			}
+		}
+		discard(conn);
+	}
+
+	/**
+	 * discard
+	 *
+	 * Closes a connection that is not going back to the pool and frees its place.
+	 */
+	private void discard(Connection conn){
+		synchronized(this){
+			open--;
+			notifyAll();
+		}
+		if(conn != null){
+			try{
+				conn.close();
+			}
+			catch(SQLException e){
+				System.err.println("Error closing db.\n"+e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * evictIdle
+	 *
+	 * Closes every connection that has been idle for longer than the idle timeout.
+	 */
+	private void evictIdle(){
+		List<Connection> evicted = new ArrayList<Connection>();
+		long now = System.currentTimeMillis();
+		synchronized(this){
+			Iterator<IdleConnection> iter = idle.iterator();
+			while(iter.hasNext()){
+				IdleConnection c = iter.next();
+				if(now - c.since > idleTimeout){
+					iter.remove();
+					evicted.add(c.conn);
+				}
+			}
+		}
+		for(Connection conn : evicted){
+			discard(conn);
+		}
+	}
+
+	/**
+	 * close
+	 *
+	 * Closes every idle connection and stops handing out new ones. Connections that are
+	 * still borrowed are closed when they are returned.
+	 */
+	public void close(){
+		List<IdleConnection> toClose;
+		synchronized(this){
+			closed = true;
+			toClose = new ArrayList<IdleConnection>(idle);
+			idle.clear();
+			notifyAll();
+		}
+		evictor.cancel();
+		for(IdleConnection c : toClose){
+			discard(c.conn);
+		}
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException{
+		throw new SQLFeatureNotSupportedException("The pool only connects as the configured user.");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException{
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException{
+		logWriter = out;
+	}
+
+	/**
+	 * setLoginTimeout
+	 *
+	 * Sets the seconds getConnection waits for a free connection.
+	 */
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException{
+		loginTimeout = seconds > 0 ? seconds : DEFAULT_WAIT;
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException{
+		return loginTimeout;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException{
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException{
+		if(iface.isInstance(this))
+			return iface.cast(this);
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException{
+		return iface.isInstance(this);
+	}
+}
@@ -1,15 +1,19 @@
 package database;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.Vector;
+
+import javax.sql.DataSource;
 
 /**
  * DBAccessor
@@ -18,41 +22,99 @@ import java.util.Vector;
  * This class acts as a bridge between the GUI and the mySQL database by sending and receiving from
  * the database and passing it along to the GUI. All SQL syntax is stored here and hard coded into
  * methods to act as a black box for the user.
+ *
+ * The DBAccessor holds no per-operation state and is safe to share between threads. Work on
+ * particular tables is done through a DBSession (see openSession), one per operation, each
+ * with its own pooled connection.
  */
 public class DBAccessor {
 	private DBConnector connector;
-	private Connection conn;
-	private String table;
+	private DataSource dataSource;
+	private SchemaCatalog catalog;
+	private SnapshotCache snapshots;
 
 	/**
-	 * Constructs a new DBAccessor, initializes fields, and creates a new connection to the mySQL database.
+	 * Constructs a new DBAccessor and initializes fields using the connection of the connector.
+	 * The schema catalog saved by the last run is loaded and brought up to date.
+	 * 
+	 * @param connector - a connector that has already connected to the mySQL database
+	 * @throws SQLException if the connector is not connected
+	 */
+	public DBAccessor(DBConnector connector) throws SQLException{
+		this.connector = connector;
+		dataSource = connector.connect();
+
+		catalog = new SchemaCatalog(connector.getCatalogName());
+		catalog.load();
+		refreshCatalog();
+		snapshots = new SnapshotCache(connector.getCatalogName(), SnapshotCache.DEFAULT_LIMIT);
+	}
+
+	/**
+	 * refreshCatalog
+	 * 
+	 * Brings the cached schema catalog up to date with the database. Only tables that
+	 * were created, changed or dropped since the last refresh are read again. Call this
+	 * after changing the schema through the SQL console.
 	 */
-	public DBAccessor(){
-		table = "";
-		connector = new DBConnector();
-		conn = connector.connect();
+	public void refreshCatalog(){
+		try{
+			Connection conn = dataSource.getConnection();
+			try{
+				catalog.refresh(conn);
+			}
+			finally{
+				conn.close();
+			}
+		}
+		catch(SQLException e){
+			System.err.println(e.getMessage());
+		}
 	}
 
 	/**
-	 * getDataFromRS
+	 * isQuery
 	 * 
-	 * Get the actual data from a result set and returns it in a Vector<String[]>.
+	 * Checks whether a statement returns rows (SELECT, SHOW, DESCRIBE, EXPLAIN and the
+	 * like) as opposed to changing the data or the schema. Leading comments and
+	 * brackets are skipped.
 	 * 
-	 * @param resSet - the result set to get the data from
-	 * @return the data for the table in a Vector<String[]> data type
-	 * @throws SQLException if the database encounters an error
+	 * @param statement - the statement (in sql syntax)
+	 * @return true if the statement returns rows
 	 */
-	public static Vector<String[]> getDataFromRS(ResultSet resSet) throws SQLException{
-		int cols = resSet.getMetaData().getColumnCount();
-		Vector<String[]> t = new Vector<String[]>();
-		while(resSet.next()){
-			String[] row = new String[cols];
-			for(int i = 0; i < cols; i++){
-				row[i] = resSet.getString(1+i);
+	public static boolean isQuery(String statement){
+		String s = statement.trim();
+		while(true){
+			if(s.startsWith("(")){
+				s = s.substring(1).trim();
+			}
+			else if(s.startsWith("/*") && s.indexOf("*/") != -1){
+				s = s.substring(s.indexOf("*/") + 2).trim();
+			}
+			else if((s.startsWith("--") || s.startsWith("#")) && s.indexOf('\n') != -1){
+				s = s.substring(s.indexOf('\n') + 1).trim();
+			}
+			else{
+				break;
 			}
-			t.add(row);
 		}
-		return t;
+		int end = 0;
+		while(end < s.length() && Character.isLetter(s.charAt(end))){
+			end++;
+		}
+		String keyword = s.substring(0, end).toUpperCase();
+		return keyword.equals("SELECT") || keyword.equals("SHOW") || keyword.equals("DESCRIBE")
+				|| keyword.equals("DESC") || keyword.equals("EXPLAIN") || keyword.equals("WITH")
+				|| keyword.equals("TABLE") || keyword.equals("VALUES") || keyword.equals("CHECKSUM");
+	}
+
+	/**
+	 * getSnapshots
+	 * 
+	 * @return the snapshots of the tables that were read whole
+	 */
+	public SnapshotCache getSnapshots(){
+		return snapshots;
 	}
 
 	/**
@@ -69,25 +131,36 @@ public class DBAccessor {
 		int cols = resSet.getMetaData().getColumnCount();
 		String[] colNames = new String[cols];
 		for(int i=0; i<cols; i++){
-			colNames[i] = resSet.getMetaData().getColumnName(1+i);
+			//The label is the alias if there is one, as in SUM(amount) AS total
+			colNames[i] = resSet.getMetaData().getColumnLabel(1+i);
 		}
 		return colNames;
 	}
 
 	/**
-	 * executeQuery
+	 * markMultiples
 	 * 
-	 * Allows the user to input a Query directly into the mysql database 
-	 * as though a terminal/console were being used. Note that this only works
-	 * for queries. Not for data modifying methods like insertions or deletions.
+	 * Marks columns that have the same name. In the event that columns contain the same name
+	 * then multiples are marked <columnName>(<number>) where columnName is the name
+	 * of the column and number denotes the copy. 1 copy is denoted as 1, the second copy is
+	 * denoted 2, etc. The names are changed in place.
 	 * 
-	 * @param query - The SQL query (in sql syntax)
-	 * @return the result set found from the query
-	 * @throws SQLException if the database encounters an error
+	 * Example: name, date, name(1), user, name(2)
+	 * 
+	 * @param colNames - the column names
+	 * @return the same array, with multiples marked
 	 */
-	public ResultSet executeQuery(String query) throws SQLException{
-		Statement s = conn.createStatement();
-		return s.executeQuery(query);
+	public static String[] markMultiples(String[] colNames){
+		for(int i=0; i<colNames.length;i++){
+			int count = 1;
+			for(int j=i+1; j<colNames.length; j++){
+				if(colNames[i].equals(colNames[j])){
+					colNames[j] += "(" + count +")";
+					count++;
+				}
+			}
+		}
+		return colNames;
 	}
 
 	/**
@@ -101,71 +174,57 @@ public class DBAccessor {
 	 * 		   false otherwise
 	 */
 	public boolean hasTable(String name){
-		try{
-			Statement s = conn.createStatement();
-			ResultSet res = s.executeQuery("SHOW TABLES;");
-			while(res.next()){
-				if(name.equalsIgnoreCase(res.getString(1))){
-					return true;
-				}
-			}
-			return false;
-		}
-		catch(SQLException e){
-			System.err.println(e.getMessage());
-			return false;
-		}
+		return catalog.hasTable(name);
 	}
 
 	/**
-	 * selectTable
+	 * openSession
 	 * 
-	 * Sets the current table to be used in the database.
-	 * @param name - the table name
-	 * @throws SQLException
+	 * Opens a new session on the table(s). The table attribute is a comma separated
+	 * list of tables. This allows for info to be obtained from multiple tables
+	 * into one single table. However, this will not perform UNION functions.
+	 * The session holds a connection from the pool until it is closed.
+	 * 
+	 * @param table - the table name(s), or an empty string for none
+	 * @return the new session
+	 * @throws SQLException if no connection could be obtained
 	 */
-	public void setTable(String name){
-		if(name == null){
-			table = "";
-		}
-		else{
-			table = name;
-		}
+	public DBSession openSession(String table) throws SQLException{
+		return new DBSession(this, table == null ? "" : table, dataSource.getConnection());
 	}
 
 	/**
-	 * setTable
+	 * openSession
 	 * 
-	 * Sets the current table to a comma separated list of tables. 
-	 * This allows for info to be obtained from multiple tables
-	 * into one single table. However, this will not perform
-	 * UNION functions.
+	 * Opens a new session on the list of tables (see openSession(String)).
 	 * 
 	 * @param name - the names of the tables
+	 * @return the new session
+	 * @throws SQLException if no connection could be obtained
 	 */
-	public void setTable(List<String> name){
-		table = "";
-		if(name ==null)
-			return;
-		else{
-			Iterator<String> iter = name.iterator();
-			while(iter.hasNext()){
-				table += iter.next();		
-				if(iter.hasNext())
-					table += ", ";
-			}
-		}
+	public DBSession openSession(List<String> name) throws SQLException{
+		return openSession(DBAccessor.toTableList(name));
 	}
 
 	/**
-	 * getTable
+	 * toTableList
 	 * 
-	 * Gets the current table(s). If multiple tables it is returned in a 
-	 * comma separated list.
+	 * Joins the names of the tables into a comma separated list of tables.
 	 * 
-	 * @return the current table(s)
+	 * @param name - the names of the tables
+	 * @return the comma separated list of tables
 	 */
-	public String getTable(){
+	public static String toTableList(List<String> name){
+		String table = "";
+		if(name == null)
+			return table;
+
+		Iterator<String> iter = name.iterator();
+		while(iter.hasNext()){
+			table += iter.next();		
+			if(iter.hasNext())
+				table += ", ";
+		}
 		return table;
 	}
 
@@ -191,149 +250,281 @@ public class DBAccessor {
 		if(table == null)
 			throw new SQLException("DBAccessor.getDataType was given a null table value.");
 
+		return getDataTypes(new String[]{column}, new int[]{skips}, table)[0];
+	}
+
+	/**
+	 * getDataTypes
+	 * 
+	 * Gets the data types of many columns at once (see getDataTypes(String[], int[], String, Connection)).
+	 * A connection is only taken from the pool if a table is missing from the schema catalog.
+	 * 
+	 * @param columns - the column names
+	 * @param skips - the number of tables in the table list to skip for each column
+	 * @param table - the comma value separated list of tables to look through for the data types
+	 * @return the data type of each column (null if the column was not found)
+	 * @throws SQLException if the database encounters an error
+	 */
+	public String[] getDataTypes(String[] columns, int[] skips, String table) throws SQLException{
+		return getDataTypes(columns, skips, table, null);
+	}
+
+	/**
+	 * getDataTypes
+	 * 
+	 * Gets the data types of many columns at once. This works the same as getDataType
+	 * except that the tables are taken from the schema catalog, any table missing from it
+	 * is looked up in one single query, and the matching (including skips) is done in memory.
+	 * 
+	 * @param columns - the column names
+	 * @param skips - the number of tables in the table list to skip for each column
+	 * @param table - the comma value separated list of tables to look through for the data types
+	 * @param conn - the connection to use for the lookup, or null to take one from the pool
+	 * @return the data type of each column (null if the column was not found)
+	 * @throws SQLException if the database encounters an error
+	 */
+	String[] getDataTypes(String[] columns, int[] skips, String table, Connection conn) throws SQLException{
+		if(table == null)
+			throw new SQLException("DBAccessor.getDataTypes was given a null table value.");
+
+		List<String> tables = new ArrayList<String>();
 		StringTokenizer tk = new StringTokenizer(table, ",");
 		while(tk.hasMoreTokens()){
-			String t = tk.nextToken().trim();
-			
-			//This will get the dataType of the specified column
-			String query = "SELECT DATA_TYPE FROM information_schema.columns WHERE table_name = '" + t + "' AND COLUMN_NAME = '" + column + "';";
-			Statement s = conn.createStatement();
-			ResultSet rs = s.executeQuery(query);
-			
-			//Makes sure result is not an empty set
-			if(rs.next()){
-				if(rs.getNString(1) != null){
+			tables.add(tk.nextToken().trim());
+		}
+
+		//One map of column name to data type per table, in the order of the table list
+		List<Map<String, String>> tableColumns = new ArrayList<Map<String, String>>();
+		List<String> missing = new ArrayList<String>();
+		for(int i=0; i<tables.size(); i++){
+			Map<String, String> cols = new HashMap<String, String>();
+			String[] names = catalog.getColumns(tables.get(i));
+			String[] dataTypes = catalog.getDataTypes(tables.get(i));
+			if(names == null){
+				missing.add(tables.get(i));
+			}
+			else{
+				for(int j=0; j<names.length; j++){
+					cols.put(names[j].toLowerCase(), dataTypes[j]);
+				}
+			}
+			tableColumns.add(cols);
+		}
+
+		if(missing.size() > 0){
+			String query = "SELECT TABLE_NAME, COLUMN_NAME, DATA_TYPE FROM information_schema.columns "
+					+ "WHERE table_schema = DATABASE() AND table_name IN (";
+			for(int i=0; i<missing.size(); i++){
+				query += (i == 0) ? "?" : ", ?";
+			}
+			query += ");";
+
+			boolean borrowed = conn == null;
+			if(borrowed)
+				conn = dataSource.getConnection();
+			PreparedStatement s = conn.prepareStatement(query);
+			try{
+				for(int i=0; i<missing.size(); i++){
+					s.setString(i+1, missing.get(i));
+				}
+				ResultSet rs = s.executeQuery();
+				while(rs.next()){
+					//The same table may appear more than once in the list
+					for(int i=0; i<tables.size(); i++){
+						if(tables.get(i).equalsIgnoreCase(rs.getString(1))){
+							tableColumns.get(i).put(rs.getString(2).toLowerCase(), rs.getString(3));
+						}
+					}
+				}
+			}
+			finally{
+				s.close();
+				if(borrowed)
+					conn.close();
+			}
+		}
+
+		String[] types = new String[columns.length];
+		for(int i=0; i<columns.length; i++){
+			int skip = skips[i];
+			for(Map<String, String> cols : tableColumns){
+				String type = cols.get(columns[i].toLowerCase());
+				if(type != null){
 					//Skips if 'skips' is greater than 0.
-					if(skips > 0)
-						skips--;
-					else
-						return rs.getNString(1);
+					if(skip > 0){
+						skip--;
+					}
+					else{
+						types[i] = type;
+						break;
+					}
 				}
 			}
 		}
-		return null;
+		return types;
+	}
+
+	/**
+	 * getDataTypes
+	 * 
+	 * Gets the data types of columns straight from the meta data of a result set. No
+	 * query is sent to the database. The types are given the same way as getDataType
+	 * (the lower case mySQL type name without any UNSIGNED suffix).
+	 * 
+	 * @param meta - the meta data of the result set
+	 * @param columns - the (1 based) result set columns to get the data types of
+	 * @return the data type of each column
+	 * @throws SQLException if the database encounters an error
+	 */
+	public static String[] getDataTypes(ResultSetMetaData meta, int[] columns) throws SQLException{
+		String[] types = new String[columns.length];
+		for(int i=0; i<columns.length; i++){
+			String type = meta.getColumnTypeName(columns[i]).toLowerCase();
+			int index = type.indexOf(" unsigned");
+			if(index != -1)
+				type = type.substring(0, index);
+			types[i] = type;
+		}
+		return types;
 	}
 
 	/**
 	 * getColNames
 	 * 
-	 * Gets the column names in the current table and returns it in a String array.
+	 * Gets the column names in the table(s) and returns it in a String array.
+	 * The names are taken from the schema catalog when every table is in it, otherwise
+	 * from the meta data of an empty query. No rows of the table are ever read.
 	 * 
-	 * @return the column names in the current table
+	 * @param table - the comma separated list of tables
+	 * @param conn - the connection to use for the query, if one is needed
+	 * @return the column names in the table(s)
 	 * @throws SQLException
 	 */
-	public String[] getColNames() throws SQLException{
-		if(table == null)
+	String[] getColNames(String table, Connection conn) throws SQLException{
+		if(table == null || table.length() == 0)
 			throw new SQLException("No Table Selected.");
 
-		Statement statement = conn.createStatement();
-		String s = "SELECT * FROM " + table + ";";
-		ResultSet resSet = statement.executeQuery(s);
-		ResultSetMetaData rsmd = resSet.getMetaData();
+		//SELECT * over a list of tables gives the columns of each table in turn
+		List<String> names = new ArrayList<String>();
+		StringTokenizer tk = new StringTokenizer(table, ",");
+		while(tk.hasMoreTokens() && names != null){
+			String[] cols = catalog.getColumns(tk.nextToken().trim());
+			if(cols == null){
+				names = null;
+			}
+			else{
+				for(String col : cols){
+					names.add(col);
+				}
+			}
+		}
+		if(names != null && names.size() > 0)
+			return names.toArray(new String[names.size()]);
 
-		String [] columnNames = new String[rsmd.getColumnCount()];
-		for(int i=0; i<rsmd.getColumnCount(); i++){
-			columnNames[i] = rsmd.getColumnName(i+1);
+		//LIMIT 0 gives the meta data of the columns without scanning any rows
+		Statement statement = conn.createStatement();
+		try{
+			String s = "SELECT * FROM " + table + " LIMIT 0;";
+			ResultSet resSet = statement.executeQuery(s);
+			return DBAccessor.getColNamesFromRS(resSet);
+		}
+		finally{
+			statement.close();
 		}
-		return columnNames;
 	}
 
 	/**
-	 * preprocessData
+	 * checkColumns
 	 * 
-	 * Takes a tuple of data in a table stored in a Vector and turns it into SQL syntax for ease of use.
-	 * For example:
-	 * 	if a column has the data "Dan Bray" stored as a VARCHAR
-	 * 	"Dan Bray" will turn into " 'Dan Bray' " such that it can promptly be inserted into an SQL table
+	 * Checks the columns the schema catalog has for the table(s) against the columns of a
+	 * SELECT * over them. If the numbers differ the schema changed behind the catalog, and
+	 * the columns of the tables are read again.
 	 * 
-	 * @param data the data in it's raw form
-	 * @return data in a processed, ready to insert form.
+	 * @param table - the comma separated list of tables
+	 * @param meta - the meta data of a SELECT * over the table(s)
+	 * @param conn - the connection to use to read the columns again
+	 * @return true if the catalog had to be brought up to date
+	 * @throws SQLException if the database encounters an error
 	 */
-	public Vector<String> preprocessData(Vector<String> data){
-		Vector<String> processed = new Vector<String>();
-		try{
-			if(table == null)
-				throw new SQLException("No table selected.");
-
-			Statement s = conn.createStatement();
-			ResultSet res = s.executeQuery("SHOW COLUMNS FROM " + table);
-			ResultSetMetaData meta = res.getMetaData();
-			int type;
-			for(int i=0; i<meta.getColumnCount(); ++i){
-				type = meta.getColumnType(i+1);
-				if(type == Types.VARCHAR || type == Types.CHAR || type == Types.LONGNVARCHAR
-						|| type == Types.LONGVARCHAR || type == Types.NCHAR || type == Types.NVARCHAR){
-					processed.add("'"+data.get(i)+"'");
-				}
-				//TODO: add more if statements for each data type
-				else{
-					processed.add(data.get(i));
-				}
-			}
-			return processed;
-		}
-		catch(SQLException e){
-			System.err.println("Error: " + e.getMessage());
+	boolean checkColumns(String table, ResultSetMetaData meta, Connection conn) throws SQLException{
+		List<String> tables = new ArrayList<String>();
+		int count = 0;
+		StringTokenizer tk = new StringTokenizer(table, ",");
+		while(tk.hasMoreTokens()){
+			String name = tk.nextToken().trim();
+			String[] cols = catalog.getColumns(name);
+			//Tables missing from the catalog are always read from the server
+			if(cols == null)
+				return false;
+			tables.add(name);
+			count += cols.length;
 		}
-		return null;
+		if(count == meta.getColumnCount())
+			return false;
+		catalog.reload(conn, tables);
+		return true;
 	}
 
 	/**
-	 * getTables
+	 * getColumnDataTypes
 	 * 
-	 * Returns all tables currently stored in the database.
-	 * @return the tables currently stored in the database.
+	 * Gets the data type of every column in the table(s), in the same order as getColNames.
+	 * The types are taken from the schema catalog when every table is in it, otherwise
+	 * from the meta data of an empty query.
+	 * 
+	 * @param table - the comma separated list of tables
+	 * @param conn - the connection to use for the query, if one is needed
+	 * @return the data type of each column
+	 * @throws SQLException if the database encounters an error
 	 */
-	public String[] getTables(){
-		try{
-			Vector<String> results = new Vector<String>();
-			Statement statement = conn.createStatement();
-			ResultSet res = statement.executeQuery("SHOW TABLES;");
-			while(res.next()){
-				results.add(res.getString(1));
+	String[] getColumnDataTypes(String table, Connection conn) throws SQLException{
+		if(table == null || table.length() == 0)
+			throw new SQLException("No Table Selected.");
+
+		List<String> types = new ArrayList<String>();
+		StringTokenizer tk = new StringTokenizer(table, ",");
+		while(tk.hasMoreTokens() && types != null){
+			String[] t = catalog.getDataTypes(tk.nextToken().trim());
+			if(t == null){
+				types = null;
 			}
-			String[] results_arr = new String[results.size()];
-			for(int i=0; i<results_arr.length;i++){
-				results_arr[i] = results.get(i);
+			else{
+				for(String type : t){
+					types.add(type);
+				}
 			}
-			return results_arr;
 		}
-		catch(SQLException e){
-			System.err.println(e.getMessage());
+		if(types != null && types.size() > 0)
+			return types.toArray(new String[types.size()]);
+
+		Statement statement = conn.createStatement();
+		try{
+			ResultSet resSet = statement.executeQuery("SELECT * FROM " + table + " LIMIT 0;");
+			int[] columns = new int[resSet.getMetaData().getColumnCount()];
+			for(int i=0; i<columns.length; i++){
+				columns[i] = i+1;
+			}
+			return DBAccessor.getDataTypes(resSet.getMetaData(), columns);
+		}
+		finally{
+			statement.close();
 		}
-		return null;
 	}
 
 	/**
-	 * getTableData
+	 * getTables
 	 * 
-	 * Returns all the data stored in the table as a String
-	 * @return the table data
-	 * @throws SQLException
+	 * Returns all tables currently stored in the database, as kept in the schema catalog.
+	 * @return the tables currently stored in the database.
 	 */
-	public Vector<String[]> getTableData() throws SQLException{
-		if(table == null)
-			throw new SQLException("No table selected.");
-
-		Statement statement = conn.createStatement();
-		String s = "SELECT * FROM " + table + ";";
-		ResultSet resSet = statement.executeQuery(s);
-		int cols = resSet.getMetaData().getColumnCount();
-		Vector<String[]> t = new Vector<String[]>();
-		while(resSet.next()){
-			String[] row = new String[cols];
-			for(int i = 0; i < cols; i++){
-				row[i] = resSet.getString(1+i);
-			}
-			t.add(row);
-		}
-		return t;
+	public String[] getTables(){
+		return catalog.getTables();
 	}
 
 	/**
 	 * close
-	 * 
-	 * Closes the connection with the database.
+	 *
+	 * Closes the connections with the database.
 	 */
 	public void close(){
 		connector.disconnect();
@@ -1,28 +1,53 @@
 package database;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
-import javax.swing.JOptionPane;
-import javax.swing.JPasswordField;
+import javax.sql.DataSource;
 
 /**
  * DBConnector
  * @author Daniel J Bray
  *
  * The DBConnector class is in charge of establishing and handling the connection to the database.
+ * Connections are handed out from a pool so that several operations can run at once.
+ * It has no GUI dependencies; asking the user for a password is left to the caller.
  */
 public class DBConnector {
-	private Connection conn;
+	private ConnectionPool pool;
+	private int poolSize;
+	private String host;
+	private int port;
+	private String database;
+	private String username;
+	private static final String HOST = "localhost";
 	private static final String DATABASE = "braydj";
 	private static final String USERNAME = "root";
 	private static final int PORT = 3306;
+	private static final int DEFAULT_POOL_SIZE = 4;
+	private static final int VALIDATION_TIMEOUT = 5;
+	private static final long IDLE_TIMEOUT = 5 * 60 * 1000;
 
 	/**
-	 * Initializes the DBConnector
+	 * Initializes the DBConnector with the default connection settings.
 	 */
 	public DBConnector(){
+		this(HOST, PORT, DATABASE, USERNAME);
+	}
+
+	/**
+	 * Initializes the DBConnector
+	 *
+	 * @param host - the host name of the mySQL server
+	 * @param port - the port of the mySQL server
+	 * @param database - the database to use
+	 * @param username - the user to connect as
+	 */
+	public DBConnector(String host, int port, String database, String username){
+		this.host = host;
+		this.port = port;
+		this.database = database;
+		this.username = username;
+		poolSize = DEFAULT_POOL_SIZE;
 		try {
 			Class.forName("com.mysql.jdbc.Driver"); //You need to have Connector J in your build path
 		}
@@ -31,54 +56,82 @@ public class DBConnector {
 		}
 	}
 
+	/**
+	 * setPoolSize
+	 *
+	 * Sets the most connections that can be open at once. Must be called before connect.
+	 * @param poolSize - the size of the connection pool
+	 */
+	public void setPoolSize(int poolSize){
+		this.poolSize = poolSize;
+	}
+
 	/**
 	 * connect
-	 * 
-	 * Creates a new connection with the mySQL database.
-	 * @return the active connection to the database.
+	 *
+	 * Creates the pool of connections with the mySQL database. A first connection is
+	 * opened to check the password. If already connected the active pool is returned.
+	 * @param password - the password of the user
+	 * @return the pool of connections to the database.
+	 * @throws SQLException if the connection can not be established
 	 */
-	public Connection connect(){
-		if(conn != null){
-			return conn;
+	public DataSource connect(String password) throws SQLException{
+		if(pool == null){
+			//establish a new connection using the given info
+			ConnectionPool p = new ConnectionPool("jdbc:mysql://"+host+":"+port+"/"+database,username,password,
+					poolSize, VALIDATION_TIMEOUT, IDLE_TIMEOUT);
+			try{
+				p.getConnection().close();
+			}
+			catch(SQLException e){
+				p.close();
+				throw e;
+			}
+			pool = p;
 		}
-		else{ //if(conn == null || conn.isClosed()){
-			while(true){
-				try{
-					JPasswordField jpf = new JPasswordField();		//a relatively secure way to get a password
-					int action = JOptionPane.showConfirmDialog(null, jpf,
-							"Enter Password:", JOptionPane.OK_CANCEL_OPTION);
+		return pool;
+	}
 
-					if(action != JOptionPane.OK_OPTION)
-						System.exit(0);				//exit the program if no password.
+	/**
+	 * connect
+	 *
+	 * Gets the active pool of connections with the mySQL database.
+	 * @return the pool of connections to the database.
+	 * @throws SQLException if connect(password) has not been called yet
+	 */
+	public DataSource connect() throws SQLException{
+		if(pool == null)
+			throw new SQLException("Not connected to the database.");
+		return pool;
+	}
 
-					jpf.getPassword();
-					char [] pass = jpf.getPassword();
-					String password = new String(pass);
+	/**
+	 * getDatabase
+	 *
+	 * @return the name of the database connected to.
+	 */
+	public String getDatabase(){
+		return database;
+	}
 
-					//establish a new connection using the given info
-					conn = DriverManager.getConnection("jdbc:mysql://localhost:"+PORT+"/"+DATABASE,USERNAME,password);
-					return conn;
-				}
-				catch(SQLException e){
-					JOptionPane.showMessageDialog(null, e.getMessage());
-				}
-			}
-		}
+	/**
+	 * getCatalogName
+	 *
+	 * @return a name that uniquely identifies the server and database connected to.
+	 */
+	public String getCatalogName(){
+		return host + "_" + port + "_" + database;
 	}
 
 	/**
 	 * disconnect
-	 * 
-	 * Closes the connection with the database.
+	 *
+	 * Closes the connections with the database.
 	 */
 	public void disconnect(){
-		try{
-			if(!conn.isClosed()){
-				conn.close();
-			}
-		}
-		catch(SQLException e){
-			System.err.println("Error closing db.\n"+e.getMessage());
+		if(pool != null){
+			pool.close();
+			pool = null;
 		}
 	}
 }
@@ -0,0 +1,840 @@
+package database;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * DBSession
+ * @author Daniel J Bray
+ *
+ * A DBSession is one operation (a table preview, an export, a console query) on a fixed
+ * table or comma separated list of tables. It holds its own connection from the pool so
+ * sessions can be used at the same time from different threads without sharing any state.
+ * A single session should only be used by one thread at a time. Always close the session
+ * when finished to return the connection to the pool.
+ */
+public class DBSession {
+	private DBAccessor database;
+	private String table;
+	private Connection conn;
+	private List<Statement> statements;
+
+	/**
+	 * Constructs a new DBSession. Sessions are opened with DBAccessor.openSession.
+	 * 
+	 * @param database - the database the session belongs to
+	 * @param table - the comma separated list of tables
+	 * @param conn - the connection the session uses
+	 */
+	DBSession(DBAccessor database, String table, Connection conn){
+		this.database = database;
+		this.table = table;
+		this.conn = conn;
+		statements = new ArrayList<Statement>();
+	}
+
+	/**
+	 * getDatabase
+	 * 
+	 * @return the database the session belongs to
+	 */
+	public DBAccessor getDatabase(){
+		return database;
+	}
+
+	/**
+	 * getTable
+	 * 
+	 * Gets the table(s) of the session. If multiple tables it is returned in a 
+	 * comma separated list.
+	 * 
+	 * @return the table(s) of the session
+	 */
+	public String getTable(){
+		return table;
+	}
+
+	/**
+	 * executeQuery
+	 * 
+	 * Allows the user to input a Query directly into the mysql database 
+	 * as though a terminal/console were being used. Note that this only works
+	 * for queries. Not for data modifying methods like insertions or deletions.
+	 * The result set stays open until the session is closed.
+	 * 
+	 * @param query - The SQL query (in sql syntax)
+	 * @return the result set found from the query
+	 * @throws SQLException if the database encounters an error
+	 */
+	public ResultSet executeQuery(String query) throws SQLException{
+		Statement s = conn.createStatement();
+		statements.add(s);
+		return s.executeQuery(query);
+	}
+
+	/**
+	 * executeStatement
+	 * 
+	 * Runs a statement that returns no rows, such as an insertion, a deletion or a
+	 * change to the schema (see DBAccessor.isQuery). Such a statement may also change the
+	 * session itself (USE, SET, LOCK TABLES and the like), so the connection of the session
+	 * is closed rather than returned to the pool when the session is closed.
+	 * 
+	 * @param statement - The SQL statement (in sql syntax)
+	 * @param timeout - the seconds the server may take to run the statement, or 0 for no limit
+	 * @return the number of rows changed, or -1 if the statement does not change rows
+	 * @throws SQLException if the database encounters an error
+	 */
+	public int executeStatement(String statement, int timeout) throws SQLException{
+		ConnectionPool.markChanged(conn);
+		Statement s = conn.createStatement();
+		try{
+			s.setQueryTimeout(timeout);
+			s.execute(statement);
+			return s.getUpdateCount();
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * getColNames
+	 * 
+	 * Gets the column names in the table(s) of the session (see DBAccessor.getColNames).
+	 * 
+	 * @return the column names in the table(s)
+	 * @throws SQLException if the database encounters an error
+	 */
+	public String[] getColNames() throws SQLException{
+		return database.getColNames(table, conn);
+	}
+
+	/**
+	 * getColNames
+	 * 
+	 * Gets the column names of one of the tables of the session.
+	 * 
+	 * @param t - the table name
+	 * @return the column names in the table
+	 * @throws SQLException if the database encounters an error
+	 */
+	String[] getColNames(String t) throws SQLException{
+		return database.getColNames(t, conn);
+	}
+
+	/**
+	 * getDataTypes
+	 * 
+	 * Gets the data types of many columns of the table(s) of the session at once
+	 * (see DBAccessor.getDataTypes).
+	 * 
+	 * @param columns - the column names
+	 * @param skips - the number of tables in the table list to skip for each column
+	 * @return the data type of each column (null if the column was not found)
+	 * @throws SQLException if the database encounters an error
+	 */
+	public String[] getDataTypes(String[] columns, int[] skips) throws SQLException{
+		return database.getDataTypes(columns, skips, table, conn);
+	}
+
+	/**
+	 * preprocessData
+	 * 
+	 * Takes a tuple of data in a table stored in a Vector and turns it into SQL syntax for ease of use.
+	 * For example:
+	 * 	if a column has the data "Dan Bray" stored as a VARCHAR
+	 * 	"Dan Bray" will turn into " 'Dan Bray' " such that it can promptly be inserted into an SQL table
+	 * 
+	 * @param data the data in it's raw form
+	 * @return data in a processed, ready to insert form.
+	 */
+	public Vector<String> preprocessData(Vector<String> data){
+		Vector<String> processed = new Vector<String>();
+		try{
+			if(table.length() == 0)
+				throw new SQLException("No table selected.");
+
+			Statement s = conn.createStatement();
+			statements.add(s);
+			ResultSet res = s.executeQuery("SHOW COLUMNS FROM " + table);
+			ResultSetMetaData meta = res.getMetaData();
+			int type;
+			for(int i=0; i<meta.getColumnCount(); ++i){
+				type = meta.getColumnType(i+1);
+				if(type == Types.VARCHAR || type == Types.CHAR || type == Types.LONGNVARCHAR
+						|| type == Types.LONGVARCHAR || type == Types.NCHAR || type == Types.NVARCHAR){
+					processed.add("'"+data.get(i)+"'");
+				}
+				//TODO: add more if statements for each data type
+				else{
+					processed.add(data.get(i));
+				}
+			}
+			return processed;
+		}
+		catch(SQLException e){
+			System.err.println("Error: " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * getTableData
+	 * 
+	 * Returns all the data stored in the table, held by column (see ColumnStore). If the
+	 * table(s) have not changed since they were last read, the rows are read from their
+	 * snapshot (see SnapshotCache) instead of the server; otherwise they are fetched and
+	 * a new snapshot is saved. Tables that can not be told to be unchanged (see
+	 * getChangeToken) are always fetched.
+	 * @return the table data
+	 * @throws SQLException
+	 */
+	public ColumnStore getTableData() throws SQLException{
+		if(table.length() == 0)
+			throw new SQLException("No table selected.");
+
+		SnapshotCache snapshots = database.getSnapshots();
+		String token = getChangeToken();
+		if(token != null){
+			ColumnStore store = snapshots.load(table, token);
+			if(store != null)
+				return store;
+		}
+
+		Statement statement = conn.createStatement();
+		try{
+			String s = "SELECT * FROM " + table + ";";
+			ResultSet resSet = statement.executeQuery(s);
+			database.checkColumns(table, resSet.getMetaData(), conn);
+			ColumnStore store = ColumnStore.read(resSet);
+			if(token != null)
+				snapshots.save(table, token, store);
+			return store;
+		}
+		finally{
+			statement.close();
+		}
+	}
+
+	/**
+	 * getChangeToken
+	 * 
+	 * Gets a token that changes whenever the table(s) of the session do. It is made of
+	 * the CREATE_TIME and UPDATE_TIME of each table in information_schema.tables and a
+	 * checksum of its columns, which changes on changes to the schema that leave the times
+	 * alone. Some tables (InnoDB after a restart, for one) have no UPDATE_TIME, and a table
+	 * updated in the current second may be updated again without its UPDATE_TIME changing,
+	 * since it is kept to the second; neither can be told apart from a changed table.
+	 * 
+	 * @return the change token, or null if it can not be known whether the table(s) change
+	 * @throws SQLException if the database encounters an error
+	 */
+	public String getChangeToken() throws SQLException{
+		if(table.length() == 0)
+			throw new SQLException("No table selected.");
+
+		String[] names = table.split(",");
+		StringBuilder token = new StringBuilder();
+		PreparedStatement s = conn.prepareStatement("SELECT t.CREATE_TIME, t.UPDATE_TIME, t.UPDATE_TIME < NOW(), "
+				+ "SUM(CRC32(CONCAT(c.ORDINAL_POSITION, ':', c.COLUMN_NAME, ':', c.COLUMN_TYPE))) "
+				+ "FROM information_schema.tables t LEFT JOIN information_schema.columns c "
+				+ "ON c.TABLE_SCHEMA = t.TABLE_SCHEMA AND c.TABLE_NAME = t.TABLE_NAME "
+				+ "WHERE t.TABLE_SCHEMA = DATABASE() AND t.TABLE_NAME = ? "
+				+ "GROUP BY t.CREATE_TIME, t.UPDATE_TIME;");
+		try{
+			for(String name : names){
+				name = name.trim();
+				s.setString(1, name);
+				ResultSet rs = s.executeQuery();
+				if(!rs.next() || rs.getString(2) == null || !rs.getBoolean(3))
+					return null;
+				token.append(name).append('@').append(rs.getString(1)).append('/').append(rs.getString(2))
+						.append('/').append(rs.getString(4)).append(';');
+			}
+		}
+		finally{
+			s.close();
+		}
+		return token.toString();
+	}
+
+	/**
+	 * beginSnapshot
+	 *
+	 * Starts a read transaction in which every query of the session sees the data as it
+	 * was when the transaction started, so queries run one after the other (such as finding
+	 * the labels of the nominal attributes and then streaming the rows) agree with each other.
+	 * Only transactional tables (InnoDB) have snapshots; other tables are read as they are.
+	 * End the transaction with endSnapshot.
+	 *
+	 * @throws SQLException if the database encounters an error
+	 */
+	public void beginSnapshot() throws SQLException{
+		conn.setAutoCommit(false);
+		Statement s = conn.createStatement();
+		try{
+			//Only sets the level of the next transaction, so the session is left as it was
+			s.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ;");
+			s.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT;");
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * endSnapshot
+	 *
+	 * Ends the transaction started by beginSnapshot. Any stream opened in it should be
+	 * closed first.
+	 *
+	 * @throws SQLException if the database encounters an error
+	 */
+	public void endSnapshot() throws SQLException{
+		conn.commit();
+		conn.setAutoCommit(true);
+	}
+
+	/**
+	 * streamQuery
+	 *
+	 * Opens a forward-only stream over the results of the query. Unlike executeQuery
+	 * the rows are not buffered by the driver, so this is safe for tables of any size.
+	 * The stream must be closed before anything else is sent to the database
+	 * through this session.
+	 *
+	 * @param query - The SQL query (in sql syntax)
+	 * @return a stream over the rows of the query
+	 * @throws SQLException if the database encounters an error
+	 */
+	public TableStream streamQuery(String query) throws SQLException{
+		return new TableStream(conn, query);
+	}
+
+	/**
+	 * streamQuery
+	 *
+	 * Opens a forward-only stream over the results of the query, giving up if the
+	 * server takes longer than the timeout to run it.
+	 *
+	 * @param query - The SQL query (in sql syntax)
+	 * @param timeout - the seconds the server may take to run the query, or 0 for no limit
+	 * @return a stream over the rows of the query
+	 * @throws SQLException if the database encounters an error or the query times out
+	 */
+	public TableStream streamQuery(String query, int timeout) throws SQLException{
+		return new TableStream(conn, query, timeout);
+	}
+
+	/**
+	 * streamTableData
+	 *
+	 * Opens a forward-only stream over all the data stored in the table(s).
+	 * @return a stream over the table data
+	 * @throws SQLException
+	 */
+	public TableStream streamTableData() throws SQLException{
+		if(table.length() == 0)
+			throw new SQLException("No table selected.");
+
+		return streamQuery("SELECT * FROM " + table + ";");
+	}
+
+	/**
+	 * getColumnDataTypes
+	 * 
+	 * Gets the data type of every column in the table(s) of the session, in the same
+	 * order as getColNames (see DBAccessor.getColumnDataTypes).
+	 * 
+	 * @return the data type of each column
+	 * @throws SQLException if the database encounters an error
+	 */
+	public String[] getColumnDataTypes() throws SQLException{
+		return database.getColumnDataTypes(table, conn);
+	}
+
+	/**
+	 * getPrimaryKey
+	 * 
+	 * Gets the primary key of the table of the session. Only primary keys made of one
+	 * column are returned, and only if the session is on a single table.
+	 * 
+	 * @return the name of the primary key column, or null if there is none
+	 * @throws SQLException if the database encounters an error
+	 */
+	public String getPrimaryKey() throws SQLException{
+		if(table.length() == 0 || table.contains(","))
+			return null;
+
+		PreparedStatement s = conn.prepareStatement("SELECT COLUMN_NAME FROM information_schema.key_column_usage "
+				+ "WHERE table_schema = DATABASE() AND table_name = ? AND constraint_name = 'PRIMARY';");
+		try{
+			s.setString(1, table.trim());
+			ResultSet rs = s.executeQuery();
+			String key = null;
+			if(rs.next())
+				key = rs.getString(1);
+			//Keys over several columns can not be used
+			if(rs.next())
+				return null;
+			return key;
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * getKeyRange
+	 * 
+	 * Gets the smallest and largest value of an integer column of the table(s).
+	 * 
+	 * @param column - the column
+	 * @return the smallest and the largest value, or null if the table is empty
+	 * @throws SQLException if the database encounters an error, the column is not an integer
+	 * 		column or its values do not fit a long (BIGINT UNSIGNED past 2^63 - 1)
+	 */
+	public long[] getKeyRange(String column) throws SQLException{
+		if(table.length() == 0)
+			throw new SQLException("No table selected.");
+
+		Statement s = conn.createStatement();
+		try{
+			ResultSet rs = s.executeQuery("SELECT MIN(" + ExportPlan.quote(column) + "), MAX(" + ExportPlan.quote(column) + ") FROM " + table + ";");
+			int type = rs.getMetaData().getColumnType(1);
+			if(type != Types.TINYINT && type != Types.SMALLINT && type != Types.INTEGER && type != Types.BIGINT)
+				throw new SQLException("The key column " + column + " is not an integer column.");
+			rs.next();
+			String min = rs.getString(1);
+			if(min == null)
+				return null;
+			try{
+				return new long[]{Long.parseLong(min), Long.parseLong(rs.getString(2))};
+			}
+			catch(NumberFormatException e){
+				throw new SQLException("The values of the key column " + column + " go past the largest signed 64 bit integer.");
+			}
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * getEstimatedRowCount
+	 * 
+	 * Gets the number of rows in the table of the session as estimated by the server
+	 * (TABLE_ROWS in information_schema.tables). This does not scan the table but may be
+	 * off by a large amount for InnoDB tables.
+	 * 
+	 * @return the estimated number of rows, or -1 if there is no estimate
+	 * @throws SQLException if the database encounters an error
+	 */
+	public long getEstimatedRowCount() throws SQLException{
+		if(table.length() == 0 || table.contains(","))
+			return -1;
+
+		PreparedStatement s = conn.prepareStatement("SELECT TABLE_ROWS FROM information_schema.tables "
+				+ "WHERE table_schema = DATABASE() AND table_name = ?;");
+		try{
+			s.setString(1, table.trim());
+			ResultSet rs = s.executeQuery();
+			if(!rs.next())
+				return -1;
+			long rows = rs.getLong(1);
+			return rs.wasNull() ? -1 : rows;
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * getRowCount
+	 * 
+	 * Counts the rows of the table(s) that match the condition.
+	 * 
+	 * @param condition - the condition in sql syntax, or null to count every row
+	 * @return the number of rows
+	 * @throws SQLException if the database encounters an error
+	 */
+	public long getRowCount(String condition) throws SQLException{
+		if(table.length() == 0)
+			throw new SQLException("No table selected.");
+
+		Statement s = conn.createStatement();
+		try{
+			ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + table
+					+ (condition == null ? "" : " WHERE " + condition) + ";");
+			rs.next();
+			return rs.getLong(1);
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * getPage
+	 * 
+	 * Gets one page of the rows of the table(s) that match the condition. When a key
+	 * column is given the rows are ordered by it and the page is found from a known key
+	 * (keyset pagination): it starts 'skip' rows after fromKey, or ends 'skip' rows before
+	 * it when reading backwards. Reading backwards from no key counts from the end of the
+	 * table. The server passes over the skipped rows on the index of the key, so the nearer
+	 * the known key is to the page the faster it is found. The rows of the page are always
+	 * in ascending order of the key. Without a key column the rows are in no order and
+	 * 'skip' counts from the start.
+	 * 
+	 * @param keyColumn - the column to order by, or null for no order
+	 * @param fromKey - the key the page is found from (not included), or null for either end of the table
+	 * @param backwards - true if the page is before fromKey, or before the end of the table
+	 * @param skip - the number of rows between fromKey (or the end) and the page
+	 * @param limit - the most rows in the page
+	 * @param condition - the condition in sql syntax, or null for every row
+	 * @return the rows of the page, held by column
+	 * @throws SQLException if the database encounters an error
+	 */
+	public ColumnStore getPage(String keyColumn, String fromKey, boolean backwards, long skip, int limit, String condition) throws SQLException{
+		if(table.length() == 0)
+			throw new SQLException("No table selected.");
+
+		String where = condition;
+		if(keyColumn != null && fromKey != null){
+			String bound = ExportPlan.quote(keyColumn) + (backwards ? " < " : " > ") + toLiteral(keyColumn, fromKey);
+			where = (where == null) ? bound : where + " AND " + bound;
+		}
+
+		String query = "SELECT * FROM " + table;
+		if(where != null)
+			query += " WHERE " + where;
+		if(keyColumn != null)
+			query += " ORDER BY " + ExportPlan.quote(keyColumn) + (backwards ? " DESC" : "");
+		query += " LIMIT " + skip + ", " + limit;
+		//A page read backwards is put back in ascending order by the server
+		if(keyColumn != null && backwards)
+			query = "SELECT * FROM (" + query + ") AS p ORDER BY p." + ExportPlan.quote(keyColumn);
+		query += ";";
+
+		Statement s = conn.createStatement();
+		try{
+			ResultSet rs = s.executeQuery(query);
+			database.checkColumns(table, rs.getMetaData(), conn);
+			return ColumnStore.read(rs);
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * streamPlan
+	 * 
+	 * Opens a forward-only stream over the columns and rows of the export plan. The plan
+	 * should be on the table(s) of the session.
+	 * 
+	 * @param plan - the export plan
+	 * @return a stream over the planned rows, one column per exported column
+	 * @throws SQLException if the database encounters an error
+	 */
+	public TableStream streamPlan(ExportPlan plan) throws SQLException{
+		return streamQuery(plan.toSQL(this));
+	}
+
+	/**
+	 * streamPlanRange
+	 * 
+	 * Opens a forward-only stream over the columns and rows of the export plan where the
+	 * integer column is between 'from' and 'to' (both inclusive).
+	 * 
+	 * @param plan - the export plan
+	 * @param column - the column
+	 * @param from - the smallest value to include
+	 * @param to - the largest value to include
+	 * @return a stream over the planned rows in the range
+	 * @throws SQLException if the database encounters an error
+	 */
+	public TableStream streamPlanRange(ExportPlan plan, String column, long from, long to) throws SQLException{
+		return streamQuery(plan.toSQL(this, ExportPlan.quote(column) + " BETWEEN " + from + " AND " + to));
+	}
+
+	/**
+	 * streamPlanAfter
+	 * 
+	 * Opens a forward-only stream over the columns and rows of the export plan where the
+	 * column is greater than 'after' and no greater than 'upTo'. The values are compared as
+	 * numbers for integer and decimal columns and as quoted strings for anything else, such
+	 * as dates (see toLiteral).
+	 * 
+	 * @param plan - the export plan
+	 * @param column - the column
+	 * @param after - the value rows must be greater than, or null for no lower bound
+	 * @param upTo - the largest value to include
+	 * @return a stream over the planned rows after the value
+	 * @throws SQLException if the database encounters an error or a value is not a number of a number column
+	 */
+	public TableStream streamPlanAfter(ExportPlan plan, String column, String after, String upTo) throws SQLException{
+		String condition = ExportPlan.quote(column) + " <= " + toLiteral(column, upTo);
+		if(after != null)
+			condition = ExportPlan.quote(column) + " > " + toLiteral(column, after) + " AND " + condition;
+		return streamQuery(plan.toSQL(this, condition));
+	}
+
+	/**
+	 * toLiteral
+	 * 
+	 * Turns a value of a column into the literal it is compared with. Values of integer and
+	 * decimal columns become numbers, since against a quoted string '9' > '10' and the
+	 * server can not use an index on the column; anything else is quoted.
+	 * 
+	 * @param column - the column of the table(s) of the session
+	 * @param value - the value, as the server wrote it
+	 * @return the literal, in sql syntax
+	 * @throws SQLException if the database encounters an error or the value is not a number of a number column
+	 */
+	private String toLiteral(String column, String value) throws SQLException{
+		String type = getDataTypes(new String[]{column}, new int[]{0})[0];
+		type = (type == null) ? "" : type.toLowerCase();
+		if(type.equals("tinyint") || type.equals("smallint") || type.equals("mediumint") || type.equals("int")
+				|| type.equals("integer") || type.equals("bigint") || type.equals("decimal") || type.equals("numeric")){
+			try{
+				//Parsing also keeps anything but a number out of the query
+				return new BigDecimal(value.trim()).toPlainString();
+			}
+			catch(NumberFormatException e){
+				throw new SQLException(value + " is not a value of the number column " + column + ".");
+			}
+		}
+		return ExportPlan.literal(value);
+	}
+
+	/**
+	 * streamPlanByKey
+	 * 
+	 * Opens a forward-only stream over the columns and rows of the export plan in the order
+	 * of the key column, starting after a key. The key is selected again after the exported
+	 * columns, so it is the last column of the stream. The key is compared as a number for
+	 * integer and decimal keys (see toLiteral).
+	 * 
+	 * @param plan - the export plan
+	 * @param keyColumn - a unique column to order by
+	 * @param after - the key rows must be greater than, or null to start at the first row
+	 * @return a stream over the planned rows after the key, with the key as the last column
+	 * @throws SQLException if the database encounters an error or the key is not a number of a number column
+	 */
+	public TableStream streamPlanByKey(ExportPlan plan, String keyColumn, String after) throws SQLException{
+		String condition = null;
+		if(after != null)
+			condition = ExportPlan.quote(keyColumn) + " > " + toLiteral(keyColumn, after);
+		return streamQuery(plan.toSQL(this, condition, keyColumn));
+	}
+
+	/**
+	 * getMaxValue
+	 * 
+	 * Gets the largest value of a column in the rows of the table(s) that match the condition.
+	 * 
+	 * @param column - the column
+	 * @param condition - the condition in sql syntax, or null for every row
+	 * @return the largest value, or null if no rows match
+	 * @throws SQLException if the database encounters an error
+	 */
+	public String getMaxValue(String column, String condition) throws SQLException{
+		if(table.length() == 0)
+			throw new SQLException("No table selected.");
+
+		String query = "SELECT MAX(" + ExportPlan.quote(column) + ") FROM " + table;
+		if(condition != null)
+			query += " WHERE " + condition;
+		Statement s = conn.createStatement();
+		try{
+			ResultSet rs = s.executeQuery(query + ";");
+			rs.next();
+			return rs.getString(1);
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * getPlanStatistics
+	 * 
+	 * Aggregates the rows of an export plan on the server in one query (see
+	 * ExportPlan.toStatisticsSQL), so no rows are sent.
+	 * 
+	 * @param plan - the export plan
+	 * @param numeric - whether each exported column is numeric
+	 * @return the number of rows, then the count, min, max, mean and standard deviation of each column
+	 * @throws SQLException if the database encounters an error
+	 */
+	public String[] getPlanStatistics(ExportPlan plan, boolean[] numeric) throws SQLException{
+		Statement s = conn.createStatement();
+		try{
+			ResultSet rs = s.executeQuery(plan.toStatisticsSQL(this, numeric));
+			rs.next();
+			String[] values = new String[rs.getMetaData().getColumnCount()];
+			for(int i=0; i<values.length; i++){
+				values[i] = rs.getString(i+1);
+			}
+			return values;
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * getDistinctValues
+	 * 
+	 * Gets up to a limit of the distinct values of an exported column of a plan, found
+	 * by the server (see ExportPlan.toDistinctSQL).
+	 * 
+	 * @param plan - the export plan
+	 * @param column - the (0 based) index of the column among the exported columns
+	 * @param limit - the most values to get
+	 * @return the distinct values that are not NULL, at most limit of them
+	 * @throws SQLException if the database encounters an error
+	 */
+	public List<String> getDistinctValues(ExportPlan plan, int column, int limit) throws SQLException{
+		List<String> values = new ArrayList<String>();
+		Statement s = conn.createStatement();
+		try{
+			ResultSet rs = s.executeQuery(plan.toDistinctSQL(this, column, limit));
+			while(rs.next()){
+				values.add(rs.getString(1));
+			}
+			return values;
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * getQueryMetaData
+	 * 
+	 * Gets the meta data of the results of a query without fetching any of its rows. The
+	 * query is read as a derived table (see getDistinctValues(String, String, int)), so
+	 * this fails for queries that can not be one. The result set stays open until the
+	 * session is closed.
+	 * 
+	 * @param query - the SQL query (in sql syntax)
+	 * @return the meta data of the results
+	 * @throws SQLException if the database encounters an error or the query can not be a derived table
+	 */
+	public ResultSetMetaData getQueryMetaData(String query) throws SQLException{
+		Statement s = conn.createStatement();
+		statements.add(s);
+		return s.executeQuery("SELECT * FROM " + toDerivedTable(query) + " LIMIT 0;").getMetaData();
+	}
+
+	/**
+	 * getDistinctValues
+	 * 
+	 * Gets up to a limit of the distinct values of a column of the results of a query,
+	 * found by the server. The query is read as a derived table, so it has to be a SELECT
+	 * with no two columns of the same name. Values are compared byte for byte, as for
+	 * getDistinctValues(ExportPlan, int, int).
+	 * 
+	 * @param query - the SQL query (in sql syntax)
+	 * @param column - the label of the column in the results
+	 * @param limit - the most values to get
+	 * @return the distinct values that are not NULL, at most limit of them
+	 * @throws SQLException if the database encounters an error or the query can not be a derived table
+	 */
+	public List<String> getDistinctValues(String query, String column, int limit) throws SQLException{
+		String c = "q." + ExportPlan.quote(column);
+		List<String> values = new ArrayList<String>();
+		Statement s = conn.createStatement();
+		try{
+			ResultSet rs = s.executeQuery("SELECT DISTINCT CAST(" + c + " AS BINARY) FROM " + toDerivedTable(query)
+					+ " WHERE " + c + " IS NOT NULL LIMIT " + limit + ";");
+			while(rs.next()){
+				values.add(rs.getString(1));
+			}
+			return values;
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * toDerivedTable
+	 * 
+	 * Wraps a query as a derived table named q, dropping the semicolons it ends with.
+	 */
+	private static String toDerivedTable(String query){
+		query = query.trim();
+		while(query.endsWith(";")){
+			query = query.substring(0, query.length() - 1).trim();
+		}
+		return "(" + query + ") AS q";
+	}
+
+	/**
+	 * getValueCounts
+	 * 
+	 * Counts the rows of the table(s) that match the condition for each value of a column.
+	 * Values are compared byte for byte, as for getDistinctValues, so the keys are the
+	 * values exactly as the rows hold them.
+	 * 
+	 * @param column - the column
+	 * @param condition - the condition in sql syntax, or null for every row
+	 * @return the number of rows with each value (a null key counts the NULLs)
+	 * @throws SQLException if the database encounters an error
+	 */
+	public Map<String, Long> getValueCounts(String column, String condition) throws SQLException{
+		if(table.length() == 0)
+			throw new SQLException("No table selected.");
+
+		String c = "CAST(" + ExportPlan.quote(column) + " AS BINARY)";
+		String query = "SELECT " + c + ", COUNT(*) FROM " + table;
+		if(condition != null)
+			query += " WHERE " + condition;
+		query += " GROUP BY " + c;
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		Statement s = conn.createStatement();
+		try{
+			ResultSet rs = s.executeQuery(query + ";");
+			while(rs.next()){
+				counts.put(rs.getString(1), rs.getLong(2));
+			}
+			return counts;
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * close
+	 * 
+	 * Closes everything opened through the session and returns its connection to the pool.
+	 */
+	public void close(){
+		try{
+			for(Statement s : statements){
+				s.close();
+			}
+			statements.clear();
+			conn.close();
+		}
+		catch(SQLException e){
+			System.err.println("Error closing session.\n"+e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * ExportPlan
+ * @author Daniel J Bray
+ *
+ * An ExportPlan records what of a table (or comma separated list of tables) is to be exported:
+ * which columns, and which rows. Columns are named as they are shown in the GUI, with multiples
+ * marked <columnName>(<number>). Rows are excluded by the value of a key column or by SQL
+ * conditions. The plan is compiled into the query that is sent to the database so that excluded
+ * columns and rows are never fetched.
+ */
+public class ExportPlan {
+	private String table;
+	private List<String> excludedColumns;
+	private String[] projection;
+	private String keyColumn;
+	private Set<String> excludedKeys;
+	private List<String> conditions;
+
+	/**
+	 * Constructs a new ExportPlan that exports every column and row of the table(s).
+	 *
+	 * @param table - the comma separated list of tables
+	 */
+	public ExportPlan(String table){
+		this.table = table;
+		excludedColumns = new ArrayList<String>();
+		projection = null;
+		keyColumn = null;
+		excludedKeys = new LinkedHashSet<String>();
+		conditions = new ArrayList<String>();
+	}
+
+	/**
+	 * Constructs a copy of an ExportPlan. Changes to either plan do not affect the other.
+	 *
+	 * @param other - the plan to copy
+	 */
+	public ExportPlan(ExportPlan other){
+		table = other.table;
+		excludedColumns = new ArrayList<String>(other.excludedColumns);
+		projection = (other.projection == null) ? null : other.projection.clone();
+		keyColumn = other.keyColumn;
+		excludedKeys = new LinkedHashSet<String>(other.excludedKeys);
+		conditions = new ArrayList<String>(other.conditions);
+	}
+
+	/**
+	 * getTable
+	 *
+	 * @return the comma separated list of tables
+	 */
+	public String getTable(){
+		return table;
+	}
+
+	/**
+	 * excludeColumn
+	 *
+	 * Excludes the column from the export.
+	 *
+	 * @param name - the name of the column (marked if it is a multiple)
+	 */
+	public void excludeColumn(String name){
+		if(!excludedColumns.contains(name))
+			excludedColumns.add(name);
+	}
+
+	/**
+	 * setProjection
+	 *
+	 * Sets the columns to export, in the order they are to be written. Excluded columns
+	 * are still left out.
+	 *
+	 * @param names - the names of the columns (marked if they are multiples), or null for all
+	 */
+	public void setProjection(String[] names){
+		projection = names;
+	}
+
+	/**
+	 * setKeyColumn
+	 *
+	 * Sets the column that identifies rows for excludeKey. Changing it forgets the keys
+	 * excluded so far.
+	 *
+	 * @param keyColumn - the key column
+	 */
+	public void setKeyColumn(String keyColumn){
+		if(keyColumn == null || !keyColumn.equals(this.keyColumn))
+			excludedKeys.clear();
+		this.keyColumn = keyColumn;
+	}
+
+	/**
+	 * getKeyColumn
+	 *
+	 * @return the column that identifies rows, or null if none is set
+	 */
+	public String getKeyColumn(){
+		return keyColumn;
+	}
+
+	/**
+	 * excludeKey
+	 *
+	 * Excludes the row with the value in the key column from the export.
+	 *
+	 * @param value - the value of the key column
+	 */
+	public void excludeKey(String value){
+		if(keyColumn == null)
+			throw new IllegalStateException("No key column set.");
+		excludedKeys.add(value);
+	}
+
+	/**
+	 * includeKey
+	 *
+	 * Includes a row that was excluded by excludeKey again.
+	 *
+	 * @param value - the value of the key column
+	 */
+	public void includeKey(String value){
+		excludedKeys.remove(value);
+	}
+
+	/**
+	 * getExcludedKeyCount
+	 *
+	 * @return the number of rows excluded by key
+	 */
+	public int getExcludedKeyCount(){
+		return excludedKeys.size();
+	}
+
+	/**
+	 * addCondition
+	 *
+	 * Only rows that match the SQL condition are exported.
+	 *
+	 * @param condition - the condition, in sql syntax (as in a WHERE clause)
+	 */
+	public void addCondition(String condition){
+		conditions.add(condition);
+	}
+
+	/**
+	 * addRandomSample
+	 *
+	 * Only a random fraction of the rows is exported, each row being kept or skipped on its
+	 * own by the database. The same seed gives the same rows while the table and the order
+	 * it is read in do not change.
+	 *
+	 * @param fraction - the fraction of the rows to keep, between 0 and 1
+	 * @param seed - the seed of the random numbers
+	 */
+	public void addRandomSample(double fraction, long seed){
+		conditions.add("RAND(" + seed + ") < " + fraction);
+	}
+
+	/**
+	 * addHashSample
+	 *
+	 * Only the rows whose key hashes below a fraction of the hash range are exported.
+	 * The sample depends only on the key values, so the same rows are kept every time
+	 * and rows added later are kept or skipped without changing the rest.
+	 *
+	 * @param column - the key column that is hashed
+	 * @param fraction - the fraction of the rows to keep, between 0 and 1
+	 */
+	public void addHashSample(String column, double fraction){
+		//CRC32 is an unsigned 32 bit value
+		conditions.add("CRC32(" + quote(column) + ") < " + (long)(fraction * 4294967296.0));
+	}
+
+	/**
+	 * getColumnIndices
+	 *
+	 * Gets the index in SELECT * over the table(s) of each column that is exported,
+	 * in the order they are written.
+	 *
+	 * @param session - a session on the table(s)
+	 * @return the (0 based) index of each exported column
+	 * @throws SQLException if the database encounters an error or a column does not exist
+	 */
+	public int[] getColumnIndices(DBSession session) throws SQLException{
+		String[] all = DBAccessor.markMultiples(session.getColNames());
+		String[] names = (projection == null) ? all : projection;
+
+		List<Integer> indices = new ArrayList<Integer>();
+		for(String name : names){
+			if(excludedColumns.contains(name))
+				continue;
+			int index = -1;
+			for(int j=0; j<all.length; j++){
+				if(all[j].equalsIgnoreCase(name.trim())){
+					index = j;
+					break;
+				}
+			}
+			if(index == -1)
+				throw new SQLException("Unknown column " + name + ".");
+			indices.add(index);
+		}
+
+		int[] arr = new int[indices.size()];
+		for(int i=0; i<arr.length; i++){
+			arr[i] = indices.get(i);
+		}
+		return arr;
+	}
+
+	/**
+	 * getColumnNames
+	 *
+	 * Gets the names (marked if they are multiples) of the exported columns in the order
+	 * they are written.
+	 *
+	 * @param session - a session on the table(s)
+	 * @return the names of the exported columns
+	 * @throws SQLException if the database encounters an error or a column does not exist
+	 */
+	public String[] getColumnNames(DBSession session) throws SQLException{
+		String[] all = DBAccessor.markMultiples(session.getColNames());
+		int[] indices = getColumnIndices(session);
+		String[] names = new String[indices.length];
+		for(int i=0; i<indices.length; i++){
+			names[i] = all[indices[i]];
+		}
+		return names;
+	}
+
+	/**
+	 * toSQL
+	 *
+	 * Compiles the plan into a query. Each exported column is selected by its table so
+	 * that multiples are told apart, and excluded rows are filtered out by the server.
+	 *
+	 * @param session - a session on the table(s)
+	 * @return the query, in sql syntax
+	 * @throws SQLException if the database encounters an error or a column does not exist
+	 */
+	public String toSQL(DBSession session) throws SQLException{
+		return toSQL(session, null);
+	}
+
+	/**
+	 * toSQL
+	 *
+	 * Compiles the plan into a query with an extra condition.
+	 *
+	 * @param session - a session on the table(s)
+	 * @param condition - an extra condition in sql syntax, or null for none
+	 * @return the query, in sql syntax
+	 * @throws SQLException if the database encounters an error or a column does not exist
+	 */
+	String toSQL(DBSession session, String condition) throws SQLException{
+		return toSQL(session, condition, null);
+	}
+
+	/**
+	 * toSQL
+	 *
+	 * Compiles the plan into a query with an extra condition, ordered by a column. The
+	 * column is selected again after the exported columns so its value can be read from
+	 * every row.
+	 *
+	 * @param session - a session on the table(s)
+	 * @param condition - an extra condition in sql syntax, or null for none
+	 * @param orderColumn - the column to order by, or null for no order
+	 * @return the query, in sql syntax
+	 * @throws SQLException if the database encounters an error or a column does not exist
+	 */
+	String toSQL(DBSession session, String condition, String orderColumn) throws SQLException{
+		List<String> columns = getSelectList(session);
+		String query = "SELECT ";
+		for(int i=0; i<columns.size(); i++){
+			if(i > 0)
+				query += ", ";
+			query += columns.get(i);
+		}
+		if(orderColumn != null)
+			query += ", " + quote(orderColumn);
+		query += " FROM " + table;
+
+		String rows = getRowCondition();
+		if(rows != null && condition != null)
+			query += " WHERE " + rows + " AND (" + condition + ")";
+		else if(rows != null)
+			query += " WHERE " + rows;
+		else if(condition != null)
+			query += " WHERE (" + condition + ")";
+		if(orderColumn != null)
+			query += " ORDER BY " + quote(orderColumn);
+		return query + ";";
+	}
+
+	/**
+	 * toStatisticsSQL
+	 *
+	 * Compiles the plan into a query that aggregates the rows to export into one row: the
+	 * number of rows, then for each exported column its number of values (not NULL), its
+	 * smallest and largest value, and for numeric columns its mean and sample standard
+	 * deviation (NULL for others). Other columns are compared byte for byte so values that
+	 * differ only in case or accents are not taken as equal.
+	 *
+	 * @param session - a session on the table(s)
+	 * @param numeric - whether each exported column is numeric
+	 * @return the query, in sql syntax
+	 * @throws SQLException if the database encounters an error or a column does not exist
+	 */
+	String toStatisticsSQL(DBSession session, boolean[] numeric) throws SQLException{
+		List<String> columns = getSelectList(session);
+		String query = "SELECT COUNT(*)";
+		for(int i=0; i<columns.size(); i++){
+			String c = columns.get(i);
+			query += ", COUNT(" + c + ")";
+			if(numeric[i])
+				query += ", MIN(" + c + "), MAX(" + c + "), AVG(" + c + "), STDDEV_SAMP(" + c + ")";
+			else
+				query += ", MIN(CAST(" + c + " AS BINARY)), MAX(CAST(" + c + " AS BINARY)), NULL, NULL";
+		}
+		query += " FROM " + table;
+
+		String rows = getRowCondition();
+		if(rows != null)
+			query += " WHERE " + rows;
+		return query + ";";
+	}
+
+	/**
+	 * toDistinctSQL
+	 *
+	 * Compiles the plan into a query for the distinct values of one exported column in the
+	 * rows to export, NULL left out. The server stops once it has found the limit. Values
+	 * are compared byte for byte, so ones that differ only in case or accents (which the
+	 * data keeps apart) are not merged.
+	 *
+	 * @param session - a session on the table(s)
+	 * @param column - the (0 based) index of the column among the exported columns
+	 * @param limit - the most values to return
+	 * @return the query, in sql syntax
+	 * @throws SQLException if the database encounters an error or a column does not exist
+	 */
+	String toDistinctSQL(DBSession session, int column, int limit) throws SQLException{
+		String c = getSelectList(session).get(column);
+		String query = "SELECT DISTINCT CAST(" + c + " AS BINARY) FROM " + table + " WHERE " + c + " IS NOT NULL";
+		String rows = getRowCondition();
+		if(rows != null)
+			query += " AND " + rows;
+		return query + " LIMIT " + limit + ";";
+	}
+
+	/**
+	 * getSelectList
+	 *
+	 * Gets each exported column qualified by its table, so that multiples are told apart.
+	 */
+	private List<String> getSelectList(DBSession session) throws SQLException{
+		//Which table each column of SELECT * comes from
+		List<String> owners = new ArrayList<String>();
+		List<String> columns = new ArrayList<String>();
+		StringTokenizer tk = new StringTokenizer(table, ",");
+		while(tk.hasMoreTokens()){
+			String t = tk.nextToken().trim();
+			for(String col : session.getColNames(t)){
+				owners.add(t);
+				columns.add(col);
+			}
+		}
+
+		int[] indices = getColumnIndices(session);
+		if(indices.length == 0)
+			throw new SQLException("Every column was excluded.");
+
+		List<String> select = new ArrayList<String>();
+		for(int i=0; i<indices.length; i++){
+			select.add(quote(owners.get(indices[i])) + "." + quote(columns.get(indices[i])));
+		}
+		return select;
+	}
+
+	/**
+	 * getRowCondition
+	 *
+	 * Gets the condition, in sql syntax, that the rows to export match. This combines
+	 * the added conditions and the excluded keys.
+	 *
+	 * @return the condition, or null if every row is exported
+	 */
+	public String getRowCondition(){
+		List<String> where = new ArrayList<String>();
+		for(String c : conditions){
+			where.add("(" + c + ")");
+		}
+		if(!excludedKeys.isEmpty()){
+			StringBuilder in = new StringBuilder(quote(keyColumn) + " NOT IN (");
+			boolean first = true;
+			for(String key : excludedKeys){
+				if(!first)
+					in.append(", ");
+				in.append(literal(key));
+				first = false;
+			}
+			where.add(in.append(")").toString());
+		}
+		if(where.isEmpty())
+			return null;
+
+		String condition = where.get(0);
+		for(int i=1; i<where.size(); i++){
+			condition += " AND " + where.get(i);
+		}
+		return condition;
+	}
+
+	/**
+	 * quote
+	 *
+	 * Quotes a table or column name for mySQL.
+	 */
+	static String quote(String name){
+		return "`" + name.replace("`", "``") + "`";
+	}
+
+	/**
+	 * literal
+	 *
+	 * Turns a value into a mySQL string literal.
+	 */
+	static String literal(String value){
+		return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+	}
+}
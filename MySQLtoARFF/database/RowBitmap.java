@@ -0,0 +1,295 @@
+package database;
+
+import java.util.Arrays;
+
+/**
+ * RowBitmap
+ * @author Daniel J Bray
+ *
+ * A set of row ids (the rows of a ColumnStore) kept as a compressed bitmap in the manner of a
+ * Roaring bitmap. The ids are split into chunks of 65536 by their high 16 bits. A chunk with few
+ * ids holds them as a sorted array of their low 16 bits, 2 bytes an id; once it has more than
+ * 4096 it becomes a plain bitmap of 8 kB, which is smaller from then on. Chunks with no ids take
+ * no space at all. Adding, removing or checking an id finds its chunk by a binary search of at
+ * most 16 steps and then costs O(1) in a bitmap chunk, or a bounded shift of at most 4096 ids in
+ * an array chunk.
+ *
+ * Checks are fastest when the ids are visited in order, since the chunk of the last id is tried
+ * first. This class is not synchronized.
+ */
+public class RowBitmap {
+
+	//A chunk with more ids than this is held as a bitmap
+	private static final int ARRAY_LIMIT = 4096;
+	private static final int BITMAP_WORDS = 1 << 10;
+
+	//The high 16 bits of the ids in each chunk, sorted
+	private int[] keys;
+	//Each chunk is either an array or a bitmap; the other is null
+	private char[][] arrays;
+	private long[][] bitmaps;
+	private int[] cardinalities;
+	private int size;
+	private int cardinality;
+	private int last;
+
+	/**
+	 * RowBitmap
+	 *
+	 * Constructs a new, empty RowBitmap.
+	 */
+	public RowBitmap(){
+		keys = new int[4];
+		arrays = new char[4][];
+		bitmaps = new long[4][];
+		cardinalities = new int[4];
+		size = 0;
+		cardinality = 0;
+		last = 0;
+	}
+
+	/**
+	 * RowBitmap
+	 *
+	 * Constructs a copy of another RowBitmap. Changing either does not change the other.
+	 *
+	 * @param other - the bitmap to copy
+	 */
+	public RowBitmap(RowBitmap other){
+		keys = Arrays.copyOf(other.keys, other.keys.length);
+		arrays = new char[keys.length][];
+		bitmaps = new long[keys.length][];
+		cardinalities = Arrays.copyOf(other.cardinalities, other.cardinalities.length);
+		for(int i=0; i<other.size; i++){
+			if(other.arrays[i] != null)
+				arrays[i] = Arrays.copyOf(other.arrays[i], other.arrays[i].length);
+			else
+				bitmaps[i] = Arrays.copyOf(other.bitmaps[i], BITMAP_WORDS);
+		}
+		size = other.size;
+		cardinality = other.cardinality;
+		last = 0;
+	}
+
+	/**
+	 * contains
+	 *
+	 * @param id - the row id
+	 * @return true if the id is in the set
+	 */
+	public boolean contains(int id){
+		int chunk = find(id >>> 16);
+		if(chunk < 0)
+			return false;
+		char low = (char)id;
+		if(bitmaps[chunk] != null)
+			return (bitmaps[chunk][low >>> 6] & (1L << low)) != 0;
+		return Arrays.binarySearch(arrays[chunk], 0, cardinalities[chunk], low) >= 0;
+	}
+
+	/**
+	 * add
+	 *
+	 * Adds an id to the set.
+	 *
+	 * @param id - the row id
+	 * @return true if the id was not already in the set
+	 */
+	public boolean add(int id){
+		int key = id >>> 16;
+		int chunk = find(key);
+		if(chunk < 0)
+			chunk = insertChunk(-chunk - 1, key);
+		char low = (char)id;
+		if(bitmaps[chunk] != null){
+			long bit = 1L << low;
+			if((bitmaps[chunk][low >>> 6] & bit) != 0)
+				return false;
+			bitmaps[chunk][low >>> 6] |= bit;
+		}
+		else{
+			char[] array = arrays[chunk];
+			int n = cardinalities[chunk];
+			int at = Arrays.binarySearch(array, 0, n, low);
+			if(at >= 0)
+				return false;
+			if(n == ARRAY_LIMIT){
+				toBitmap(chunk);
+				bitmaps[chunk][low >>> 6] |= 1L << low;
+			}
+			else{
+				at = -at - 1;
+				if(n == array.length)
+					array = arrays[chunk] = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, array.length * 2));
+				System.arraycopy(array, at, array, at + 1, n - at);
+				array[at] = low;
+			}
+		}
+		cardinalities[chunk]++;
+		cardinality++;
+		return true;
+	}
+
+	/**
+	 * remove
+	 *
+	 * Removes an id from the set.
+	 *
+	 * @param id - the row id
+	 * @return true if the id was in the set
+	 */
+	public boolean remove(int id){
+		int chunk = find(id >>> 16);
+		if(chunk < 0)
+			return false;
+		char low = (char)id;
+		if(bitmaps[chunk] != null){
+			long bit = 1L << low;
+			if((bitmaps[chunk][low >>> 6] & bit) == 0)
+				return false;
+			bitmaps[chunk][low >>> 6] &= ~bit;
+			if(cardinalities[chunk] - 1 == ARRAY_LIMIT)
+				toArray(chunk);
+		}
+		else{
+			char[] array = arrays[chunk];
+			int n = cardinalities[chunk];
+			int at = Arrays.binarySearch(array, 0, n, low);
+			if(at < 0)
+				return false;
+			System.arraycopy(array, at + 1, array, at, n - at - 1);
+		}
+		cardinality--;
+		if(--cardinalities[chunk] == 0)
+			removeChunk(chunk);
+		return true;
+	}
+
+	/**
+	 * flip
+	 *
+	 * Adds an id that is not in the set or removes one that is.
+	 *
+	 * @param id - the row id
+	 * @return true if the id is in the set afterwards
+	 */
+	public boolean flip(int id){
+		if(remove(id))
+			return false;
+		add(id);
+		return true;
+	}
+
+	/**
+	 * getCardinality
+	 *
+	 * @return the number of ids in the set
+	 */
+	public int getCardinality(){
+		return cardinality;
+	}
+
+	/**
+	 * isEmpty
+	 *
+	 * @return true if there are no ids in the set
+	 */
+	public boolean isEmpty(){
+		return cardinality == 0;
+	}
+
+	/**
+	 * find
+	 *
+	 * Finds the chunk of the ids with the high bits, trying the last one found first.
+	 *
+	 * @return the index of the chunk, or -(insertion point) - 1 if there is none
+	 */
+	private int find(int key){
+		if(last < size && keys[last] == key)
+			return last;
+		int chunk = Arrays.binarySearch(keys, 0, size, key);
+		if(chunk >= 0)
+			last = chunk;
+		return chunk;
+	}
+
+	/**
+	 * insertChunk
+	 *
+	 * Adds an empty array chunk for the high bits at the index.
+	 *
+	 * @return the index of the chunk
+	 */
+	private int insertChunk(int at, int key){
+		if(size == keys.length){
+			int capacity = keys.length * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			arrays = Arrays.copyOf(arrays, capacity);
+			bitmaps = Arrays.copyOf(bitmaps, capacity);
+			cardinalities = Arrays.copyOf(cardinalities, capacity);
+		}
+		System.arraycopy(keys, at, keys, at + 1, size - at);
+		System.arraycopy(arrays, at, arrays, at + 1, size - at);
+		System.arraycopy(bitmaps, at, bitmaps, at + 1, size - at);
+		System.arraycopy(cardinalities, at, cardinalities, at + 1, size - at);
+		keys[at] = key;
+		arrays[at] = new char[4];
+		bitmaps[at] = null;
+		cardinalities[at] = 0;
+		size++;
+		last = at;
+		return at;
+	}
+
+	/**
+	 * removeChunk
+	 *
+	 * Removes the chunk at the index, which has no ids left.
+	 */
+	private void removeChunk(int at){
+		System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+		System.arraycopy(arrays, at + 1, arrays, at, size - at - 1);
+		System.arraycopy(bitmaps, at + 1, bitmaps, at, size - at - 1);
+		System.arraycopy(cardinalities, at + 1, cardinalities, at, size - at - 1);
+		size--;
+		arrays[size] = null;
+		bitmaps[size] = null;
+		last = 0;
+	}
+
+	/**
+	 * toBitmap
+	 *
+	 * Changes an array chunk to a bitmap chunk.
+	 */
+	private void toBitmap(int chunk){
+		long[] bitmap = new long[BITMAP_WORDS];
+		char[] array = arrays[chunk];
+		for(int i=0; i<cardinalities[chunk]; i++){
+			bitmap[array[i] >>> 6] |= 1L << array[i];
+		}
+		arrays[chunk] = null;
+		bitmaps[chunk] = bitmap;
+	}
+
+	/**
+	 * toArray
+	 *
+	 * Changes a bitmap chunk that has ARRAY_LIMIT ids left to an array chunk.
+	 */
+	private void toArray(int chunk){
+		long[] bitmap = bitmaps[chunk];
+		char[] array = new char[ARRAY_LIMIT];
+		int n = 0;
+		for(int w=0; w<BITMAP_WORDS; w++){
+			long word = bitmap[w];
+			while(word != 0){
+				array[n++] = (char)((w << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		bitmaps[chunk] = null;
+		arrays[chunk] = array;
+	}
+}
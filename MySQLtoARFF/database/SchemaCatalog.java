@@ -0,0 +1,301 @@
+package database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SchemaCatalog
+ * @author Daniel J Bray
+ *
+ * The SchemaCatalog keeps the tables of the database along with the names and data types of
+ * their columns so that they do not have to be asked of the server every time they are needed.
+ * The catalog is saved to disk (in ~/.mysqltoarff) and loaded again on the next run. Each table
+ * is stamped with its CREATE_TIME and a checksum of the names, types and positions of its columns
+ * in information_schema.columns; when refreshed, only tables whose stamp changed have their
+ * columns fetched again. The checksum catches changes that leave the times alone, such as
+ * columns added or renamed in place.
+ */
+public class SchemaCatalog {
+
+	private static final String CATALOG_DIR = ".mysqltoarff";
+
+	private File file;
+	//Table entries keyed by lower case table name, in the order SHOW TABLES gives them
+	private Map<String, TableEntry> tables;
+
+	/**
+	 * TableEntry
+	 * @author Daniel J Bray
+	 *
+	 * The cached info for one table. The columns are null if they still need to be fetched.
+	 */
+	private static class TableEntry implements Serializable{
+		private static final long serialVersionUID = -2307466127434419207L;
+
+		private String name;
+		private String stamp;
+		private String[] columns;
+		private String[] types;
+	}
+
+	/**
+	 * Constructs a new, empty SchemaCatalog for the database. Use load to read the
+	 * saved catalog from disk.
+	 *
+	 * @param database - a name that uniquely identifies the database
+	 */
+	public SchemaCatalog(String database){
+		file = new File(new File(System.getProperty("user.home"), CATALOG_DIR), database + ".catalog");
+		tables = new LinkedHashMap<String, TableEntry>();
+	}
+
+	/**
+	 * load
+	 *
+	 * Loads the catalog saved by the last run. If there is no saved catalog, or it can
+	 * not be read, the catalog is left empty and is filled on the next refresh.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void load(){
+		if(!file.exists())
+			return;
+
+		try{
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+			try{
+				tables = (Map<String, TableEntry>)in.readObject();
+			}
+			finally{
+				in.close();
+			}
+		}
+		catch(IOException e){
+			System.err.println("Could not read the schema catalog.\n"+e.getMessage());
+		}
+		catch(ClassNotFoundException e){
+			System.err.println("Could not read the schema catalog.\n"+e.getMessage());
+		}
+	}
+
+	/**
+	 * save
+	 *
+	 * Saves the catalog to disk so that it can be loaded by the next run.
+	 */
+	public synchronized void save(){
+		try{
+			file.getParentFile().mkdirs();
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+			try{
+				out.writeObject(tables);
+			}
+			finally{
+				out.close();
+			}
+		}
+		catch(IOException e){
+			System.err.println("Could not save the schema catalog.\n"+e.getMessage());
+		}
+	}
+
+	/**
+	 * refresh
+	 *
+	 * Brings the catalog up to date with the database. The stamps of every table are read
+	 * in one query; tables that were dropped are removed and tables that are new or changed
+	 * have their columns read in one more query. If nothing changed, only the first query
+	 * is sent. The catalog is saved if anything changed.
+	 *
+	 * @param conn - the connection to the database
+	 * @throws SQLException if the database encounters an error
+	 */
+	public synchronized void refresh(Connection conn) throws SQLException{
+		Map<String, TableEntry> refreshed = new LinkedHashMap<String, TableEntry>();
+		List<String> stale = new ArrayList<String>();
+
+		Statement s = conn.createStatement();
+		try{
+			ResultSet rs = s.executeQuery("SELECT t.TABLE_NAME, t.CREATE_TIME, COUNT(c.COLUMN_NAME), "
+					+ "SUM(CRC32(CONCAT(c.ORDINAL_POSITION, ':', c.COLUMN_NAME, ':', c.COLUMN_TYPE))) "
+					+ "FROM information_schema.tables t LEFT JOIN information_schema.columns c "
+					+ "ON c.TABLE_SCHEMA = t.TABLE_SCHEMA AND c.TABLE_NAME = t.TABLE_NAME "
+					+ "WHERE t.TABLE_SCHEMA = DATABASE() GROUP BY t.TABLE_NAME, t.CREATE_TIME ORDER BY t.TABLE_NAME;");
+			while(rs.next()){
+				String name = rs.getString(1);
+				String stamp = rs.getString(2) + "/" + rs.getString(3) + "/" + rs.getString(4);
+				String key = name.toLowerCase();
+
+				TableEntry entry = tables.get(key);
+				if(entry == null || !stamp.equals(entry.stamp) || entry.columns == null){
+					entry = new TableEntry();
+					entry.name = name;
+					entry.stamp = stamp;
+					stale.add(name);
+				}
+				refreshed.put(key, entry);
+			}
+		}
+		finally{
+			s.close();
+		}
+
+		boolean changed = !stale.isEmpty() || refreshed.size() != tables.size();
+		tables = refreshed;
+		if(!stale.isEmpty())
+			loadColumns(conn, stale);
+		if(changed)
+			save();
+	}
+
+	/**
+	 * reload
+	 *
+	 * Reads the columns of tables in the catalog again, whatever their stamps say, and saves
+	 * the catalog. Tables that are not in the catalog are left out.
+	 *
+	 * @param conn - the connection to the database
+	 * @param names - the tables to read the columns of
+	 * @throws SQLException if the database encounters an error
+	 */
+	public synchronized void reload(Connection conn, List<String> names) throws SQLException{
+		List<String> known = new ArrayList<String>();
+		for(String name : names){
+			if(tables.containsKey(name.toLowerCase()) && !known.contains(name))
+				known.add(name);
+		}
+		if(known.isEmpty())
+			return;
+		loadColumns(conn, known);
+		save();
+	}
+
+	/**
+	 * loadColumns
+	 *
+	 * Reads the columns of the tables from information_schema.columns in a single query.
+	 *
+	 * @param conn - the connection to the database
+	 * @param names - the tables to read the columns of
+	 * @throws SQLException if the database encounters an error
+	 */
+	private void loadColumns(Connection conn, List<String> names) throws SQLException{
+		String query = "SELECT TABLE_NAME, COLUMN_NAME, DATA_TYPE FROM information_schema.columns "
+				+ "WHERE table_schema = DATABASE()";
+		//When every table is stale (i.e. the first run) the whole schema is read
+		boolean all = names.size() == tables.size();
+		if(!all){
+			query += " AND table_name IN (";
+			for(int i=0; i<names.size(); i++){
+				query += (i == 0) ? "?" : ", ?";
+			}
+			query += ")";
+		}
+		query += " ORDER BY TABLE_NAME, ORDINAL_POSITION;";
+
+		Map<String, List<String[]>> columns = new HashMap<String, List<String[]>>();
+		PreparedStatement s = conn.prepareStatement(query);
+		try{
+			if(!all){
+				for(int i=0; i<names.size(); i++){
+					s.setString(i+1, names.get(i));
+				}
+			}
+			ResultSet rs = s.executeQuery();
+			while(rs.next()){
+				String key = rs.getString(1).toLowerCase();
+				List<String[]> cols = columns.get(key);
+				if(cols == null){
+					cols = new ArrayList<String[]>();
+					columns.put(key, cols);
+				}
+				cols.add(new String[]{rs.getString(2), rs.getString(3)});
+			}
+		}
+		finally{
+			s.close();
+		}
+
+		for(String name : names){
+			TableEntry entry = tables.get(name.toLowerCase());
+			List<String[]> cols = columns.get(name.toLowerCase());
+			if(cols == null)
+				cols = new ArrayList<String[]>();
+
+			entry.columns = new String[cols.size()];
+			entry.types = new String[cols.size()];
+			for(int i=0; i<cols.size(); i++){
+				entry.columns[i] = cols.get(i)[0];
+				entry.types[i] = cols.get(i)[1];
+			}
+		}
+	}
+
+	/**
+	 * getTables
+	 *
+	 * @return the names of all tables in the catalog
+	 */
+	public synchronized String[] getTables(){
+		String[] names = new String[tables.size()];
+		int i = 0;
+		for(TableEntry entry : tables.values()){
+			names[i++] = entry.name;
+		}
+		return names;
+	}
+
+	/**
+	 * hasTable
+	 *
+	 * @param name - the name of the table to be checked.
+	 * @return true if there is a table by that name in the catalog, false otherwise
+	 */
+	public synchronized boolean hasTable(String name){
+		return tables.containsKey(name.toLowerCase());
+	}
+
+	/**
+	 * getColumns
+	 *
+	 * Gets the column names of the table in the order they are defined.
+	 *
+	 * @param table - the table name
+	 * @return the column names, or null if the table is not in the catalog
+	 */
+	public synchronized String[] getColumns(String table){
+		TableEntry entry = tables.get(table.toLowerCase());
+		if(entry == null || entry.columns == null)
+			return null;
+		return entry.columns.clone();
+	}
+
+	/**
+	 * getDataTypes
+	 *
+	 * Gets the SQL data types of the columns of the table, in the same order as getColumns.
+	 *
+	 * @param table - the table name
+	 * @return the data types, or null if the table is not in the catalog
+	 */
+	public synchronized String[] getDataTypes(String table){
+		TableEntry entry = tables.get(table.toLowerCase());
+		if(entry == null || entry.types == null)
+			return null;
+		return entry.types.clone();
+	}
+}
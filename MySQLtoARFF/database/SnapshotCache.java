@@ -0,0 +1,202 @@
+package database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * SnapshotCache
+ * @author Daniel J Bray
+ *
+ * Keeps the rows of tables that were read whole in snapshot files on disk (in ~/.mysqltoarff),
+ * so selecting the same table again reads the file instead of fetching every row from the
+ * server. A snapshot holds a ColumnStore a column at a time, as it is held in memory, so it is
+ * read back in one buffered pass that parses no text. Each snapshot is stamped with the change
+ * token of its table(s) (see DBSession.getChangeToken) and is only used while the token is the
+ * same.
+ *
+ * The snapshots together are kept under a size limit. A snapshot larger than the limit on its
+ * own is not written at all. When a new one would go over it, the least recently used snapshots
+ * are deleted; using a snapshot marks it as used by touching its file. This class is not synchronized; a snapshot is written to a temporary file first so a
+ * half written one is never read.
+ */
+public class SnapshotCache {
+
+	private static final String CACHE_DIR = ".mysqltoarff";
+	private static final int MAGIC = 0x4D325341;
+	private static final String SUFFIX = ".snapshot";
+
+	/**
+	 * The default size limit of the snapshots of a database, in bytes.
+	 */
+	public static final long DEFAULT_LIMIT = 1L << 30;
+
+	private File dir;
+	private long limit;
+
+	/**
+	 * Constructs a new SnapshotCache for the database.
+	 *
+	 * @param database - a name that uniquely identifies the database
+	 * @param limit - the most bytes the snapshots may take together
+	 */
+	public SnapshotCache(String database, long limit){
+		dir = new File(new File(new File(System.getProperty("user.home"), CACHE_DIR), "snapshots"), database);
+		this.limit = limit;
+	}
+
+	/**
+	 * load
+	 *
+	 * Reads the snapshot of the table(s) if there is one with the change token.
+	 *
+	 * @param table - the table name(s)
+	 * @param token - the current change token of the table(s)
+	 * @return the rows of the snapshot, or null if there is no current snapshot
+	 */
+	public ColumnStore load(String table, String token){
+		File file = getFile(table);
+		if(!file.exists())
+			return null;
+
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			try{
+				if(in.readInt() != MAGIC || !readString(in).equals(table) || !readString(in).equals(token))
+					return null;
+				ColumnStore store = ColumnStore.read(in);
+				file.setLastModified(System.currentTimeMillis());
+				return store;
+			}
+			finally{
+				in.close();
+			}
+		}
+		catch(IOException e){
+			System.err.println("Could not read the snapshot of " + table + ".\n"+e.getMessage());
+		}
+		catch(RuntimeException e){
+			//A snapshot cut short or from another version is fetched again
+			System.err.println("Could not read the snapshot of " + table + ".\n"+e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * save
+	 *
+	 * Writes the rows of the table(s) as their snapshot, replacing any older one, then
+	 * deletes the least recently used snapshots until they all fit in the size limit. Rows
+	 * that would not fit in the size limit on their own are not written, and any older
+	 * snapshot of the table(s) is deleted.
+	 *
+	 * @param table - the table name(s)
+	 * @param token - the change token of the table(s) when the rows were read
+	 * @param store - the rows
+	 */
+	public void save(String table, String token, ColumnStore store){
+		File file = getFile(table);
+		if(store.getWrittenSize() > limit){
+			file.delete();
+			return;
+		}
+		File temp = new File(dir, file.getName() + ".tmp");
+		try{
+			dir.mkdirs();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+			try{
+				out.writeInt(MAGIC);
+				writeString(out, table);
+				writeString(out, token);
+				store.write(out);
+			}
+			finally{
+				out.close();
+			}
+			file.delete();
+			if(!temp.renameTo(file))
+				throw new IOException("Could not rename " + temp + ".");
+		}
+		catch(IOException e){
+			temp.delete();
+			System.err.println("Could not save the snapshot of " + table + ".\n"+e.getMessage());
+			return;
+		}
+		evict();
+	}
+
+	/**
+	 * evict
+	 *
+	 * Deletes the least recently used snapshots until they fit in the size limit.
+	 */
+	private void evict(){
+		File[] files = dir.listFiles(new FileFilter(){
+			@Override
+			public boolean accept(File file) {
+				return file.getName().endsWith(SUFFIX);
+			}
+		});
+		if(files == null)
+			return;
+
+		long total = 0;
+		for(File file : files){
+			total += file.length();
+		}
+		//Most recently used last
+		Arrays.sort(files, new Comparator<File>(){
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for(int i=0; i<files.length && total > limit; i++){
+			total -= files[i].length();
+			files[i].delete();
+		}
+	}
+
+	/**
+	 * getFile
+	 *
+	 * @return the snapshot file of the table(s)
+	 */
+	private File getFile(String table){
+		String name = table.replaceAll("[^A-Za-z0-9_$]+", "_");
+		if(name.length() > 64)
+			name = name.substring(0, 64);
+		//Names that clean up the same are told apart by the hash of the original
+		return new File(dir, name + "_" + Integer.toHexString(table.hashCode()) + SUFFIX);
+	}
+
+	/**
+	 * writeString
+	 *
+	 * Writes a String of any length as UTF-8.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException{
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * readString
+	 *
+	 * Reads a String written by writeString.
+	 */
+	private static String readString(DataInputStream in) throws IOException{
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
@@ -0,0 +1,133 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * TableStream
+ * @author Daniel J Bray
+ *
+ * A forward-only, read-only cursor over the rows of a query. Rows are streamed from
+ * the mySQL server one at a time (Connector/J only does this when the fetch size is
+ * Integer.MIN_VALUE) so that the full table is never held in memory. While a stream is
+ * open no other statement can be executed on the same connection, so anything else
+ * needed from the database should be fetched before opening it. Always close the stream
+ * when finished.
+ */
+public class TableStream {
+	private Statement statement;
+	private ResultSet resSet;
+
+	/**
+	 * Opens a new stream over the results of the query.
+	 *
+	 * @param conn - the connection to stream from
+	 * @param query - the SQL query (in sql syntax)
+	 * @throws SQLException if the database encounters an error
+	 */
+	TableStream(Connection conn, String query) throws SQLException{
+		this(conn, query, 0);
+	}
+
+	/**
+	 * Opens a new stream over the results of the query, giving up if the server takes
+	 * too long to run it.
+	 *
+	 * @param conn - the connection to stream from
+	 * @param query - the SQL query (in sql syntax)
+	 * @param timeout - the seconds the server may take to run the query, or 0 for no limit
+	 * @throws SQLException if the database encounters an error or the query times out
+	 */
+	TableStream(Connection conn, String query, int timeout) throws SQLException{
+		statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try{
+			statement.setFetchSize(Integer.MIN_VALUE);
+			statement.setQueryTimeout(timeout);
+			resSet = statement.executeQuery(query);
+		}
+		catch(SQLException e){
+			statement.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * next
+	 *
+	 * Moves the cursor to the next row.
+	 *
+	 * @return true if there is another row, false at the end of the stream
+	 * @throws SQLException if the database encounters an error
+	 */
+	public boolean next() throws SQLException{
+		return resSet.next();
+	}
+
+	/**
+	 * getResultSet
+	 *
+	 * Gets the underlying result set positioned on the current row.
+	 *
+	 * @return the result set
+	 */
+	public ResultSet getResultSet(){
+		return resSet;
+	}
+
+	/**
+	 * getRow
+	 *
+	 * Gets every column of the current row as strings.
+	 *
+	 * @return the values of the row, null where the value is NULL
+	 * @throws SQLException if the database encounters an error
+	 */
+	public String[] getRow() throws SQLException{
+		String[] row = new String[resSet.getMetaData().getColumnCount()];
+		for(int i=0; i<row.length; i++){
+			row[i] = resSet.getString(1+i);
+		}
+		return row;
+	}
+
+	/**
+	 * getMetaData
+	 *
+	 * Gets the meta data (column names, types, etc.) of the streamed query.
+	 *
+	 * @return the result set meta data
+	 * @throws SQLException if the database encounters an error
+	 */
+	public ResultSetMetaData getMetaData() throws SQLException{
+		return resSet.getMetaData();
+	}
+
+	/**
+	 * cancel
+	 *
+	 * Asks the server to stop running the query. This may be called from another thread
+	 * while the stream is being read; the reading thread then gets an SQLException.
+	 *
+	 * @throws SQLException if the database encounters an error
+	 */
+	public void cancel() throws SQLException{
+		statement.cancel();
+	}
+
+	/**
+	 * close
+	 *
+	 * Closes the stream and the statement behind it.
+	 */
+	public void close(){
+		try{
+			statement.close();
+		}
+		catch(SQLException e){
+			System.err.println("Error closing stream.\n"+e.getMessage());
+		}
+	}
+}
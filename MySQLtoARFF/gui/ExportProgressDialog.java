@@ -0,0 +1,137 @@
+package gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.Timer;
+
+import core.ExportProgress;
+
+/**
+ * ExportProgressDialog
+ * @author Daniel J Bray
+ *
+ * A small window that shows how far along a running export is: a progress bar of the rows
+ * written against the estimated rows, and how many rows are written per second. The export
+ * can be cancelled from it. The window does not block the main window.
+ */
+public class ExportProgressDialog extends JDialog {
+
+	private static final long serialVersionUID = 3417925436902315482L;
+	//How often the progress is read, in milliseconds
+	private static final int REFRESH_INTERVAL = 250;
+
+	private ExportProgress progress;
+	private JProgressBar progressBar;
+	private JLabel lblRows;
+	private JButton btnCancel;
+	private Timer timer;
+
+	/**
+	 * Create the dialog and show it.
+	 * @param owner - the main window
+	 * @param progress - the progress of the export
+	 * @param fileName - the file being exported to
+	 */
+	public ExportProgressDialog(JFrame owner, ExportProgress progress, String fileName) {
+		super(owner, "Exporting to " + fileName, false);
+		this.progress = progress;
+		initialize();
+		this.setLocationRelativeTo(owner);
+		this.setVisible(true);
+	}
+
+	/**
+	 * Initialize the contents of the dialog.
+	 */
+	private void initialize() {
+		this.setBounds(0, 0, 380, 140);
+		this.setResizable(false);
+		this.getContentPane().setLayout(null);
+		this.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+		//Closing the window is the same as cancelling
+		this.addWindowListener(new WindowAdapter(){
+			@Override
+			public void windowClosing(WindowEvent e) {
+				cancel();
+			}
+		});
+
+		progressBar = new JProgressBar(0, 1000);
+		progressBar.setStringPainted(true);
+		progressBar.setBounds(12, 12, 350, 22);
+		this.getContentPane().add(progressBar);
+
+		lblRows = new JLabel("Starting...");
+		lblRows.setBounds(12, 42, 350, 16);
+		this.getContentPane().add(lblRows);
+
+		btnCancel = new JButton("Cancel");
+		btnCancel.setBounds(262, 68, 100, 25);
+		btnCancel.addActionListener(new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				cancel();
+			}
+		});
+		this.getContentPane().add(btnCancel);
+
+		timer = new Timer(REFRESH_INTERVAL, new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				refresh();
+			}
+		});
+		timer.start();
+	}
+
+	/**
+	 * refresh
+	 *
+	 * Shows the latest progress of the export.
+	 */
+	private void refresh(){
+		long rows = progress.getRows();
+		long estimate = progress.getEstimatedRows();
+		if(estimate > 0){
+			progressBar.setIndeterminate(false);
+			//The estimate can be low, so the bar stops just short of full until the export ends
+			progressBar.setValue((int)Math.min(999, rows * 1000 / estimate));
+			progressBar.setString(rows + " of ~" + estimate + " rows");
+		}
+		else{
+			progressBar.setIndeterminate(true);
+			progressBar.setString(rows + " rows");
+		}
+		lblRows.setText(String.format("%,.0f rows/sec", progress.getRowsPerSecond()));
+	}
+
+	/**
+	 * cancel
+	 *
+	 * Cancels the export. The dialog stays open until the export has stopped.
+	 */
+	private void cancel(){
+		btnCancel.setEnabled(false);
+		lblRows.setText("Cancelling...");
+		timer.stop();
+		progress.cancel();
+	}
+
+	/**
+	 * finish
+	 *
+	 * Closes the dialog once the export has ended, successfully or not.
+	 */
+	public void finish(){
+		timer.stop();
+		this.dispose();
+	}
+}
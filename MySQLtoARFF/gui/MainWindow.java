@@ -7,9 +7,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
-import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -21,12 +25,22 @@ import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.border.EtchedBorder;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
-import core.ArffConverter;
+import core.ArffExporter;
+import core.ArffFormat;
+import core.ExportProgress;
+import database.ColumnStore;
 import database.DBAccessor;
+import database.DBSession;
+import database.ExportPlan;
+import database.RowBitmap;
+import database.TableStream;
 
 /**
  * MainWindow
@@ -39,6 +53,9 @@ import database.DBAccessor;
  */
 public class MainWindow {
 
+	//Seconds a console query may run before it is stopped
+	private static final int DEFAULT_TIMEOUT = 30;
+
 	private JFrame frame;
 	private DBAccessor database;
 	private ShowTable_Panel dataTable;
@@ -46,12 +63,23 @@ public class MainWindow {
 	private JList<String> tableList;
 	private JTextField txtSelectedrows;
 	private JComboBox<String> cb_Exclude;
+	private String currentTable;
+	private String currentQuery;
+	//The sql type of each column of a console query, from its meta data
+	private String[] currentTypes;
+	private ExportPlan plan;
+	//The keys excluded from the plan by each exclusion of rows, most recent first
+	private Deque<List<String>> excludedKeys;
+	private ExportJob exportJob;
+	private ConsoleJob consoleJob;
+	private JTextField txtTimeout;
 
 	/**
 	 * Create the application.
 	 */
 	public MainWindow(DBAccessor database) {
 		this.database = database;
+		excludedKeys = new ArrayDeque<List<String>>();
 		initialize();
 	}
 
@@ -100,12 +128,21 @@ public class MainWindow {
 		JButton btnExcludeSelected = new JButton("Exclude Selected Row(s)");
 		btnExcludeSelected.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				dataTable.removeSelectedRows();
+				excludeRows();
 			}
 		});
 		btnExcludeSelected.setBounds(190, 99, 212, 25);
 		panel_1.add(btnExcludeSelected);
 
+		JButton btnUndoExclude = new JButton("Undo");
+		btnUndoExclude.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				undoExcludeRows();
+			}
+		});
+		btnUndoExclude.setBounds(312, 58, 90, 25);
+		panel_1.add(btnUndoExclude);
+
 		cb_Exclude = new JComboBox<String>();
 		cb_Exclude.setBounds(82, 14, 144, 25);
 		panel_1.add(cb_Exclude);
@@ -167,6 +204,23 @@ public class MainWindow {
 		btnExecuteConsoleQuery.setBounds(12, 104, 143, 25);
 		panel.add(btnExecuteConsoleQuery);
 
+		JButton btnStopConsoleQuery = new JButton("Stop");
+		btnStopConsoleQuery.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				stopStatement();
+			}
+		});
+		btnStopConsoleQuery.setBounds(163, 104, 80, 25);
+		panel.add(btnStopConsoleQuery);
+
+		JLabel lblTimeout = new JLabel("timeout (s)");
+		lblTimeout.setBounds(255, 108, 75, 16);
+		panel.add(lblTimeout);
+
+		txtTimeout = new JTextField(DEFAULT_TIMEOUT+"");
+		txtTimeout.setBounds(333, 106, 50, 19);
+		panel.add(txtTimeout);
+
 		dataTable = new ShowTable_Panel(database, new Rectangle(12, 169, 657, 201));
 		dataTable.addListSelectionEvent(new ListSelectionListener(){
 			@Override
@@ -183,23 +237,203 @@ public class MainWindow {
 	 * executeStatement
 	 * 
 	 * Executes the statement inputted into the ta_SQLConsole by the user. This
-	 * should be in proper SQL syntax.
+	 * should be in proper SQL syntax. The query runs in the background and its rows are
+	 * added to the data table as they arrive. It is stopped if it runs longer than the
+	 * timeout. After a statement that returns no rows (which may have changed the schema)
+	 * the schema catalog and the table list are refreshed.
 	 */
 	private void executeStatement(){
+		if(consoleJob != null && !consoleJob.isDone()){
+			JOptionPane.showMessageDialog(frame, "A query is already running. Stop it first.");
+			return;
+		}
+
+		int timeout;
 		try{
-			ResultSet rs = database.executeQuery(ta_SQLConsole.getText());
-			ArrayList<String> list = new ArrayList<String>();
-			for(int i=0; i<rs.getMetaData().getColumnCount(); i++){
-				String tableName = rs.getMetaData().getTableName(i+1);
-				if(!list.contains(tableName)){
-					list.add(tableName);
+			timeout = Integer.parseInt(txtTimeout.getText().trim());
+			if(timeout < 0)
+				throw new NumberFormatException();
+		}
+		catch(NumberFormatException e){
+			JOptionPane.showMessageDialog(frame, "The timeout must be a whole number of seconds (0 for none).");
+			return;
+		}
+
+		consoleJob = new ConsoleJob(ta_SQLConsole.getText(), timeout);
+		consoleJob.execute();
+	}
+
+	/**
+	 * stopStatement
+	 * 
+	 * Stops the running console query. The rows already shown are kept.
+	 */
+	private void stopStatement(){
+		if(consoleJob != null && !consoleJob.isDone())
+			consoleJob.stop(false);
+	}
+
+	/**
+	 * ConsoleJob
+	 * @author Daniel J Bray
+	 *
+	 * Runs a console query off the event dispatch thread and streams its rows into the data
+	 * table. Stopping the job, by hand or on timeout, cancels the query on the server.
+	 * Statements that return no rows are run as they are and then refresh the catalog.
+	 */
+	private class ConsoleJob extends SwingWorker<Long, String[]>{
+		private String query;
+		private boolean returnsRows;
+		private int timeout;
+		private Timer timer;
+		private volatile TableStream stream;
+		private volatile boolean stopped;
+		private volatile boolean timedOut;
+
+		private ConsoleJob(String query, int timeout){
+			this.query = query;
+			this.timeout = timeout;
+			returnsRows = DBAccessor.isQuery(query);
+			stopped = false;
+			timedOut = false;
+			if(timeout > 0){
+				//The query timeout only covers running the query, this also covers reading the rows
+				timer = new Timer(timeout * 1000, new ActionListener(){
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						stop(true);
+					}
+				});
+				timer.setRepeats(false);
+				timer.start();
+			}
+		}
+
+		/**
+		 * stop
+		 * 
+		 * Stops the query.
+		 * 
+		 * @param timedOut - true if the query is stopped because it ran too long
+		 */
+		private void stop(boolean timedOut){
+			this.timedOut = timedOut;
+			stopped = true;
+			TableStream s = stream;
+			if(s != null){
+				try{
+					s.cancel();
+				}
+				catch(SQLException e){
+					System.err.println("Error cancelling query.\n"+e.getMessage());
 				}
 			}
-			database.setTable(list);
-			dataTable.updateTableInfo(DBAccessor.getDataFromRS(rs), DBAccessor.getColNamesFromRS(rs));
 		}
-		catch(SQLException e){
-			JOptionPane.showMessageDialog(frame, e.getMessage());
+
+		@Override
+		protected Long doInBackground() throws Exception {
+			DBSession session = database.openSession("");
+			try{
+				if(!returnsRows){
+					try{
+						return (long)session.executeStatement(query, timeout);
+					}
+					finally{
+						//Even a failed statement may have changed some of the schema
+						database.refreshCatalog();
+					}
+				}
+
+				TableStream s = session.streamQuery(query, timeout);
+				stream = s;
+				long rows = 0;
+				try{
+					ResultSetMetaData md = s.getMetaData();
+					ArrayList<String> list = new ArrayList<String>();
+					int[] columns = new int[md.getColumnCount()];
+					for(int i=0; i<md.getColumnCount(); i++){
+						String tableName = md.getTableName(i+1);
+						//Expressions such as SUM(amount) come from no table
+						if(tableName != null && tableName.length() > 0 && !list.contains(tableName)){
+							list.add(tableName);
+						}
+						columns[i] = i+1;
+					}
+					final String tables = DBAccessor.toTableList(list);
+					final String[] colNames = DBAccessor.getColNamesFromRS(s.getResultSet());
+					//The types are kept so exporting the results needs no lookups by column name
+					final String[] dataTypes = DBAccessor.getDataTypes(md, columns);
+					final ColumnStore store = new ColumnStore(md);
+					SwingUtilities.invokeLater(new Runnable(){
+						@Override
+						public void run() {
+							currentTable = tables;
+							currentQuery = query;
+							currentTypes = dataTypes;
+							plan = null;
+							excludedKeys.clear();
+							dataTable.startTableInfo(store, colNames);
+						}
+					});
+
+					while(!stopped && s.next()){
+						publish(s.getRow());
+						rows++;
+					}
+				}
+				catch(SQLException e){
+					//A cancelled query fails on the server; that is not an error
+					if(!stopped)
+						throw e;
+				}
+				finally{
+					stream = null;
+					//Closing a stream reads whatever is left of it, so a stopped query is cancelled first
+					if(stopped){
+						try{
+							s.cancel();
+						}
+						catch(SQLException e){
+							System.err.println("Error cancelling query.\n"+e.getMessage());
+						}
+					}
+					s.close();
+				}
+				return rows;
+			}
+			finally{
+				session.close();
+			}
+		}
+
+		@Override
+		protected void process(List<String[]> rows) {
+			dataTable.addRows(rows);
+		}
+
+		@Override
+		protected void done() {
+			if(timer != null)
+				timer.stop();
+			if(!returnsRows)
+				tableList.setListData(database.getTables());
+			try{
+				long rows = get();
+				if(!returnsRows)
+					JOptionPane.showMessageDialog(frame, "Statement executed" + (rows >= 0 ? ", " + rows + " rows affected." : "."));
+				else if(timedOut)
+					JOptionPane.showMessageDialog(frame, "The query ran longer than " + timeout
+							+ " seconds and was stopped after " + rows + " rows.");
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			catch(ExecutionException e){
+				if(timedOut)
+					JOptionPane.showMessageDialog(frame, "The query ran longer than " + timeout + " seconds and was stopped.");
+				else
+					JOptionPane.showMessageDialog(frame, e.getCause().getMessage());
+			}
 		}
 	}
 
@@ -210,19 +444,39 @@ public class MainWindow {
 	 * data table and comboBox used to select columns to be excluded.
 	 */
 	private void selectTables(){	
+		DBSession session = null;
 		try{
 			if(tableList.getSelectedIndex() == -1)
 				return;
 
-			database.setTable(tableList.getSelectedValuesList());
-			String[] colNames = database.getColNames();
-			dataTable.updateTableInfo(database.getTableData(), colNames);
+			session = database.openSession(tableList.getSelectedValuesList());
+			String[] colNames = session.getColNames();
+			String key = session.getPrimaryKey();
+			//Tables with a key are paged in as they are scrolled rather than read whole
+			if(key != null)
+				dataTable.showPages(new PagedTableModel(database, session.getTable(), key, DBAccessor.markMultiples(colNames)));
+			else{
+				ColumnStore store = session.getTableData();
+				//The headers come from the rows themselves so they always match
+				colNames = store.getColumnNames().clone();
+				dataTable.updateTableInfo(store, colNames);
+			}
+			currentTable = session.getTable();
+			currentQuery = "SELECT * FROM " + currentTable + ";";
+			currentTypes = null;
+			plan = new ExportPlan(currentTable);
+			excludedKeys.clear();
+			plan.setKeyColumn(key);
 
 			updateComboBox();
 		}
 		catch(SQLException e){
 			JOptionPane.showMessageDialog(frame, e.getMessage());
 		}
+		finally{
+			if(session != null)
+				session.close();
+		}
 	}
 
 	/**
@@ -250,22 +504,164 @@ public class MainWindow {
 		if(cb_Exclude.getSelectedIndex() == -1)
 			return;
 		
+		if(plan != null)
+			plan.excludeColumn((String)cb_Exclude.getSelectedItem());
 		dataTable.excludeColumn(cb_Exclude.getSelectedItem());
 		updateComboBox();
 	}
 
+	/**
+	 * excludeRows
+	 * 
+	 * Excludes the selected rows from the data table. When the table has a primary key
+	 * the rows are also excluded from the export plan by their key.
+	 */
+	private void excludeRows(){
+		if(plan != null && plan.getKeyColumn() != null){
+			List<String> keys = new ArrayList<String>();
+			for(String key : dataTable.getSelectedValues(plan.getKeyColumn())){
+				if(key != null){
+					plan.excludeKey(key);
+					keys.add(key);
+				}
+			}
+			if(!keys.isEmpty())
+				excludedKeys.push(keys);
+		}
+		if(dataTable.isPaged())
+			dataTable.filterRows(plan.getRowCondition());
+		else
+			dataTable.excludeSelectedRows();
+	}
+
+	/**
+	 * undoExcludeRows
+	 * 
+	 * Brings back the rows that were excluded last, in the data table and the export plan.
+	 */
+	private void undoExcludeRows(){
+		if(dataTable.isPaged()){
+			if(excludedKeys.isEmpty())
+				return;
+			for(String key : excludedKeys.pop()){
+				plan.includeKey(key);
+			}
+			dataTable.filterRows(plan.getRowCondition());
+		}
+		else
+			dataTable.undoExcludedRows();
+	}
+
 	/**
 	 * convertToARFF
 	 * 
-	 * Converts the current data table to ARFF format, writes it to file, and then
-	 * displays it in a dialog.
+	 * Converts the current data table to ARFF format and writes it to file. The export
+	 * runs in the background with a progress dialog from which it can be cancelled. The rows
+	 * are streamed straight from the database into the file, with excluded columns
+	 * and rows left out of the query when the export plan allows it. Tables held whole
+	 * (which come from their snapshot when unchanged), and any held rows some of which
+	 * were excluded, are written from the rows held with the excluded rows skipped.
 	 */
 	private void convertToARFF(){
-		String[] arffFile = ArffConverter.sqlToARFF(database, dataTable.getColNames(), dataTable.getTableData());
-		if(arffFile != null){
-			ArffConverter convert = new ArffConverter(arffFile);
-			convert.writeToFile();
-			convert.showArffDialog();
+		if(currentQuery == null)
+			return;
+		if(exportJob != null && !exportJob.isDone()){
+			JOptionPane.showMessageDialog(frame, "An export is already running.");
+			return;
+		}
+
+		//Everything needed from the table is read now, the export itself runs in the background
+		ExportPlan exportPlan = null;
+		ColumnStore store = null;
+		RowBitmap excluded = null;
+		//Console results are only held as far as they were read, so they are run again
+		if(dataTable.getStore() != null && (currentTypes == null || dataTable.hasExcludedRows())){
+			store = dataTable.getStore();
+			excluded = dataTable.getExcludedRows();
+		}
+		else if(plan != null){
+			//Columns are written in the order they are displayed
+			plan.setProjection(dataTable.getColNames());
+			exportPlan = new ExportPlan(plan);
+		}
+
+		ExportProgress progress = new ExportProgress();
+		exportJob = new ExportJob(currentTable, currentQuery, exportPlan, dataTable.getColNames(),
+				dataTable.getColumnIndices(), store, excluded, progress);
+		exportJob.execute();
+	}
+
+	/**
+	 * ExportJob
+	 * @author Daniel J Bray
+	 *
+	 * Runs one export off the event dispatch thread and shows its progress. Exactly one of
+	 * the plan (the plan is exported), the store (its rows that were not excluded are
+	 * written) or neither (the query is streamed) is given.
+	 */
+	private class ExportJob extends SwingWorker<Long, Void>{
+		private String table;
+		private String query;
+		private ExportPlan exportPlan;
+		private String[] colNames;
+		private int[] columns;
+		private ColumnStore store;
+		private RowBitmap excluded;
+		private ExportProgress progress;
+		private ExportProgressDialog dialog;
+
+		private ExportJob(String table, String query, ExportPlan exportPlan, String[] colNames, int[] columns,
+				ColumnStore store, RowBitmap excluded, ExportProgress progress){
+			this.table = table;
+			this.query = query;
+			this.exportPlan = exportPlan;
+			this.colNames = colNames;
+			this.columns = columns;
+			this.store = store;
+			this.excluded = excluded;
+			this.progress = progress;
+			dialog = new ExportProgressDialog(frame, progress, ArffExporter.FILE_NAME);
+		}
+
+		@Override
+		protected Long doInBackground() throws Exception {
+			DBSession session = database.openSession(table);
+			try{
+				ArffExporter exporter = new ArffExporter(session);
+				exporter.setProgress(progress);
+				//Every kind of export infers nominal attributes the same way
+				exporter.setNominalLimit(ArffFormat.NOMINAL_LIMIT);
+				if(store != null){
+					progress.setEstimatedRows(store.getRowCount());
+					return exporter.export(ArffFormat.getRelationName(table), store, excluded, colNames, columns, ArffExporter.FILE_NAME);
+				}
+				if(exportPlan != null){
+					progress.setEstimatedRows(session.getEstimatedRowCount());
+					return exporter.export(ArffFormat.getRelationName(table), exportPlan, ArffExporter.FILE_NAME);
+				}
+				return exporter.export(query, colNames, columns, ArffExporter.FILE_NAME);
+			}
+			finally{
+				session.close();
+			}
+		}
+
+		@Override
+		protected void done() {
+			dialog.finish();
+			try{
+				long rows = get();
+				JOptionPane.showMessageDialog(frame, rows + " rows written to " + ArffExporter.FILE_NAME);
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			catch(ExecutionException e){
+				if(progress.isCancelled())
+					JOptionPane.showMessageDialog(frame, "Arff conversion cancelled.");
+				else
+					JOptionPane.showMessageDialog(frame, "Arff conversion failed:\n"+e.getCause().getMessage());
+			}
 		}
 	}
 
@@ -0,0 +1,365 @@
+package gui;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+import database.ColumnStore;
+import database.DBAccessor;
+import database.DBSession;
+
+/**
+ * PagedTableModel
+ * @author Daniel J Bray
+ *
+ * A table model that only holds the rows that are being looked at. Rows are fetched from the
+ * database in pages, in the background, the first time a cell of the page is asked for; until
+ * then the cells are empty. Pages are found through the key column of the table (keyset
+ * pagination) from the nearest page that was loaded, before or after it, or from either end
+ * of the table (see DBSession.getPage). Scrolling loads each page from the one next to it, so
+ * it stays fast however far down the table is; a page far from any loaded one, as when the
+ * scroll bar is dragged, costs a pass over the index entries of the rows in between. Only the
+ * most recently used pages are kept.
+ *
+ * The row count starts as the server's estimate so the first rows show at once, and is replaced
+ * by the exact count once it is known.
+ */
+public class PagedTableModel extends AbstractTableModel {
+
+	private static final long serialVersionUID = -4693308573627781437L;
+	private static final int PAGE_SIZE = 200;
+	private static final int MAX_PAGES = 64;
+
+	private DBAccessor database;
+	private String table;
+	private String keyColumn;
+	private int keyIndex;
+	private String[] colNames;
+	private String condition;
+
+	private int rowCount;
+	//The row count once it is known exactly, or -1; read by the loader thread
+	private volatile long exactCount;
+	//Pages in least recently used order
+	private LinkedHashMap<Integer, ColumnStore> pages;
+	//The keys of the first and last rows of each page that was ever loaded
+	private TreeMap<Integer, String[]> pageKeys;
+	private Set<Integer> loading;
+	private ExecutorService loader;
+	//Changed on every reload so that late results of an old load are ignored; read by the loader
+	//thread so that pages queued before a reload are skipped without a query
+	private volatile int generation;
+
+	/**
+	 * Constructs a new PagedTableModel over the table. The table must have the key column.
+	 *
+	 * @param database - the database the table is in
+	 * @param table - the table
+	 * @param keyColumn - a unique, indexed column of the table to order and page by
+	 * @param colNames - the names of the columns of the table
+	 */
+	public PagedTableModel(DBAccessor database, String table, String keyColumn, String[] colNames){
+		this.database = database;
+		this.table = table;
+		this.keyColumn = keyColumn;
+		this.colNames = colNames;
+		findKeyIndex();
+
+		pages = new LinkedHashMap<Integer, ColumnStore>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ColumnStore> eldest){
+				return size() > MAX_PAGES;
+			}
+		};
+		pageKeys = new TreeMap<Integer, String[]>();
+		loading = new HashSet<Integer>();
+		loader = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PagedTableModel loader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reload(null);
+	}
+
+	/**
+	 * findKeyIndex
+	 *
+	 * Finds the key column among the columns.
+	 */
+	private void findKeyIndex(){
+		keyIndex = -1;
+		for(int i=0; i<colNames.length; i++){
+			if(colNames[i].equalsIgnoreCase(keyColumn))
+				keyIndex = i;
+		}
+	}
+
+	/**
+	 * setColumnNames
+	 *
+	 * Gives the table new columns, dropping the pages loaded with the old ones.
+	 */
+	private void setColumnNames(String[] names){
+		colNames = names;
+		findKeyIndex();
+		pages.clear();
+		fireTableStructureChanged();
+	}
+
+	/**
+	 * reload
+	 *
+	 * Drops every loaded page and shows only the rows that match the condition.
+	 *
+	 * @param condition - the condition in sql syntax, or null for every row
+	 */
+	public void reload(String condition){
+		this.condition = condition;
+		generation++;
+		pages.clear();
+		synchronized(pageKeys){
+			pageKeys.clear();
+		}
+		loading.clear();
+		//The first page is loaded below, not again when it is painted
+		loading.add(0);
+		rowCount = 0;
+		exactCount = -1;
+		fireTableDataChanged();
+
+		final int gen = generation;
+		final String cond = condition;
+		loader.submit(new Runnable(){
+			@Override
+			public void run() {
+				try{
+					DBSession session = database.openSession(table);
+					try{
+						//The estimate is cheap and lets the first page show straight away
+						if(cond == null)
+							setRowCount(gen, session.getEstimatedRowCount(), false);
+						loadPage(gen, 0, cond);
+						setRowCount(gen, session.getRowCount(cond), true);
+					}
+					finally{
+						session.close();
+					}
+				}
+				catch(SQLException e){
+					System.err.println(e.getMessage());
+					//The first page can be asked for again the next time it is painted
+					SwingUtilities.invokeLater(new Runnable(){
+						@Override
+						public void run() {
+							if(gen == generation)
+								loading.remove(0);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * dispose
+	 *
+	 * Stops the background loading. The model should not be used afterwards.
+	 */
+	public void dispose(){
+		loader.shutdownNow();
+	}
+
+	/**
+	 * getKeyColumn
+	 *
+	 * @return the column the table is paged by
+	 */
+	public String getKeyColumn(){
+		return keyColumn;
+	}
+
+	@Override
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return colNames.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return colNames[column];
+	}
+
+	/**
+	 * getValueAt
+	 *
+	 * Gets the value of the cell. If its page is not loaded yet, null is returned and
+	 * the page is loaded in the background.
+	 */
+	@Override
+	public Object getValueAt(int rowIndex, int columnIndex) {
+		int page = rowIndex / PAGE_SIZE;
+		ColumnStore rows = pages.get(page);
+		if(rows == null){
+			requestPage(page);
+			return null;
+		}
+		int index = rowIndex % PAGE_SIZE;
+		return index < rows.getRowCount() ? rows.getString(index, columnIndex) : null;
+	}
+
+	/**
+	 * requestPage
+	 *
+	 * Queues the page to be loaded in the background unless it already is.
+	 */
+	private void requestPage(final int page){
+		if(!loading.add(page))
+			return;
+
+		final int gen = generation;
+		final String cond = condition;
+		loader.submit(new Runnable(){
+			@Override
+			public void run() {
+				try{
+					loadPage(gen, page, cond);
+				}
+				catch(SQLException e){
+					System.err.println(e.getMessage());
+					//The page can be asked for again the next time it is painted
+					SwingUtilities.invokeLater(new Runnable(){
+						@Override
+						public void run() {
+							if(gen == generation)
+								loading.remove(page);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * loadPage
+	 *
+	 * Fetches one page on the loader thread and hands it to the event dispatch thread.
+	 * Pages of an older load are not fetched at all. The page is found from whichever is
+	 * nearest of the start of the table, the loaded pages before and after it and, once
+	 * the row count is exact, the end of the table.
+	 */
+	private void loadPage(final int gen, final int page, String condition) throws SQLException{
+		if(gen != generation)
+			return;
+
+		long first = (long)page * PAGE_SIZE;
+		String fromKey = null;
+		boolean backwards = false;
+		long skip = first;
+		int limit = PAGE_SIZE;
+
+		long count = exactCount;
+		if(keyIndex != -1 && count > first && count - first - PAGE_SIZE < skip){
+			//Counted back from the end, where the last page may be short
+			backwards = true;
+			skip = Math.max(0, count - first - PAGE_SIZE);
+			limit = (int)Math.min(PAGE_SIZE, count - first);
+		}
+		synchronized(pageKeys){
+			Map.Entry<Integer, String[]> before = pageKeys.lowerEntry(page);
+			if(before != null && (long)(page - before.getKey() - 1) * PAGE_SIZE < skip){
+				fromKey = before.getValue()[1];
+				backwards = false;
+				skip = (long)(page - before.getKey() - 1) * PAGE_SIZE;
+				limit = PAGE_SIZE;
+			}
+			Map.Entry<Integer, String[]> after = pageKeys.higherEntry(page);
+			if(after != null && (long)(after.getKey() - page - 1) * PAGE_SIZE < skip){
+				fromKey = after.getValue()[0];
+				backwards = true;
+				skip = (long)(after.getKey() - page - 1) * PAGE_SIZE;
+				limit = PAGE_SIZE;
+			}
+		}
+
+		final boolean forwards = !backwards;
+		final ColumnStore rows;
+		DBSession session = database.openSession(table);
+		try{
+			rows = session.getPage(keyIndex == -1 ? null : keyColumn, fromKey, backwards, skip, limit, condition);
+		}
+		finally{
+			session.close();
+		}
+
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run() {
+				if(gen != generation)
+					return;
+
+				loading.remove(page);
+				if(rows.getColumnCount() != colNames.length){
+					//The table was changed since its columns were looked up
+					setColumnNames(DBAccessor.markMultiples(rows.getColumnNames().clone()));
+				}
+				pages.put(page, rows);
+				if(rows.getRowCount() > 0 && keyIndex != -1){
+					synchronized(pageKeys){
+						pageKeys.put(page, new String[]{rows.getString(0, keyIndex), rows.getString(rows.getRowCount()-1, keyIndex)});
+					}
+				}
+
+				int first = page * PAGE_SIZE;
+				//A short page read forwards is the end of the table
+				if(forwards && rows.getRowCount() < PAGE_SIZE && first + rows.getRowCount() != rowCount){
+					rowCount = first + rows.getRowCount();
+					exactCount = rowCount;
+					fireTableDataChanged();
+				}
+				else if(first < rowCount){
+					fireTableRowsUpdated(first, Math.min(rowCount, first + PAGE_SIZE) - 1);
+				}
+			}
+		});
+	}
+
+	/**
+	 * setRowCount
+	 *
+	 * Hands a new row count to the event dispatch thread.
+	 */
+	private void setRowCount(final int gen, final long count, final boolean exact){
+		if(count < 0)
+			return;
+
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run() {
+				if(gen != generation)
+					return;
+				rowCount = (int)Math.min(Integer.MAX_VALUE, count);
+				if(exact)
+					exactCount = rowCount;
+				fireTableDataChanged();
+			}
+		});
+	}
+}
@@ -0,0 +1,45 @@
+package gui;
+
+import java.sql.SQLException;
+
+import javax.swing.JOptionPane;
+import javax.swing.JPasswordField;
+
+import database.DBConnector;
+
+/**
+ * PasswordDialog
+ * @author Daniel J Bray
+ *
+ * Asks the user for the database password until a connection is established.
+ */
+public class PasswordDialog {
+
+	/**
+	 * connect
+	 *
+	 * Prompts for the password and connects the connector with it. The user is asked
+	 * again if the connection fails. The program exits if the user cancels.
+	 *
+	 * @param connector - the connector to connect
+	 */
+	public static void connect(DBConnector connector){
+		while(true){
+			try{
+				JPasswordField jpf = new JPasswordField();		//a relatively secure way to get a password
+				int action = JOptionPane.showConfirmDialog(null, jpf,
+						"Enter Password:", JOptionPane.OK_CANCEL_OPTION);
+
+				if(action != JOptionPane.OK_OPTION)
+					System.exit(0);				//exit the program if no password.
+
+				char [] pass = jpf.getPassword();
+				connector.connect(new String(pass));
+				return;
+			}
+			catch(SQLException e){
+				JOptionPane.showMessageDialog(null, e.getMessage());
+			}
+		}
+	}
+}
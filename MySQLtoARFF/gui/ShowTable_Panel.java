@@ -3,15 +3,20 @@ package gui;
 import java.awt.BorderLayout;
 import java.awt.Panel;
 import java.awt.Rectangle;
-import java.util.Vector;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableColumn;
 
+import database.ColumnStore;
 import database.DBAccessor;
+import database.RowBitmap;
 
 
 /**
@@ -31,6 +36,10 @@ public class ShowTable_Panel extends Panel{
 	protected JTable table;
 	protected DBAccessor database;
 	protected DefaultTableModel tableModel;
+	protected StoreTableModel storeModel;
+	protected PagedTableModel pagedModel;
+	//The ids of the rows excluded by each exclusion, most recent first
+	protected Deque<int[]> exclusions;
 
 	/**
 	 * Create the table panel and initialize it.
@@ -40,6 +49,7 @@ public class ShowTable_Panel extends Panel{
 	public ShowTable_Panel(DBAccessor db, Rectangle bounds) {
 		super();
 		database = db;
+		exclusions = new ArrayDeque<int[]>();
 		initialize(bounds);
 		this.setVisible(true);
 	}
@@ -118,73 +128,196 @@ public class ShowTable_Panel extends Panel{
 	}
 	
 	/**
-	 * getTableData
+	 * getColumnIndices
 	 * 
-	 * Gets the data stored in the table that wasn't excluded. The table
-	 * data is every cell in the table stored in a 2d array.
+	 * Gets the index in the original data of each column currently in the table
+	 * that was not excluded, in the order they are displayed.
 	 * 
-	 * @return the data stored in the table.
+	 * @return the index of each displayed column in the data
 	 */
-	public String[][] getTableData(){
-		String[][] tableData = new String[table.getRowCount()][table.getColumnCount()];
-		for(int i=0; i<table.getRowCount(); i++){
-			for(int j=0; j<table.getColumnCount(); j++){
-				tableData[i][j] = (String)table.getValueAt(i, j);
-				//System.out.print(tableData[i][j]+"\t");
-			}
-			//System.out.print("\n");
+	public int[] getColumnIndices(){
+		int[] arr = new int[table.getColumnCount()];
+		for(int i=0; i<table.getColumnCount(); i++){
+			arr[i] = table.getColumnModel().getColumn(i).getModelIndex();
 		}
-		
-		return tableData;
+		return arr;
+	}
+	
+	/**
+	 * getSelectedValues
+	 * 
+	 * Gets the values in the column for each of the selected rows. The column is looked
+	 * up in the data, so it does not matter if it was excluded from the table.
+	 * 
+	 * @param column - the name of the column
+	 * @return the value in the column of each selected row
+	 */
+	public String[] getSelectedValues(String column){
+		AbstractTableModel model = (pagedModel != null) ? pagedModel : (storeModel != null) ? storeModel : tableModel;
+		int col = model.findColumn(column);
+		int[] rows = table.getSelectedRows();
+		String[] values = new String[rows.length];
+		for(int i=0; i<rows.length; i++){
+			values[i] = (col == -1) ? null : (String)model.getValueAt(rows[i], col);
+		}
+		return values;
+	}
+	
+	/**
+	 * isPaged
+	 * 
+	 * Checks whether the table is shown a page at a time (see showPages).
+	 * 
+	 * @return true if the table is paged, false if all of its data is held
+	 */
+	public boolean isPaged(){
+		return pagedModel != null;
 	}
 	
 	/**
-	 * Updates the table info such that the table is filled with the values in data with the column names
+	 * hasExcludedRows
+	 * 
+	 * Checks whether any rows were excluded since the table info was last updated.
+	 * 
+	 * @return true if rows were excluded, false otherwise
+	 */
+	public boolean hasExcludedRows(){
+		return !exclusions.isEmpty();
+	}
+	
+	/**
+	 * getStore
+	 * 
+	 * Gets the store the rows of the table are read from. Excluded rows are still in
+	 * the store; getExcludedRows tells which ones they are.
+	 * 
+	 * @return the store of the table, or null if the table is paged or empty
+	 */
+	public ColumnStore getStore(){
+		return (storeModel == null) ? null : storeModel.getStore();
+	}
+	
+	/**
+	 * getExcludedRows
+	 * 
+	 * Gets the ids (store rows) of the rows that were excluded from the table.
+	 * 
+	 * @return a copy of the ids of the excluded rows
+	 */
+	public RowBitmap getExcludedRows(){
+		return (storeModel == null) ? new RowBitmap() : storeModel.getExcluded();
+	}
+	
+	/**
+	 * Updates the table info such that the table is filled with the rows in store with the column names
 	 * stored in colNames. 
 	 * 
-	 * Precondition: data always has the same amount of columns as the length of colNames.
-	 * @param data is data to be stored in the table
+	 * Precondition: store always has the same amount of columns as the length of colNames.
+	 * @param store is the data to be stored in the table
 	 * @param colNames is the list of column names
 	 */
-	public void updateTableInfo(Vector<String[]> data, String[] colNames){
-		//sets the size of the table to never be 0
-		int dataSize = data.size()==0 ? 1 : data.size();
-		
+	public void updateTableInfo(ColumnStore store, String[] colNames){
 		//check to make sure no columns have the same name
-		for(int i=0; i<colNames.length;i++){
-			int count = 1;
-			for(int j=i+1; j<colNames.length; j++){
-				if(colNames[i].equals(colNames[j])){
-					colNames[j] += "(" + count +")";
-					count++;
-				}
-			}
-		}
-
-		//Creates a new 2d array of the table
-		String[][] n_data = new String[dataSize][colNames.length];
-		for(int i=0; i<dataSize;i++){
-			if(data.size() == 0)
-				n_data[i] = null; //initializes the table with at lease 1 row if empty
-			else
-				n_data[i] = data.get(i); //otherwise fills the table with data
-		}
+		DBAccessor.markMultiples(colNames);
 
-		tableModel = new DefaultTableModel(n_data, colNames);
-		table.setModel(tableModel);
+		disposePages();
+		storeModel = new StoreTableModel(store, colNames);
+		table.setModel(storeModel);
+		exclusions.clear();
 	}
 	
 	/**
-	 * removeSelectedRows
+	 * startTableInfo
+	 * 
+	 * Empties the table and gives it new columns. Rows are then added with addRows as
+	 * they arrive.
 	 * 
-	 * Removes the selected rows from the table.
+	 * @param store is the empty store the rows are to be added to
+	 * @param colNames is the list of column names
 	 */
-	public void removeSelectedRows(){
-		//Comes in sorted lowest to highest
-		int[] rows = table.getSelectedRows();
-		//Traversing backwards accounts for the shifting done when the row is removed.
-		for(int i=rows.length-1; i>=0; i--){
-			tableModel.removeRow(rows[i]);
-		}
+	public void startTableInfo(ColumnStore store, String[] colNames){
+		updateTableInfo(store, colNames);
+	}
+	
+	/**
+	 * addRows
+	 * 
+	 * Adds rows to the end of the table.
+	 * 
+	 * Precondition: each row has the same amount of columns as the table.
+	 * @param rows - the rows to add
+	 */
+	public void addRows(List<String[]> rows){
+		if(storeModel != null)
+			storeModel.addRows(rows);
+	}
+	
+	/**
+	 * showPages
+	 * 
+	 * Shows a table a page at a time. Only the rows that are scrolled to are fetched
+	 * from the database, so any size of table can be shown.
+	 * 
+	 * @param model - the paged model of the table
+	 */
+	public void showPages(PagedTableModel model){
+		disposePages();
+		storeModel = null;
+		pagedModel = model;
+		table.setModel(pagedModel);
+		exclusions.clear();
+	}
+	
+	/**
+	 * filterRows
+	 * 
+	 * Shows only the rows of a paged table that match the condition. Rows left out this
+	 * way do not count as excluded rows (see hasExcludedRows) since the condition says
+	 * which ones they are.
+	 * 
+	 * @param condition - the condition in sql syntax, or null for every row
+	 */
+	public void filterRows(String condition){
+		if(pagedModel != null)
+			pagedModel.reload(condition);
+	}
+	
+	/**
+	 * disposePages
+	 * 
+	 * Stops the paged model, if there is one, from loading any more pages.
+	 */
+	private void disposePages(){
+		if(pagedModel != null)
+			pagedModel.dispose();
+		pagedModel = null;
+	}
+	
+	/**
+	 * excludeSelectedRows
+	 * 
+	 * Excludes the selected rows from the table. The rows are only marked as excluded,
+	 * so any number of them are excluded at once and undoExcludedRows brings them back.
+	 */
+	public void excludeSelectedRows(){
+		if(storeModel == null)
+			return;
+		int[] ids = storeModel.exclude(table.getSelectedRows());
+		if(ids.length > 0)
+			exclusions.push(ids);
+	}
+	
+	/**
+	 * undoExcludedRows
+	 * 
+	 * Shows the rows excluded by the last call to excludeSelectedRows again.
+	 * 
+	 * @return true if there were excluded rows to show
+	 */
+	public boolean undoExcludedRows(){
+		if(storeModel == null || exclusions.isEmpty())
+			return false;
+		storeModel.include(exclusions.pop());
+		return true;
 	}
 }
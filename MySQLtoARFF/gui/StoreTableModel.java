@@ -0,0 +1,185 @@
+package gui;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.table.AbstractTableModel;
+
+import database.ColumnStore;
+import database.RowBitmap;
+
+/**
+ * StoreTableModel
+ * @author Daniel J Bray
+ *
+ * A table model that shows the rows of a ColumnStore. Cells are read from the store as they are
+ * painted, so the table holds no copy of the data. Excluded rows stay in the store and are only
+ * marked in a RowBitmap of their ids (store rows), so excluding or including any number of rows
+ * moves no data and can be undone. The rows the table shows are found from the bitmap when they
+ * are next needed; with nothing excluded the table rows are the store rows.
+ */
+public class StoreTableModel extends AbstractTableModel {
+
+	private static final long serialVersionUID = 2903814617240952211L;
+
+	private ColumnStore store;
+	private String[] colNames;
+	private RowBitmap excluded;
+	//The store row shown in each row of the table, null if every row is shown or not yet found
+	private int[] view;
+	private int viewCount;
+
+	/**
+	 * Constructs a new StoreTableModel showing every row of the store.
+	 *
+	 * @param store - the rows
+	 * @param colNames - the names of the columns, with multiples marked
+	 */
+	public StoreTableModel(ColumnStore store, String[] colNames){
+		this.store = store;
+		this.colNames = colNames;
+		excluded = new RowBitmap();
+		view = null;
+	}
+
+	/**
+	 * getStore
+	 *
+	 * @return the store the rows are read from
+	 */
+	public ColumnStore getStore(){
+		return store;
+	}
+
+	/**
+	 * getExcluded
+	 *
+	 * @return a copy of the ids of the excluded rows
+	 */
+	public RowBitmap getExcluded(){
+		return new RowBitmap(excluded);
+	}
+
+	/**
+	 * getRowId
+	 *
+	 * @param row - the row of the table
+	 * @return the store row shown in the row of the table
+	 */
+	public int getRowId(int row){
+		if(excluded.isEmpty())
+			return row;
+		if(view == null)
+			findView();
+		return view[row];
+	}
+
+	/**
+	 * addRows
+	 *
+	 * Adds rows to the store and to the end of the table.
+	 *
+	 * @param rows - the rows, as text
+	 */
+	public void addRows(List<String[]> rows){
+		if(rows.isEmpty())
+			return;
+		int first = getRowCount();
+		for(String[] row : rows){
+			//New rows are never excluded
+			if(view != null && !excluded.isEmpty()){
+				if(viewCount == view.length)
+					view = Arrays.copyOf(view, view.length * 2 + 16);
+				view[viewCount++] = store.getRowCount();
+			}
+			store.addRow(row);
+		}
+		fireTableRowsInserted(first, getRowCount() - 1);
+	}
+
+	/**
+	 * exclude
+	 *
+	 * Excludes rows from the table.
+	 *
+	 * @param rows - the rows of the table to exclude
+	 * @return the ids of the rows, for include
+	 */
+	public int[] exclude(int[] rows){
+		int[] ids = new int[rows.length];
+		for(int i=0; i<rows.length; i++){
+			ids[i] = getRowId(rows[i]);
+		}
+		for(int id : ids){
+			excluded.add(id);
+		}
+		changed(ids.length);
+		return ids;
+	}
+
+	/**
+	 * include
+	 *
+	 * Shows rows that were excluded again, undoing exclude.
+	 *
+	 * @param ids - the ids of the rows, as returned by exclude
+	 */
+	public void include(int[] ids){
+		for(int id : ids){
+			excluded.remove(id);
+		}
+		changed(ids.length);
+	}
+
+	/**
+	 * changed
+	 *
+	 * Tells the table the rows it shows have changed.
+	 */
+	private void changed(int count){
+		if(count == 0)
+			return;
+		view = null;
+		fireTableDataChanged();
+	}
+
+	/**
+	 * findView
+	 *
+	 * Finds the store row of each row of the table in one pass over the ids.
+	 */
+	private void findView(){
+		int rows = store.getRowCount();
+		viewCount = rows - excluded.getCardinality();
+		view = new int[viewCount];
+		int n = 0;
+		for(int id=0; id<rows; id++){
+			if(!excluded.contains(id))
+				view[n++] = id;
+		}
+	}
+
+	@Override
+	public int getRowCount() {
+		if(excluded.isEmpty())
+			return store.getRowCount();
+		if(view == null)
+			findView();
+		return viewCount;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return colNames.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return colNames[column];
+	}
+
+	@Override
+	public Object getValueAt(int rowIndex, int columnIndex) {
+		return store.getString(getRowId(rowIndex), columnIndex);
+	}
+}